@@ -0,0 +1,82 @@
+package hsos.prog3.projektarbeit.bitlocker.datenbank;
+
+import android.database.Cursor;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The CursorIterator class iterates over the rows of a cursor and maps every row with a RowMapper, so large tables
+ * can be processed row by row without copying them into a list first. The cursor is closed as soon as the last row
+ * has been read. If the iteration is stopped earlier, close() has to be called, best with try-with-resources.
+ * Instances are not thread-safe.
+ *
+ * @param <T> type of the mapped objects
+ * @author Andreas Morasch
+ * @see DatabaseHelper#iterateEntries(RowMapper)
+ */
+
+public final class CursorIterator<T> implements Iterator<T>, Closeable {
+
+    private final Cursor cursor;
+    private final RowMapper<T> rowMapper;
+    private boolean hasNext;
+
+    /**
+     * Constructor for the CursorIterator class, the iterator takes over the cursor.
+     *
+     * @param cursor    cursor positioned before the first row
+     * @param rowMapper mapper for the rows
+     */
+
+    CursorIterator(Cursor cursor, RowMapper<T> rowMapper) {
+        this.cursor = cursor;
+        this.rowMapper = rowMapper;
+        this.hasNext = cursor.moveToNext();
+        if (!hasNext) {
+            cursor.close();
+        }
+    }
+
+    /**
+     * This method checks if there are rows left.
+     *
+     * @return true if next() returns another row
+     */
+
+    @Override
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * This method maps the next row, after the last row the cursor is closed.
+     *
+     * @return mapped object of the next row
+     * @throws NoSuchElementException if there are no rows left
+     */
+
+    @Override
+    public T next() {
+        if (!hasNext) {
+            throw new NoSuchElementException();
+        }
+        T row = rowMapper.mapRow(cursor);
+        hasNext = cursor.moveToNext();
+        if (!hasNext) {
+            cursor.close();
+        }
+        return row;
+    }
+
+    /**
+     * This method closes the cursor, the iterator has no rows left afterwards. It can be called more than once.
+     */
+
+    @Override
+    public void close() {
+        hasNext = false;
+        cursor.close();
+    }
+}
@@ -0,0 +1,83 @@
+package hsos.prog3.projektarbeit.bitlocker.datenbank;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import hsos.prog3.projektarbeit.bitlocker.BuildConfig;
+
+/**
+ * The CursorTracker class opens all cursors of the data layer. In debug builds every cursor is wrapped and
+ * registered together with the stack trace of its creation until it is closed, so cursors which are never closed
+ * (and keep their CursorWindow of up to 2 MB) can be listed with logOpenCursors(). In release builds the cursors are
+ * returned unchanged and nothing is recorded.
+ *
+ * @author Andreas Morasch
+ * @see DatabaseHelper
+ */
+
+public final class CursorTracker {
+
+    private static final Map<Cursor, Throwable> OPEN_CURSORS = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor, the class only has static methods.
+     */
+
+    private CursorTracker() {
+    }
+
+    /**
+     * This method runs the query and returns its cursor, which is tracked in debug builds.
+     *
+     * @param db            database to be queried
+     * @param sql           SQL query with ? for every parameter
+     * @param selectionArgs values of the parameters, may be null
+     * @return cursor positioned before the first row, has to be closed by the caller
+     */
+
+    static Cursor query(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        if (!BuildConfig.DEBUG) {
+            return cursor;
+        }
+        Cursor tracked = new CursorWrapper(cursor) {
+            @Override
+            public void close() {
+                OPEN_CURSORS.remove(this);
+                super.close();
+            }
+        };
+        OPEN_CURSORS.put(tracked, new Throwable("Cursor opened: " + sql));
+        return tracked;
+    }
+
+    /**
+     * Getter for the number of cursors which have been opened and not closed yet, always 0 in release builds.
+     *
+     * @return number of open cursors
+     */
+
+    public static int getOpenCursorCount() {
+        return OPEN_CURSORS.size();
+    }
+
+    /**
+     * This method logs the number of open cursors and where each of them has been created.
+     * It does nothing in release builds or if no cursor is open.
+     */
+
+    public static void logOpenCursors() {
+        if (OPEN_CURSORS.isEmpty()) {
+            return;
+        }
+        Log.w("CursorTracker: ", OPEN_CURSORS.size() + " cursors not closed");
+        for (Throwable creation : OPEN_CURSORS.values()) {
+            Log.w("CursorTracker: ", "Cursor created at", creation);
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package hsos.prog3.projektarbeit.bitlocker.datenbank;
 
-import android.annotation.SuppressLint;
+import android.content.ComponentCallbacks2;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Build;
 import android.util.Log;
 
@@ -13,37 +16,140 @@ import androidx.annotation.RequiresApi;
 
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 
+import hsos.prog3.projektarbeit.bitlocker.BuildConfig;
 import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
+import hsos.prog3.projektarbeit.bitlocker.logik.CryptoEngine;
+import hsos.prog3.projektarbeit.bitlocker.logik.CryptoEngines;
+import hsos.prog3.projektarbeit.bitlocker.logik.KeyContext;
+import hsos.prog3.projektarbeit.bitlocker.logik.KeyDerivation;
+import hsos.prog3.projektarbeit.bitlocker.logik.MasterPasswordVerifier;
+import hsos.prog3.projektarbeit.bitlocker.logik.PasswordRecord;
 
 /**
  * The DatabaseHelper class extends the SQLiteOpenHelper and implements the DatabaseInterface.
  * Purpose of this class is to be able to make and edit entries to the database
  * which is holding both websites and encrypted passwords.
+ * There is only one DatabaseHelper per process, see getInstance(Context). It opens the vault once and keeps it open
+ * until the process ends, so no method closes the database. The database uses write-ahead logging: writes go to the
+ * primary connection, while reads outside of a transaction run on the read-only connections of the pool at the same
+ * time, e.g. the SafeFragment loading the list while the KeyRotationJob or the IntegritySweeper write in the background.
+ * All queries bind their parameters and use constant SQL Strings, so SQLite finds them in the prepared statement cache
+ * of the connection and does not parse them again. Compiled statements are closed right after their execution.
  *
  * @author Andreas Morasch
  */
 
 public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseInterface {
 
-    private static final String TABLE_NAME = "passwort_table";
-    private static final String WEBSITE_COL = "website";
-    private static final String PASSWORD_COL = "crypted_password";
+    // Alte Tresore speichern das Masterpasswort verschlüsselt als ersten Eintrag der Passworttabelle
+    static final String MASTER_PASSWORD_ENTRY = "BitLocker";
+    static final String TABLE_NAME = "passwort_table";
+    static final String ENTRY_ID_COL = "id";
+    static final String WEBSITE_COL = "website";
+    static final String WEBSITE_INDEX_COL = "website_index";
+    static final String WEBSITE_INDEX_NAME = "passwort_table_website_index";
+    static final String PASSWORD_COL = "crypted_password";
+    static final String KEY_VERSION_COL = "key_version";
+    static final String INTEGRITY_TAG_COL = "integrity_tag";
+    static final String METADATA_TABLE_NAME = "metadata_table";
+    static final String METADATA_KEY_COL = "meta_key";
+    static final String METADATA_VALUE_COL = "meta_value";
+    static final String META_KEY_VERSION = "key_version";
+    static final String META_ROTATION_TARGET_VERSION = "rotation_target_version";
+    static final String META_ROTATION_PREVIOUS_KEY = "rotation_previous_key";
+    static final String META_WRAPPED_DATA_KEY = "wrapped_data_key";
+    static final String META_KDF_SALT = "kdf_salt";
+    static final String META_KDF_ITERATIONS = "kdf_iterations";
+    static final String META_VERIFIER = "master_password_verifier";
+    static final String META_CRYPTO_ENGINE = "crypto_engine";
+    static final String META_CRYPTO_ENGINE_BUILD = "crypto_engine_build";
+    static final String META_INTEGRITY_WATERMARK = "integrity_watermark";
+    // Gesetzt, sobald jeder Eintrag ein Integritäts-Tag hat; danach gilt ein fehlendes Tag als Manipulation
+    static final String META_INTEGRITY_TAGS_COMPLETE = "integrity_tags_complete";
+    static final String META_WEBSITE_INDEX_VERSION = "website_index_version";
+    // Version 2: Blind Index über den kleingeschriebenen Namen
+    private static final long WEBSITE_INDEX_VERSION = 2;
+    // Nur alte Tresore, deren Websitenamen noch nicht verschlüsselt wurden, haben Einträge ohne Blind Index
+    private static final String LEGACY_MASTER_PASSWORD_SELECTION = WEBSITE_COL + " = ? AND " + WEBSITE_INDEX_COL + " IS NULL";
+    private static final int DATABASE_VERSION = 6;
+    private static final String INSERT_ENTRY_SQL = "INSERT INTO " + TABLE_NAME + " (" + WEBSITE_COL + ", " + WEBSITE_INDEX_COL + ", "
+            + PASSWORD_COL + ", " + KEY_VERSION_COL + ", " + INTEGRITY_TAG_COL + ") VALUES (?, ?, ?, ?, ?)";
+    private static final String UPDATE_WEBSITE_SQL = "UPDATE " + TABLE_NAME + " SET " + WEBSITE_COL + " = ?, " + WEBSITE_INDEX_COL
+            + " = ?, " + PASSWORD_COL + " = ?, " + KEY_VERSION_COL + " = ? WHERE " + WEBSITE_INDEX_COL + " = ?";
+    private static final String UPDATE_PASSWORD_SQL = "UPDATE " + TABLE_NAME + " SET " + PASSWORD_COL + " = ?, " + KEY_VERSION_COL
+            + " = ? WHERE " + WEBSITE_INDEX_COL + " = ?";
+    private static final String UPDATE_INTEGRITY_TAG_SQL = "UPDATE " + TABLE_NAME + " SET " + INTEGRITY_TAG_COL + " = ? WHERE "
+            + WEBSITE_INDEX_COL + " = ?";
+    private static final String DELETE_ENTRY_SQL = "DELETE FROM " + TABLE_NAME + " WHERE " + WEBSITE_INDEX_COL + " = ?";
+    private static final String COUNT_ENTRY_SQL = "SELECT count(*) FROM " + TABLE_NAME + " WHERE " + WEBSITE_INDEX_COL + " = ?";
+    private static final String SELECT_PASSWORD_SQL = "SELECT rowid, " + PASSWORD_COL + ", " + KEY_VERSION_COL + ", " + WEBSITE_COL
+            + " FROM " + TABLE_NAME + " WHERE " + WEBSITE_INDEX_COL + " = ?";
+    private static final String SELECT_ENTRY_SQL = "SELECT " + WEBSITE_COL + ", " + PASSWORD_COL + ", " + INTEGRITY_TAG_COL + " FROM "
+            + TABLE_NAME + " WHERE " + WEBSITE_INDEX_COL + " = ?";
+    private static final String SELECT_ALL_ENTRIES_SQL = "SELECT " + WEBSITE_COL + ", " + WEBSITE_INDEX_COL + ", " + PASSWORD_COL + ", "
+            + KEY_VERSION_COL + ", " + INTEGRITY_TAG_COL + " FROM " + TABLE_NAME + " ORDER BY " + ENTRY_ID_COL;
+    private static final String SELECT_METADATA_SQL = "SELECT " + METADATA_VALUE_COL + " FROM " + METADATA_TABLE_NAME + " WHERE "
+            + METADATA_KEY_COL + " = ?";
+
+    private static DatabaseHelper instance;
+    private volatile AES_Encryption sessionEncryption;
 
     /**
-     * Constructor for the DatabaseHelper class.
+     * Private constructor for the DatabaseHelper class, use getInstance(Context) instead.
+     * Write-ahead logging is enabled before the database is opened for the first time.
+     * The session is locked as soon as the system asks the app to free memory while it is in the background.
+     *
+     * @param context application context
+     */
+
+    private DatabaseHelper(Context context) {
+        super(context, TABLE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_BACKGROUND) {
+                    lock();
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration configuration) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                lock();
+            }
+        });
+    }
+
+    /**
+     * This method returns the DatabaseHelper of this process. It is created on the first call, every activity and
+     * fragment then shares the same open database instead of opening the file again.
      *
      * @param context Context needs to be given to let the DatabaseHelper know, where the method call was made from.
+     *                Only its application context is kept, so no activity is leaked.
+     * @return DatabaseHelper of this process
      */
 
-    public DatabaseHelper(Context context) {
-        super(context, TABLE_NAME, null, 1);
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new DatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
     }
 
     /**
@@ -55,86 +161,470 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseInterfac
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        String createTable = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" + WEBSITE_COL + " TEXT PRIMARY KEY, " +
-                PASSWORD_COL + " TEXT)";
-        db.execSQL(createTable);
+        createPasswordTable(db, TABLE_NAME);
+        createWebsiteIndex(db);
+        createMetadataTable(db);
+        putMetadata(db, META_WEBSITE_INDEX_VERSION, WEBSITE_INDEX_VERSION);
+    }
+
+    /**
+     * This method creates the password table. Website names and passwords are both stored as encrypted binary
+     * records (see PasswordRecord). Next to the encrypted name the table holds its blind index
+     * (see AES_Encryption.blindIndex(String)), which is used to find an entry by its name, and the integrity tag
+     * of the entry (see AES_Encryption.integrityTag(String, byte[], byte[])).
+     * The id column is an alias of the rowid, so the entries keep stable keys which the watermarks of the
+     * KeyRotationJob and the IntegritySweeper can refer to, and listing in id order never depends on the scan order.
+     *
+     * @param db        SQLiteDatabase object in order to create the table
+     * @param tableName name of the new table
+     */
+
+    private void createPasswordTable(SQLiteDatabase db, String tableName) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + tableName + " (" + ENTRY_ID_COL + " INTEGER PRIMARY KEY, " + WEBSITE_COL + " BLOB, " +
+                WEBSITE_INDEX_COL + " TEXT, " +
+                PASSWORD_COL + " BLOB, " + KEY_VERSION_COL + " INTEGER NOT NULL DEFAULT 0, " + INTEGRITY_TAG_COL + " BLOB)");
+    }
+
+    /**
+     * This method creates the unique index on the blind index column. Exact-match lookups of a website name
+     * and the check whether a name already exists are answered by this index without decrypting any names.
+     *
+     * @param db SQLiteDatabase object in order to create the index
+     */
+
+    private void createWebsiteIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS " + WEBSITE_INDEX_NAME + " ON " + TABLE_NAME + " (" + WEBSITE_INDEX_COL + ")");
+    }
+
+    /**
+     * This method creates the metadata table holding vault-level key/value records, e.g. the state of a key rotation.
+     *
+     * @param db SQLiteDatabase object in order to create the table
+     */
+
+    private void createMetadataTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + METADATA_TABLE_NAME + " (" + METADATA_KEY_COL + " TEXT PRIMARY KEY, " +
+                METADATA_VALUE_COL + " BLOB)");
     }
 
     /**
      * This method is only called when the corresponding table (database file) already exists, but the stored version number is lower
-     * than requested in the constructor. It will drop the current table and create a new one with the correct version.
+     * than requested in the constructor. It will migrate the existing tables step by step to the requested version without losing any entries.
+     * Version 2: key version column for every entry and the metadata table, required for resumable key rotations.
+     * Version 3: the password column holds binary records. The old Base64 texts are copied as they are and
+     * replaced by versioned records as soon as they are read or re-encrypted.
+     * Version 4: website names are encrypted and found by their blind index. The key is not available here, so the
+     * names are copied in plain text without blind index and encrypted on the next unlock, see unlockDataKey(String).
+     * Both versions rebuild the table and are therefore migrated in one step.
+     * Version 5: integrity tag for every entry. Existing entries get their tag from the IntegritySweeper. Once every
+     * entry has a tag, META_INTEGRITY_TAGS_COMPLETE is set and an entry without tag counts as modified.
+     * Version 6: id column as INTEGER PRIMARY KEY. The table is rebuilt and every entry keeps its rowid as id, so the
+     * watermarks of the KeyRotationJob and the IntegritySweeper stay valid. The blind indices are case-insensitive
+     * from now on, they are recomputed on the next unlock, see indexWebsiteNames.
+     * Versions 4 and 6 both rebuild the table with the current columns, so after version 4 no other step is needed.
      *
-     * @param db         SQLiteDatabase object in order to create the new table
+     * @param db         SQLiteDatabase object in order to migrate the tables
      * @param oldVersion old version number
      * @param newVersion new version number
      */
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        Cursor cursor = getDataCursor();
-
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-        onCreate(db);
-
-        while (cursor.moveToNext()) {
-            addData(cursor.getString(0), cursor.getString(1));
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + KEY_VERSION_COL + " INTEGER NOT NULL DEFAULT 0");
+            createMetadataTable(db);
+        }
+        if (oldVersion < 4) {
+            // SQLite kann den Typ einer Spalte nicht ändern, daher wird die Tabelle neu aufgebaut
+            String migrationTable = TABLE_NAME + "_v4";
+            createPasswordTable(db, migrationTable);
+            db.execSQL("INSERT INTO " + migrationTable + " (" + WEBSITE_COL + ", " + PASSWORD_COL + ", " + KEY_VERSION_COL + ")" +
+                    " SELECT " + WEBSITE_COL + ", CAST(" + PASSWORD_COL + " AS BLOB), " + KEY_VERSION_COL + " FROM " + TABLE_NAME);
+            db.execSQL("DROP TABLE " + TABLE_NAME);
+            db.execSQL("ALTER TABLE " + migrationTable + " RENAME TO " + TABLE_NAME);
+            createWebsiteIndex(db);
+        } else {
+            // Die neu aufgebaute Tabelle enthält die Spalten bereits
+            if (oldVersion < 5) {
+                db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + INTEGRITY_TAG_COL + " BLOB");
+            }
+            if (oldVersion < 6) {
+                String migrationTable = TABLE_NAME + "_v6";
+                createPasswordTable(db, migrationTable);
+                db.execSQL("INSERT INTO " + migrationTable + " (" + ENTRY_ID_COL + ", " + WEBSITE_COL + ", " + WEBSITE_INDEX_COL + ", "
+                        + PASSWORD_COL + ", " + KEY_VERSION_COL + ", " + INTEGRITY_TAG_COL + ") SELECT rowid, " + WEBSITE_COL + ", "
+                        + WEBSITE_INDEX_COL + ", " + PASSWORD_COL + ", " + KEY_VERSION_COL + ", " + INTEGRITY_TAG_COL + " FROM " + TABLE_NAME);
+                db.execSQL("DROP TABLE " + TABLE_NAME);
+                db.execSQL("ALTER TABLE " + migrationTable + " RENAME TO " + TABLE_NAME);
+                createWebsiteIndex(db);
+            }
         }
     }
 
     /**
      * This method adds data (website + encrypted Password) to the current SQLite database table.
+     * The website name is stored encrypted together with its blind index and the integrity tag of the entry.
+     * Since the blind index is unique, the insert fails if the name already exists.
+     * The insert statement is compiled once and reused.
      *
-     * @param website     website name to be stored (key attribute)
-     * @param encryptedPW encrypted password to be stored
+     * @param website        website name to be stored (key attribute)
+     * @param encryptedPW    encrypted password to be stored, bound to the blind index of the website name
+     *                       (see AES_Encryption.encryptPassword(String, String))
+     * @param aes_encryption aes_encryption object holding the data key
      * @return boolean value returning true if the storage was successful and false if not
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
      */
 
-    public boolean addData(String website, String encryptedPW) {
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public boolean addData(String website, byte[] encryptedPW, AES_Encryption aes_encryption) throws UnsupportedEncodingException, NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        byte[] encryptedWebsite = aes_encryption.encryptPassword(website);
+        String websiteIndex = aes_encryption.blindIndex(website);
         SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(WEBSITE_COL, website);
-        contentValues.put(PASSWORD_COL, encryptedPW);
-
-        long result = db.insert(TABLE_NAME, null, contentValues);
-        db.close();
-        return result != -1;
+        SQLiteStatement statement = db.compileStatement(INSERT_ENTRY_SQL);
+        try {
+            statement.bindBlob(1, encryptedWebsite);
+            statement.bindString(2, websiteIndex);
+            statement.bindBlob(3, encryptedPW);
+            statement.bindLong(4, getWriteKeyVersion(db));
+            statement.bindBlob(5, aes_encryption.integrityTag(websiteIndex, encryptedWebsite, encryptedPW));
+            return statement.executeInsert() != -1;
+        } catch (SQLiteConstraintException e) {
+            // Blind Index bereits vorhanden
+            return false;
+        } finally {
+            statement.close();
+        }
     }
 
     /**
      * This method updates the website name based on the key attribute (oldWebsite).
+     * The new name is encrypted and gets a new blind index, the password is bound to the new blind index
+     * (see AES_Encryption.rebindPassword(byte[], String, String)) and the integrity tag of the entry is renewed.
+     * A password which cannot be opened with the old blind index is not moved, the update fails with a BadPaddingException.
      *
-     * @param oldWebsite old website name to be found and replaced
-     * @param newWebsite new website name which replaces the old website name
+     * @param oldWebsite     old website name to be found and replaced
+     * @param newWebsite     new website name which replaces the old website name
+     * @param aes_encryption aes_encryption object holding the data key
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
      */
 
-    public void updateWebsite(String oldWebsite, String newWebsite) {
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public void updateWebsite(String oldWebsite, String newWebsite, AES_Encryption aes_encryption) throws UnsupportedEncodingException,
+            NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.execSQL("UPDATE " + TABLE_NAME + " SET " + WEBSITE_COL + " = '" + newWebsite + "'" +
-                " WHERE " + WEBSITE_COL + " = '" + oldWebsite + "'");
+        String oldWebsiteIndex = aes_encryption.blindIndex(oldWebsite);
+        String websiteIndex = aes_encryption.blindIndex(newWebsite);
+        SQLiteStatement statement = db.compileStatement(UPDATE_WEBSITE_SQL);
+        db.beginTransaction();
+        try {
+            byte[] encryptedPassword = selectPassword(db, oldWebsiteIndex);
+            if (encryptedPassword != null) {
+                statement.bindBlob(1, aes_encryption.encryptPassword(newWebsite));
+                statement.bindString(2, websiteIndex);
+                statement.bindBlob(3, aes_encryption.rebindPassword(encryptedPassword, oldWebsiteIndex, websiteIndex));
+                statement.bindLong(4, getWriteKeyVersion(db));
+                statement.bindString(5, oldWebsiteIndex);
+                statement.executeUpdateDelete();
+                updateIntegrityTag(db, websiteIndex, aes_encryption);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
     }
 
     /**
      * This method updates the encrypted password based on the key attribute (website).
+     * The integrity tag of the entry is renewed in the same transaction.
      *
      * @param website              website name as the key attribute to search for
-     * @param newEncryptedPassword new encrypted password to replace the old one
+     * @param newEncryptedPassword new encrypted password to replace the old one, bound to the blind index of the website
+     *                             name (see AES_Encryption.encryptPassword(String, String))
+     * @param aes_encryption       aes_encryption object holding the data key
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
      */
 
-    public void updatePassword(String website, String newEncryptedPassword) {
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public void updatePassword(String website, byte[] newEncryptedPassword, AES_Encryption aes_encryption) throws NoSuchAlgorithmException,
+            InvalidKeyException {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.execSQL("UPDATE " + TABLE_NAME + " SET " + PASSWORD_COL + " = '" + newEncryptedPassword + "'" +
-                " WHERE " + WEBSITE_COL + " = '" + website + "'");
+        String websiteIndex = aes_encryption.blindIndex(website);
+        SQLiteStatement statement = db.compileStatement(UPDATE_PASSWORD_SQL);
+        db.beginTransaction();
+        try {
+            statement.bindBlob(1, newEncryptedPassword);
+            statement.bindLong(2, getWriteKeyVersion(db));
+            statement.bindString(3, websiteIndex);
+            statement.executeUpdateDelete();
+            updateIntegrityTag(db, websiteIndex, aes_encryption);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            statement.close();
+        }
+    }
+
+    /**
+     * Helper method computing the integrity tag of an entry from its stored columns and writing it back.
+     *
+     * @param db             writable database
+     * @param websiteIndex   blind index of the entry
+     * @param aes_encryption aes_encryption object holding the data key
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private void updateIntegrityTag(SQLiteDatabase db, String websiteIndex, AES_Encryption aes_encryption) throws NoSuchAlgorithmException,
+            InvalidKeyException {
+        byte[] integrityTag;
+        try (Cursor data = CursorTracker.query(db, SELECT_ENTRY_SQL, new String[]{websiteIndex})) {
+            if (!data.moveToFirst()) {
+                return;
+            }
+            integrityTag = aes_encryption.integrityTag(websiteIndex, data.getBlob(0), data.getBlob(1));
+        }
+        SQLiteStatement statement = db.compileStatement(UPDATE_INTEGRITY_TAG_SQL);
+        try {
+            statement.bindBlob(1, integrityTag);
+            statement.bindString(2, websiteIndex);
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
     }
 
     /**
      * This method removes one specific database entry based on the key attribute (website).
      *
-     * @param website website name to search for and remove the specific entry
+     * @param website        website name to search for and remove the specific entry
+     * @param aes_encryption aes_encryption object holding the data key
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public void removeOne(String website, AES_Encryption aes_encryption) throws NoSuchAlgorithmException, InvalidKeyException {
+        SQLiteStatement statement = this.getWritableDatabase().compileStatement(DELETE_ENTRY_SQL);
+        try {
+            statement.bindString(1, aes_encryption.blindIndex(website));
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * This method applies all operations of the batch in one single transaction, so the whole batch costs one
+     * commit of the journal. Website names are encrypted and all blind indices and integrity tags of new entries
+     * are computed before the transaction starts, so the database is only locked while the compiled statements run.
+     * An operation whose entry does not exist or whose new name is already taken is skipped and reported, the other
+     * operations are applied anyway. If an exception is thrown, none of the operations is applied, e.g. if the password
+     * of a renamed entry cannot be opened with its old blind index.
+     *
+     * @param batch          operations to be applied
+     * @param aes_encryption aes_encryption object holding the data key
+     * @return result of every operation, in the order of the batch
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
      */
 
-    public void removeOne(String website) {
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public List<EntryBatch.Result> applyBatch(EntryBatch batch, AES_Encryption aes_encryption) throws UnsupportedEncodingException,
+            NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        List<EntryBatch.Operation> operations = batch.getOperations();
+        int size = operations.size();
+        String[] websiteIndices = new String[size];
+        String[] newWebsiteIndices = new String[size];
+        List<String> websitesToEncrypt = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            EntryBatch.Operation operation = operations.get(i);
+            websiteIndices[i] = aes_encryption.blindIndex(operation.website);
+            if (operation.type == EntryBatch.INSERT) {
+                websitesToEncrypt.add(operation.website);
+            } else if (operation.type == EntryBatch.UPDATE_WEBSITE) {
+                newWebsiteIndices[i] = aes_encryption.blindIndex(operation.newWebsite);
+                websitesToEncrypt.add(operation.newWebsite);
+            }
+        }
+        // Alle Namen auf einmal verschlüsseln, das nutzt die parallele Verarbeitung von encryptPasswords
+        List<byte[]> encryptedWebsites = aes_encryption.encryptPasswords(websitesToEncrypt);
+
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_NAME, WEBSITE_COL + "= '" + website + "'", null);
+        List<EntryBatch.Result> results = new ArrayList<>(size);
+        db.beginTransaction();
+        try {
+            long keyVersion = getWriteKeyVersion(db);
+            int encryptedWebsite = 0;
+            for (int i = 0; i < size; i++) {
+                EntryBatch.Operation operation = operations.get(i);
+                switch (operation.type) {
+                    case EntryBatch.INSERT:
+                        results.add(insertEntry(db, websiteIndices[i], encryptedWebsites.get(encryptedWebsite++), operation.encryptedPassword,
+                                keyVersion, aes_encryption));
+                        break;
+                    case EntryBatch.UPDATE_WEBSITE:
+                        results.add(renameEntry(db, websiteIndices[i], newWebsiteIndices[i], encryptedWebsites.get(encryptedWebsite++),
+                                keyVersion, aes_encryption));
+                        break;
+                    case EntryBatch.UPDATE_PASSWORD:
+                        results.add(replacePassword(db, websiteIndices[i], operation.encryptedPassword, keyVersion, aes_encryption));
+                        break;
+                    default:
+                        results.add(deleteEntry(db, websiteIndices[i]));
+                        break;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.d("DatabaseHelper: ", size + " batch operations applied");
+        return results;
+    }
+
+    /**
+     * Helper method inserting one entry of a batch with the compiled insert statement.
+     *
+     * @param db                writable database in a transaction
+     * @param websiteIndex      blind index of the website name
+     * @param encryptedWebsite  encrypted website name
+     * @param encryptedPassword encrypted password
+     * @param keyVersion        key version the entry is written with
+     * @param aes_encryption    aes_encryption object holding the data key
+     * @return APPLIED or ALREADY_EXISTS
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private EntryBatch.Result insertEntry(SQLiteDatabase db, String websiteIndex, byte[] encryptedWebsite, byte[] encryptedPassword,
+                                          long keyVersion, AES_Encryption aes_encryption) throws NoSuchAlgorithmException, InvalidKeyException {
+        SQLiteStatement statement = db.compileStatement(INSERT_ENTRY_SQL);
+        try {
+            statement.bindBlob(1, encryptedWebsite);
+            statement.bindString(2, websiteIndex);
+            statement.bindBlob(3, encryptedPassword);
+            statement.bindLong(4, keyVersion);
+            statement.bindBlob(5, aes_encryption.integrityTag(websiteIndex, encryptedWebsite, encryptedPassword));
+            statement.executeInsert();
+            return EntryBatch.Result.APPLIED;
+        } catch (SQLiteConstraintException e) {
+            return EntryBatch.Result.ALREADY_EXISTS;
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Helper method renaming one entry of a batch with the compiled update statement, binding its password to the
+     * new blind index and renewing its integrity tag. The password is read inside the transaction, so a password
+     * replaced by an earlier operation of the same batch is the one which is moved.
+     *
+     * @param db               writable database in a transaction
+     * @param websiteIndex     blind index of the old website name
+     * @param newWebsiteIndex  blind index of the new website name
+     * @param encryptedWebsite encrypted new website name
+     * @param keyVersion       key version the entry is written with
+     * @param aes_encryption   aes_encryption object holding the data key
+     * @return APPLIED, NOT_FOUND or ALREADY_EXISTS
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private EntryBatch.Result renameEntry(SQLiteDatabase db, String websiteIndex, String newWebsiteIndex, byte[] encryptedWebsite,
+                                          long keyVersion, AES_Encryption aes_encryption) throws UnsupportedEncodingException,
+            NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        byte[] encryptedPassword = selectPassword(db, websiteIndex);
+        if (encryptedPassword == null) {
+            return EntryBatch.Result.NOT_FOUND;
+        }
+        SQLiteStatement statement = db.compileStatement(UPDATE_WEBSITE_SQL);
+        try {
+            statement.bindBlob(1, encryptedWebsite);
+            statement.bindString(2, newWebsiteIndex);
+            statement.bindBlob(3, aes_encryption.rebindPassword(encryptedPassword, websiteIndex, newWebsiteIndex));
+            statement.bindLong(4, keyVersion);
+            statement.bindString(5, websiteIndex);
+            if (statement.executeUpdateDelete() == 0) {
+                return EntryBatch.Result.NOT_FOUND;
+            }
+        } catch (SQLiteConstraintException e) {
+            return EntryBatch.Result.ALREADY_EXISTS;
+        } finally {
+            statement.close();
+        }
+        updateIntegrityTag(db, newWebsiteIndex, aes_encryption);
+        return EntryBatch.Result.APPLIED;
+    }
+
+    /**
+     * Helper method replacing the password of one entry of a batch with the compiled update statement and renewing
+     * its integrity tag.
+     *
+     * @param db                   writable database in a transaction
+     * @param websiteIndex         blind index of the website name
+     * @param newEncryptedPassword new encrypted password
+     * @param keyVersion           key version the entry is written with
+     * @param aes_encryption       aes_encryption object holding the data key
+     * @return APPLIED or NOT_FOUND
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private EntryBatch.Result replacePassword(SQLiteDatabase db, String websiteIndex, byte[] newEncryptedPassword, long keyVersion,
+                                              AES_Encryption aes_encryption) throws NoSuchAlgorithmException, InvalidKeyException {
+        SQLiteStatement statement = db.compileStatement(UPDATE_PASSWORD_SQL);
+        try {
+            statement.bindBlob(1, newEncryptedPassword);
+            statement.bindLong(2, keyVersion);
+            statement.bindString(3, websiteIndex);
+            if (statement.executeUpdateDelete() == 0) {
+                return EntryBatch.Result.NOT_FOUND;
+            }
+        } finally {
+            statement.close();
+        }
+        updateIntegrityTag(db, websiteIndex, aes_encryption);
+        return EntryBatch.Result.APPLIED;
+    }
+
+    /**
+     * Helper method deleting one entry of a batch with the compiled delete statement.
+     *
+     * @param db           writable database in a transaction
+     * @param websiteIndex blind index of the website name
+     * @return APPLIED or NOT_FOUND
+     */
+
+    private EntryBatch.Result deleteEntry(SQLiteDatabase db, String websiteIndex) {
+        SQLiteStatement statement = db.compileStatement(DELETE_ENTRY_SQL);
+        try {
+            statement.bindString(1, websiteIndex);
+            return statement.executeUpdateDelete() > 0 ? EntryBatch.Result.APPLIED : EntryBatch.Result.NOT_FOUND;
+        } finally {
+            statement.close();
+        }
     }
 
     /**
@@ -142,54 +632,189 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseInterfac
      */
 
     public void removeAll() {
+        lock();
+        KeyRotationJob.cancelActiveJob();
+        IntegritySweeper.stopActiveSweeper();
         SQLiteDatabase db = this.getWritableDatabase();
         db.execSQL("DELETE FROM " + TABLE_NAME);
+        db.execSQL("DELETE FROM " + METADATA_TABLE_NAME);
     }
 
     /**
-     * This method returns a data cursor concerning the current database.
-     * It can be used for iterations and to log data for example, since you
-     * basically have a snapshot of the whole database in one variable.
+     * This method reads all entries of the current database and maps every row with the given RowMapper.
+     * The columns are website (encrypted, can be decrypted with AES_Encryption.decryptPassword(byte[])), website_index,
+     * password, key_version and integrity_tag in this order. The cursor is closed before the method returns.
      *
-     * @return current tables data cursor
+     * @param rowMapper mapper for the rows
+     * @param <T>       type of the mapped objects
+     * @return mapped entries in the order of the table
      */
 
-    public Cursor getDataCursor() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        String query = "SELECT * FROM " + TABLE_NAME;
-        @SuppressLint("Recycle") Cursor data = db.rawQuery(query, null);
-        return data;
+    public <T> List<T> queryEntries(RowMapper<T> rowMapper) {
+        List<T> entries = new ArrayList<>();
+        try (Cursor data = CursorTracker.query(this.getReadableDatabase(), SELECT_ALL_ENTRIES_SQL, null)) {
+            while (data.moveToNext()) {
+                entries.add(rowMapper.mapRow(data));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * This method returns an iterator over all entries of the current database, every row is mapped with the given
+     * RowMapper when it is read. The columns are the same as for queryEntries(RowMapper). Since only one window of
+     * the table is held at a time, this is the method for large vaults. The cursor is closed after the last entry;
+     * if the iteration is stopped earlier, the iterator has to be closed, best with try-with-resources.
+     *
+     * @param rowMapper mapper for the rows
+     * @param <T>       type of the mapped objects
+     * @return iterator over the mapped entries in the order of the table
+     */
+
+    public <T> CursorIterator<T> iterateEntries(RowMapper<T> rowMapper) {
+        return new CursorIterator<>(CursorTracker.query(this.getReadableDatabase(), SELECT_ALL_ENTRIES_SQL, null), rowMapper);
     }
 
     /**
      * This method searches for a specific password based on the key attribute (website).
+     * The entry is found by the blind index of the name, no names are decrypted.
+     * The password is bound to the blind index, see AES_Encryption.decryptPassword(byte[], String).
+     *
+     * @param website        website name to search for
+     * @param aes_encryption aes_encryption object holding the data key
+     * @return specific encrypted password record of this website, or null if there is no entry with this name
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public byte[] getPassword(String website, AES_Encryption aes_encryption) throws NoSuchAlgorithmException, InvalidKeyException {
+        return selectPassword(this.getReadableDatabase(), aes_encryption.blindIndex(website));
+    }
+
+    /**
+     * Helper method reading the password of an entry by its blind index. Entries which a running key rotation has
+     * not reached yet are re-encrypted right away, so the returned password is always encrypted with the data key,
+     * unless it cannot be re-encrypted.
+     *
+     * @param db           database holding the entry, writable if it is used in a transaction
+     * @param websiteIndex blind index of the website name
+     * @return encrypted password, or null if there is no entry with this blind index
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static byte[] selectPassword(SQLiteDatabase db, String websiteIndex) {
+        long rowId;
+        long keyVersion;
+        byte[] encryptedPassword;
+        byte[] encryptedWebsite;
+        try (Cursor data = CursorTracker.query(db, SELECT_PASSWORD_SQL, new String[]{websiteIndex})) {
+            if (!data.moveToFirst()) {
+                return null;
+            }
+            rowId = data.getLong(0);
+            encryptedPassword = data.getBlob(1);
+            keyVersion = data.getLong(2);
+            encryptedWebsite = data.getBlob(3);
+        }
+
+        // Einträge, die von einer laufenden Schlüsselrotation noch nicht erreicht wurden, werden beim Zugriff sofort umgeschlüsselt
+        KeyRotationJob activeJob = KeyRotationJob.getActiveJob();
+        if (activeJob != null && keyVersion < activeJob.getTargetVersion()) {
+            return activeJob.rotateEntry(rowId, websiteIndex, encryptedWebsite, encryptedPassword);
+        }
+        return encryptedPassword;
+    }
+
+    /**
+     * This method searches for a specific password based on the key attribute (website) and decrypts it.
+     * If the entry is still stored in the old Base64 format or is not bound to its blind index yet, it is replaced
+     * by a bound record right away, see upgradePassword(String, byte[], byte[], AES_Encryption).
+     *
+     * @param website        website name to search for
+     * @param aes_encryption aes_encryption object holding the current key
+     * @return decrypted password of this website
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public String readPassword(String website, AES_Encryption aes_encryption) throws UnsupportedEncodingException, NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        String websiteIndex = aes_encryption.blindIndex(website);
+        byte[] encryptedPassword = selectPassword(this.getReadableDatabase(), websiteIndex);
+        String password = aes_encryption.decryptPassword(encryptedPassword, websiteIndex);
+        if (!PasswordRecord.isBound(encryptedPassword)) {
+            upgradePassword(websiteIndex, encryptedPassword, aes_encryption.encryptPassword(password, websiteIndex), aes_encryption);
+        }
+        return password;
+    }
+
+    /**
+     * Helper method replacing the password of an entry by the same password in a bound record. The record is only
+     * replaced if the entry still holds the old password and its integrity tag is valid, otherwise the entry would
+     * get a valid tag although it has been modified. Such entries are left to the IntegritySweeper.
      *
-     * @param website website name to search for
-     * @return specific password of this website
+     * @param websiteIndex         blind index of the website name
+     * @param encryptedPassword    password as read from the entry
+     * @param newEncryptedPassword same password bound to the blind index
+     * @param aes_encryption       aes_encryption object holding the data key
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
      */
 
-    public String getPassword(String website) {
+    private void upgradePassword(String websiteIndex, byte[] encryptedPassword, byte[] newEncryptedPassword, AES_Encryption aes_encryption)
+            throws NoSuchAlgorithmException, InvalidKeyException {
         SQLiteDatabase db = this.getWritableDatabase();
-        String query = "SELECT " + PASSWORD_COL + " FROM " + TABLE_NAME + " WHERE " + WEBSITE_COL + "="
-                + "'" + website + "'";
-        @SuppressLint("Recycle") Cursor data = db.rawQuery(query, null);
-        data.moveToFirst();
-        return data.getString(0);
+        db.beginTransaction();
+        try {
+            try (Cursor data = CursorTracker.query(db, SELECT_ENTRY_SQL, new String[]{websiteIndex})) {
+                if (!data.moveToFirst() || data.isNull(2) || !Arrays.equals(encryptedPassword, data.getBlob(1))
+                        || !MessageDigest.isEqual(data.getBlob(2), aes_encryption.integrityTag(websiteIndex, data.getBlob(0), encryptedPassword))) {
+                    return;
+                }
+            }
+            SQLiteStatement statement = db.compileStatement(UPDATE_PASSWORD_SQL);
+            try {
+                statement.bindBlob(1, newEncryptedPassword);
+                statement.bindLong(2, getWriteKeyVersion(db));
+                statement.bindString(3, websiteIndex);
+                statement.executeUpdateDelete();
+            } finally {
+                statement.close();
+            }
+            updateIntegrityTag(db, websiteIndex, aes_encryption);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     /**
      * This method checks if there is an existing key attribute (website) in the database.
+     * Only the unique index on the blind index is searched, no names are decrypted. The count is read with a
+     * compiled statement without opening a cursor.
      *
-     * @param website website name to search for
+     * @param website        website name to search for
+     * @param aes_encryption aes_encryption object holding the data key
      * @return boolean true if website was found (exists), false if it was not found (not exists)
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
      */
 
-    public boolean checkExistence(String website) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        String query = "SELECT " + WEBSITE_COL + " FROM " + TABLE_NAME + " WHERE " + WEBSITE_COL + "="
-                + "'" + website + "'";
-        @SuppressLint("Recycle") Cursor data = db.rawQuery(query, null);
-        return data.getCount() != 0;
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public boolean checkExistence(String website, AES_Encryption aes_encryption) throws NoSuchAlgorithmException, InvalidKeyException {
+        SQLiteStatement statement = this.getReadableDatabase().compileStatement(COUNT_ENTRY_SQL);
+        try {
+            statement.bindString(1, aes_encryption.blindIndex(website));
+            return statement.simpleQueryForLong() > 0;
+        } finally {
+            statement.close();
+        }
     }
 
     /**
@@ -197,10 +822,17 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseInterfac
      */
 
     public void logAllEntries() {
-        Cursor data = getDataCursor();
-        while (data.moveToNext()) {
-            Log.d("Your Data: ", data.getString(0) + "||" + data.getString(1));
+        try (CursorIterator<String> entries = iterateEntries(new RowMapper<String>() {
+            @Override
+            public String mapRow(Cursor cursor) {
+                return cursor.getString(1) + "||" + cursor.getBlob(2).length + " bytes";
+            }
+        })) {
+            while (entries.hasNext()) {
+                Log.d("Your Data: ", entries.next());
+            }
         }
+        CursorTracker.logOpenCursors();
     }
 
     /**
@@ -208,18 +840,493 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseInterfac
      */
 
     public void dropCurrentTable() {
+        KeyRotationJob.cancelActiveJob();
         SQLiteDatabase db = this.getWritableDatabase();
         db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + METADATA_TABLE_NAME);
         onCreate(db);
     }
 
     /**
-     * This method will update all encrypted passwords based on the given new parameter master password.
-     * The only purpose of the method is that the user can update his master password which
-     * is used for encrypting all website passwords without losing the relevant encryption information.
+     * This method returns the key version new or changed entries have to be written with.
+     * While a key rotation is in progress, this is the target version of the rotation.
      *
-     * @param aes_encryption    aes_encryption object required in order to perform this change
-     * @param newMasterPassword new master password required which will be used to encrypt all decrypted passwords once again
+     * @param db SQLiteDatabase object to read the metadata from
+     * @return key version for writes
+     */
+
+    static long getWriteKeyVersion(SQLiteDatabase db) {
+        long targetVersion = getMetadataLong(db, META_ROTATION_TARGET_VERSION, -1);
+        if (targetVersion != -1) {
+            return targetVersion;
+        }
+        return getMetadataLong(db, META_KEY_VERSION, 0);
+    }
+
+    /**
+     * This method reads a numeric value from the metadata table.
+     *
+     * @param db           SQLiteDatabase object to read from
+     * @param key          metadata key to search for
+     * @param defaultValue value returned if there is no record for the key
+     * @return stored value or the default value
+     */
+
+    static long getMetadataLong(SQLiteDatabase db, String key, long defaultValue) {
+        try (Cursor data = CursorTracker.query(db, SELECT_METADATA_SQL, new String[]{key})) {
+            return data.moveToFirst() ? data.getLong(0) : defaultValue;
+        }
+    }
+
+    /**
+     * This method reads a binary value from the metadata table.
+     *
+     * @param db  SQLiteDatabase object to read from
+     * @param key metadata key to search for
+     * @return stored value or null if there is no record for the key
+     */
+
+    static byte[] getMetadataBytes(SQLiteDatabase db, String key) {
+        try (Cursor data = CursorTracker.query(db, SELECT_METADATA_SQL, new String[]{key})) {
+            return data.moveToFirst() ? data.getBlob(0) : null;
+        }
+    }
+
+    /**
+     * This method reads a text value from the metadata table.
+     *
+     * @param db  SQLiteDatabase object to read from
+     * @param key metadata key to search for
+     * @return stored value or null if there is no record for the key
+     */
+
+    static String getMetadataString(SQLiteDatabase db, String key) {
+        try (Cursor data = CursorTracker.query(db, SELECT_METADATA_SQL, new String[]{key})) {
+            return data.moveToFirst() ? data.getString(0) : null;
+        }
+    }
+
+    /**
+     * This method stores a numeric value in the metadata table, an existing record with the same key is replaced.
+     *
+     * @param db    SQLiteDatabase object to write to
+     * @param key   metadata key
+     * @param value value to be stored
+     */
+
+    static void putMetadata(SQLiteDatabase db, String key, long value) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(METADATA_KEY_COL, key);
+        contentValues.put(METADATA_VALUE_COL, value);
+        db.insertWithOnConflict(METADATA_TABLE_NAME, null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * This method stores a binary value in the metadata table, an existing record with the same key is replaced.
+     *
+     * @param db    SQLiteDatabase object to write to
+     * @param key   metadata key
+     * @param value value to be stored
+     */
+
+    static void putMetadata(SQLiteDatabase db, String key, byte[] value) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(METADATA_KEY_COL, key);
+        contentValues.put(METADATA_VALUE_COL, value);
+        db.insertWithOnConflict(METADATA_TABLE_NAME, null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * This method stores a text value in the metadata table, an existing record with the same key is replaced.
+     *
+     * @param db    SQLiteDatabase object to write to
+     * @param key   metadata key
+     * @param value value to be stored
+     */
+
+    static void putMetadata(SQLiteDatabase db, String key, String value) {
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(METADATA_KEY_COL, key);
+        contentValues.put(METADATA_VALUE_COL, value);
+        db.insertWithOnConflict(METADATA_TABLE_NAME, null, contentValues, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * This method removes a record from the metadata table.
+     *
+     * @param db  SQLiteDatabase object to write to
+     * @param key metadata key of the record to be removed
+     */
+
+    static void removeMetadata(SQLiteDatabase db, String key) {
+        db.delete(METADATA_TABLE_NAME, METADATA_KEY_COL + " = ?", new String[]{key});
+    }
+
+    /**
+     * This method selects the crypto engine used to seal new records. The fastest engine is determined once with
+     * CryptoEngines.benchmark() and stored in the metadata table together with the app version and the build of
+     * the device. As long as neither of them changed, the stored engine is used without measuring again.
+     * Records sealed by a previously selected engine stay readable, so changing the engine needs no migration.
+     *
+     * @return name of the selected engine
+     */
+
+    public String selectCryptoEngine() {
+        String build = BuildConfig.VERSION_CODE + "/" + Build.FINGERPRINT;
+        SQLiteDatabase db = this.getWritableDatabase();
+        CryptoEngine engine = null;
+        if (build.equals(getMetadataString(db, META_CRYPTO_ENGINE_BUILD))) {
+            engine = CryptoEngines.forName(getMetadataString(db, META_CRYPTO_ENGINE));
+        }
+
+        if (engine == null) {
+            // Erster Start, App-Update oder Systemupdate: Engines neu vermessen
+            engine = CryptoEngines.benchmark();
+            db.beginTransaction();
+            try {
+                putMetadata(db, META_CRYPTO_ENGINE, engine.getName());
+                putMetadata(db, META_CRYPTO_ENGINE_BUILD, build);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.d("DatabaseHelper: ", "Crypto engine benchmarked, selected " + engine.getName());
+        }
+        CryptoEngines.setSelected(engine);
+        return engine.getName();
+    }
+
+    /**
+     * This method checks whether a master password has been set up, i.e. whether the LoginScreen or the
+     * RegistrationScreen has to be shown. Only the metadata table is read, except for old vaults which still
+     * keep the master password as first entry of the password table.
+     *
+     * @return true if a master password exists, false if not
+     */
+
+    public boolean hasMasterPassword() {
+        SQLiteDatabase db = this.getReadableDatabase();
+        if (getMetadataBytes(db, META_VERIFIER) != null || getMetadataBytes(db, META_WRAPPED_DATA_KEY) != null) {
+            return true;
+        }
+        try (Cursor data = CursorTracker.query(db, "SELECT 1 FROM " + TABLE_NAME + " WHERE " + LEGACY_MASTER_PASSWORD_SELECTION,
+                new String[]{MASTER_PASSWORD_ENTRY})) {
+            return data.moveToFirst();
+        }
+    }
+
+    /**
+     * This method creates the data key of a new vault. The entries are encrypted with a random data key,
+     * which is stored in the metadata table wrapped (encrypted) with the key derived from the master password.
+     * The cost of the key derivation is calibrated on the current device, see KeyDerivation.calibrate(long).
+     * Every entry of a new vault is written with its integrity tag, so an entry without tag counts as modified right away.
+     *
+     * @param masterPassword master password of the new vault
+     * @return aes_encryption object holding the data key
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public AES_Encryption createDataKey(String masterPassword) throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        SQLiteDatabase db = this.getWritableDatabase();
+        KeyContext keyEncryptionKey = newKeyEncryptionKey(masterPassword);
+        KeyContext dataKey = KeyContext.generateDataKey();
+        putWrappedDataKey(db, keyEncryptionKey, dataKey);
+        putMetadata(db, META_INTEGRITY_TAGS_COMPLETE, 1);
+        this.sessionEncryption = new AES_Encryption(dataKey);
+        return sessionEncryption;
+    }
+
+    /**
+     * This method checks the master password and unwraps the data key with the key derived from it.
+     * The master password is checked against the verifier record first, which needs one single lookup in the
+     * metadata table and never touches the password table. A wrong master password is reported as BadPaddingException.
+     * Older vaults are migrated on the first unlock:
+     * Vaults without verifier record get one and their master password entry is removed.
+     * Data keys which are still wrapped with the unsalted SHA-256 key are wrapped again with a calibrated PBKDF2 key.
+     * Vaults created before data keys existed still have their entries encrypted with the key derived from the master
+     * password, so a new data key is created and the entries are re-encrypted to it by a KeyRotationJob in the background.
+     * Website names which are still stored in plain text are encrypted with the data key and blind indices of
+     * older versions are recomputed, see indexWebsiteNames. The KeyRotationJob is only started afterwards, since it
+     * binds every password to the blind index of its entry.
+     * The unlocked data key is kept as the key of the session, see getSessionEncryption().
+     *
+     * @param masterPassword master password of the vault
+     * @return aes_encryption object holding the data key
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public AES_Encryption unlockDataKey(String masterPassword) throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        SQLiteDatabase db = this.getWritableDatabase();
+        AES_Encryption dataEncryption = unlock(db, masterPassword);
+        indexWebsiteNames(db, dataEncryption);
+        KeyRotationJob activeJob = KeyRotationJob.getActiveJob();
+        if (activeJob != null) {
+            activeJob.start();
+        }
+        this.sessionEncryption = dataEncryption;
+        return dataEncryption;
+    }
+
+    /**
+     * Getter for the data key of the current session. After the login every activity and fragment uses this key
+     * instead of unlocking the vault again, so neither the master password nor a key derived from it has to be kept.
+     *
+     * @return aes_encryption object holding the data key, or null if the vault is locked
+     */
+
+    public AES_Encryption getSessionEncryption() {
+        return sessionEncryption;
+    }
+
+    /**
+     * This method locks the vault: the data key of the session is dropped and the master password has to be entered
+     * again. It is called on logout, when the safe timeout expires or the system asks the app to free memory.
+     */
+
+    public void lock() {
+        this.sessionEncryption = null;
+    }
+
+    /**
+     * Helper method checking the master password and unwrapping the data key, see unlockDataKey(String).
+     *
+     * @param db             writable database
+     * @param masterPassword master password of the vault
+     * @return aes_encryption object holding the data key
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private AES_Encryption unlock(SQLiteDatabase db, String masterPassword) throws UnsupportedEncodingException, NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        byte[] verifier = getMetadataBytes(db, META_VERIFIER);
+        if (verifier != null) {
+            KeyContext keyEncryptionKey = KeyContext.fromMasterPassword(masterPassword,
+                    MasterPasswordVerifier.getSalt(verifier), MasterPasswordVerifier.getIterations(verifier));
+            if (!MasterPasswordVerifier.matches(verifier, keyEncryptionKey)) {
+                throw new BadPaddingException("Wrong master password");
+            }
+            return new AES_Encryption(KeyContext.fromEncodedKey(keyEncryptionKey.open(getMetadataBytes(db, META_WRAPPED_DATA_KEY))));
+        }
+
+        byte[] wrappedDataKey = getMetadataBytes(db, META_WRAPPED_DATA_KEY);
+        if (wrappedDataKey != null) {
+            // Tresor ohne Verifier: das Masterpasswort wird über das Tag des verpackten Datenschlüssels geprüft
+            KeyContext keyEncryptionKey = getKeyEncryptionKey(db, masterPassword);
+            KeyContext dataKey = KeyContext.fromEncodedKey(keyEncryptionKey.open(wrappedDataKey));
+            if (keyEncryptionKey.getSalt() == null) {
+                keyEncryptionKey = newKeyEncryptionKey(masterPassword);
+            }
+            db.beginTransaction();
+            try {
+                putWrappedDataKey(db, keyEncryptionKey, dataKey);
+                db.delete(TABLE_NAME, LEGACY_MASTER_PASSWORD_SELECTION, new String[]{MASTER_PASSWORD_ENTRY});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return new AES_Encryption(dataKey);
+        }
+
+        // Alter Tresor ohne Datenschlüssel: das Masterpasswort muss vor der Migration geprüft werden
+        AES_Encryption legacyEncryption = new AES_Encryption(KeyContext.fromLegacyMasterPassword(masterPassword));
+        if (!masterPassword.equals(legacyEncryption.decryptPassword(getLegacyMasterPasswordEntry(db)))) {
+            throw new BadPaddingException("Wrong master password");
+        }
+        resumeKeyRotation(legacyEncryption, null);
+        KeyRotationJob pendingJob = KeyRotationJob.getActiveJob();
+        if (pendingJob != null) {
+            pendingJob.finishInForeground();
+        }
+
+        KeyContext dataKey = KeyContext.generateDataKey();
+        AES_Encryption dataEncryption = new AES_Encryption(dataKey);
+        startKeyRotation(db, legacyEncryption, dataEncryption, newKeyEncryptionKey(masterPassword));
+        return dataEncryption;
+    }
+
+    /**
+     * Helper method bringing the blind indices of all website names to the current WEBSITE_INDEX_VERSION.
+     * Names which are still stored in plain text, i.e. the entries of a vault created before version 4, are encrypted
+     * and get their blind index. Vaults created before version 6 have case-sensitive blind indices, so all names are
+     * decrypted once and indexed again in lower case. If two names of such a vault only differ in case, the later
+     * one is renamed to "name (2)", because the unique index would not allow both of them any more.
+     * Integrity tags are only renewed if they were valid before, all other entries are left to the IntegritySweeper.
+     * Passwords are not touched: the passwords of these vaults have been written before passwords were bound to the
+     * blind index, and the KeyRotationJob of a vault without data key is started afterwards.
+     * All changes are written in one transaction. If the index is up to date, this is a single lookup in the unique index.
+     *
+     * @param db             writable database
+     * @param aes_encryption aes_encryption object holding the data key
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static void indexWebsiteNames(SQLiteDatabase db, AES_Encryption aes_encryption) throws UnsupportedEncodingException,
+            NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        boolean reindex = getMetadataLong(db, META_WEBSITE_INDEX_VERSION, 1) < WEBSITE_INDEX_VERSION;
+        List<Long> rowIds = new ArrayList<>();
+        List<String> websites = new ArrayList<>();
+        List<String> oldIndices = new ArrayList<>();
+        List<byte[]> oldEncryptedWebsites = new ArrayList<>();
+        List<byte[]> encryptedPasswords = new ArrayList<>();
+        List<byte[]> oldTags = new ArrayList<>();
+        Set<String> usedIndices = new HashSet<>();
+        try (Cursor data = CursorTracker.query(db, "SELECT " + ENTRY_ID_COL + ", " + WEBSITE_COL + ", " + WEBSITE_INDEX_COL + ", "
+                + PASSWORD_COL + ", " + INTEGRITY_TAG_COL + " FROM " + TABLE_NAME + (reindex ? "" : " WHERE " + WEBSITE_INDEX_COL
+                + " IS NULL") + " ORDER BY " + ENTRY_ID_COL, null)) {
+            while (data.moveToNext()) {
+                String website;
+                if (data.isNull(2)) {
+                    website = data.getString(1);
+                } else {
+                    try {
+                        website = aes_encryption.decryptPassword(data.getBlob(1));
+                    } catch (BadPaddingException | IllegalArgumentException e) {
+                        // Beschädigte Einträge behalten ihren Index und werden vom IntegritySweeper gemeldet
+                        usedIndices.add(data.getString(2));
+                        continue;
+                    }
+                }
+                rowIds.add(data.getLong(0));
+                websites.add(website);
+                oldIndices.add(data.getString(2));
+                oldEncryptedWebsites.add(data.isNull(2) ? null : data.getBlob(1));
+                encryptedPasswords.add(data.getBlob(3));
+                oldTags.add(data.isNull(4) ? null : data.getBlob(4));
+            }
+        }
+
+        List<Integer> changedEntries = new ArrayList<>();
+        List<String> newIndices = new ArrayList<>();
+        List<Boolean> encryptWebsite = new ArrayList<>();
+        List<String> websitesToEncrypt = new ArrayList<>();
+        int renamedEntries = 0;
+        for (int i = 0; i < rowIds.size(); i++) {
+            String website = websites.get(i);
+            String websiteIndex = aes_encryption.blindIndex(website);
+            for (int suffix = 2; usedIndices.contains(websiteIndex) || (!reindex && isIndexTaken(db, websiteIndex)); suffix++) {
+                website = websites.get(i) + " (" + suffix + ")";
+                websiteIndex = aes_encryption.blindIndex(website);
+            }
+            usedIndices.add(websiteIndex);
+            boolean renamed = !website.equals(websites.get(i));
+            boolean encrypt = renamed || oldEncryptedWebsites.get(i) == null;
+            if (encrypt || !websiteIndex.equals(oldIndices.get(i))) {
+                changedEntries.add(i);
+                newIndices.add(websiteIndex);
+                encryptWebsite.add(encrypt);
+                if (encrypt) {
+                    websitesToEncrypt.add(website);
+                }
+                if (renamed) {
+                    renamedEntries++;
+                }
+            }
+        }
+        if (changedEntries.isEmpty() && !reindex) {
+            return;
+        }
+
+        List<byte[]> encryptedWebsites = aes_encryption.encryptPasswords(websitesToEncrypt);
+        db.beginTransaction();
+        try {
+            // Erst alle alten Indizes freigeben, sonst kann ein neuer Index kurzzeitig mit einem alten kollidieren
+            for (int entry : changedEntries) {
+                ContentValues contentValues = new ContentValues();
+                contentValues.putNull(WEBSITE_INDEX_COL);
+                db.update(TABLE_NAME, contentValues, ENTRY_ID_COL + " = ?", new String[]{String.valueOf(rowIds.get(entry))});
+            }
+            int encryptedWebsite = 0;
+            for (int i = 0; i < changedEntries.size(); i++) {
+                int entry = changedEntries.get(i);
+                byte[] oldEncryptedWebsite = oldEncryptedWebsites.get(entry);
+                byte[] newEncryptedWebsite = encryptWebsite.get(i) ? encryptedWebsites.get(encryptedWebsite++) : oldEncryptedWebsite;
+                byte[] oldTag = oldTags.get(entry);
+                boolean tagValid = oldTag != null && oldEncryptedWebsite != null && MessageDigest.isEqual(oldTag,
+                        aes_encryption.integrityTag(oldIndices.get(entry), oldEncryptedWebsite, encryptedPasswords.get(entry)));
+
+                ContentValues contentValues = new ContentValues();
+                contentValues.put(WEBSITE_COL, newEncryptedWebsite);
+                contentValues.put(WEBSITE_INDEX_COL, newIndices.get(i));
+                contentValues.put(INTEGRITY_TAG_COL, tagValid ? aes_encryption.integrityTag(newIndices.get(i), newEncryptedWebsite,
+                        encryptedPasswords.get(entry)) : null);
+                db.update(TABLE_NAME, contentValues, ENTRY_ID_COL + " = ?", new String[]{String.valueOf(rowIds.get(entry))});
+            }
+            if (reindex) {
+                putMetadata(db, META_WEBSITE_INDEX_VERSION, WEBSITE_INDEX_VERSION);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        Log.d("DatabaseHelper: ", changedEntries.size() + " website names indexed, " + renamedEntries + " renamed");
+    }
+
+    /**
+     * Helper method checking whether an entry with the given blind index exists.
+     *
+     * @param db           database to be searched
+     * @param websiteIndex blind index of the website name
+     * @return true if the blind index is already taken
+     */
+
+    private static boolean isIndexTaken(SQLiteDatabase db, String websiteIndex) {
+        try (Cursor data = CursorTracker.query(db, COUNT_ENTRY_SQL, new String[]{websiteIndex})) {
+            return data.moveToFirst() && data.getLong(0) > 0;
+        }
+    }
+
+    /**
+     * Helper method reading the master password entry of an old vault, which is stored as first entry of the
+     * password table with a plain text website name.
+     *
+     * @param db SQLiteDatabase object to read from
+     * @return encrypted master password
+     * @throws BadPaddingException if the vault has no master password entry
+     */
+
+    private static byte[] getLegacyMasterPasswordEntry(SQLiteDatabase db) throws BadPaddingException {
+        try (Cursor data = CursorTracker.query(db, "SELECT " + PASSWORD_COL + " FROM " + TABLE_NAME + " WHERE " + LEGACY_MASTER_PASSWORD_SELECTION,
+                new String[]{MASTER_PASSWORD_ENTRY})) {
+            if (!data.moveToFirst()) {
+                throw new BadPaddingException("No master password entry");
+            }
+            return data.getBlob(0);
+        }
+    }
+
+    /**
+     * This method changes the master password. Only the data key is wrapped again with the key derived from the
+     * new master password and the verifier record is replaced, the entries are not touched at all.
+     * Therefore the change takes the same time for vaults of any size.
+     *
+     * @param aes_encryption    aes_encryption object holding the data key
+     * @param newMasterPassword new master password
      * @throws UnsupportedEncodingException The Character Encoding is not supported.
      * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
      * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
@@ -229,29 +1336,209 @@ public class DatabaseHelper extends SQLiteOpenHelper implements DatabaseInterfac
      */
 
     @RequiresApi(api = Build.VERSION_CODES.O)
-    public void updateAllPasswords(AES_Encryption aes_encryption, String newMasterPassword)
-            throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+    public void changeMasterPassword(AES_Encryption aes_encryption, String newMasterPassword) throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        SQLiteDatabase db = this.getWritableDatabase();
+        putWrappedDataKey(db, newKeyEncryptionKey(newMasterPassword), aes_encryption.getKeyContext());
+    }
+
+    /**
+     * This method derives a new key encryption key from the master password with a new salt and an iteration count
+     * calibrated to the login latency budget of the current device.
+     *
+     * @param masterPassword master password to derive the key from
+     * @return KeyContext holding the derived key together with its KDF parameters
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     */
+
+    private static KeyContext newKeyEncryptionKey(String masterPassword) throws NoSuchAlgorithmException {
+        int iterations = KeyDerivation.calibrate(KeyDerivation.DEFAULT_BUDGET_MILLIS);
+        Log.d("DatabaseHelper: ", "KDF calibrated to " + iterations + " iterations");
+        return KeyContext.fromMasterPassword(masterPassword, KeyDerivation.newSalt(), iterations);
+    }
+
+    /**
+     * This method derives the key encryption key of a vault without verifier record. The KDF parameters are read
+     * from their own metadata records, vaults without stored parameters still use the unsalted SHA-256 key.
+     *
+     * @param db             SQLiteDatabase object to read the KDF parameters from
+     * @param masterPassword master password to derive the key from
+     * @return KeyContext holding the derived key
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     */
+
+    private static KeyContext getKeyEncryptionKey(SQLiteDatabase db, String masterPassword) throws NoSuchAlgorithmException {
+        byte[] salt = getMetadataBytes(db, META_KDF_SALT);
+        if (salt == null) {
+            return KeyContext.fromLegacyMasterPassword(masterPassword);
+        }
+        return KeyContext.fromMasterPassword(masterPassword, salt, (int) getMetadataLong(db, META_KDF_ITERATIONS, 0));
+    }
+
+    /**
+     * This method stores the data key wrapped with the key encryption key, together with the verifier record
+     * holding the KDF parameters of the key encryption key. Both records are written in one transaction.
+     *
+     * @param db               SQLiteDatabase object to write to
+     * @param keyEncryptionKey key derived from the master password with PBKDF2
+     * @param dataKey          data key of the vault
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private static void putWrappedDataKey(SQLiteDatabase db, KeyContext keyEncryptionKey, KeyContext dataKey) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        byte[] verifier = MasterPasswordVerifier.create(keyEncryptionKey);
+        byte[] wrappedDataKey = keyEncryptionKey.seal(dataKey.getEncoded());
+        db.beginTransaction();
+        try {
+            putMetadata(db, META_VERIFIER, verifier);
+            putMetadata(db, META_WRAPPED_DATA_KEY, wrappedDataKey);
+            removeMetadata(db, META_KDF_SALT);
+            removeMetadata(db, META_KDF_ITERATIONS);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * This method starts the re-encryption of all entries from the old to the new key.
+     * First a checkpoint is committed: the target key version, the old key encrypted with the new key and the
+     * new key wrapped with the key encryption key. The master password entry of the old vault is removed, since the
+     * verifier record replaces it. From then on the new key is valid and the remaining entries are re-encrypted in
+     * chunks by a KeyRotationJob in the background. The job becomes the active job, but is started by
+     * unlockDataKey(String) once the website names have been indexed. If the app is killed before the job has finished,
+     * it is resumed on the next login by resumeKeyRotation(AES_Encryption, IntegritySweeper.Listener).
+     *
+     * @param db               writable database
+     * @param oldEncryption    aes_encryption object holding the old key
+     * @param newEncryption    aes_encryption object holding the new key
+     * @param keyEncryptionKey key derived from the master password, used to wrap the new key
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     * @see KeyRotationJob
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private void startKeyRotation(SQLiteDatabase db, AES_Encryption oldEncryption, AES_Encryption newEncryption,
+                                  KeyContext keyEncryptionKey) throws NoSuchPaddingException, IllegalBlockSizeException,
             NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        long targetVersion = getMetadataLong(db, META_KEY_VERSION, 0) + 1;
+
+        // Checkpoint: ab dem Commit gilt der neue Schlüssel und die Rotation kann jederzeit fortgesetzt werden
+        db.beginTransaction();
+        try {
+            putMetadata(db, META_ROTATION_TARGET_VERSION, targetVersion);
+            putMetadata(db, META_ROTATION_PREVIOUS_KEY, newEncryption.getKeyContext().seal(oldEncryption.getKeyContext().getEncoded()));
+            putWrappedDataKey(db, keyEncryptionKey, newEncryption.getKeyContext());
+            db.delete(TABLE_NAME, LEGACY_MASTER_PASSWORD_SELECTION, new String[]{MASTER_PASSWORD_ENTRY});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Der Job wird aktiv, gestartet wird er erst nach indexWebsiteNames
+        new KeyRotationJob(db, oldEncryption, newEncryption, targetVersion);
+    }
+
+    /**
+     * This method resumes a key rotation which has been interrupted, e.g. because the app was killed.
+     * It has to be called after a successful login with the (new) master password. The old key is restored
+     * from the checkpoint and the remaining entries are re-encrypted in the background.
+     * Entries which cannot be re-encrypted are reported to the listener and keep the rotation from finishing.
+     *
+     * @param aes_encryption aes_encryption object holding the current key
+     * @param listener       listener receiving the entries which cannot be re-encrypted, may be null
+     * @return true if a pending rotation has been resumed, false if there was nothing to do
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public boolean resumeKeyRotation(AES_Encryption aes_encryption, IntegritySweeper.Listener listener) throws NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+
+        SQLiteDatabase db = this.getWritableDatabase();
+        long targetVersion = getMetadataLong(db, META_ROTATION_TARGET_VERSION, -1);
+        if (targetVersion == -1) {
+            return false;
+        }
 
-        // Schritt 1: Entschlüssel das Passwort mit altem Schlüssel
-        ArrayList<String> encryptedPasswords = new ArrayList<>();
-        Cursor cursor1 = getDataCursor();
-        while (cursor1.moveToNext()) {
-            String encryptedPassword = aes_encryption.decryptPassword(cursor1.getString(1));
-            // Schritt 1.1: Lagere die entschlüsselten Passwörter in einem Array
-            encryptedPasswords.add(encryptedPassword);
-        }
-        // Schritt 2: Ändere den Schlüsseltext der AES_Encryption
-        aes_encryption.changeKeyText(newMasterPassword);
-        // Schritt 2.1: Verschlüssel das entschlüsselte Passwort mit neuem Schlüssel (also immer "encryptPassword" aufrufen mit Index aus dem Array)
-        Cursor cursor2 = getDataCursor();
-        int i = 0;
-        while (cursor2.moveToNext()) {
-            String cryptedPasswort = aes_encryption.encryptPassword(encryptedPasswords.get(i));
-            Log.e("TEST: ", "website=" + cursor2.getString(0) + "crypted: " + cryptedPasswort + " || " + encryptedPasswords.get(i));
-            // Schritt 3. UpdatePasswort Methode aufrufen und neues Passwort mitgeben um es zu aktualisieren
-            this.updatePassword(cursor2.getString(0), cryptedPasswort);
-            i++;
+        KeyRotationJob activeJob = KeyRotationJob.getActiveJob();
+        if (activeJob == null || activeJob.getTargetVersion() != targetVersion) {
+            byte[] previousKey = unwrapPreviousKey(aes_encryption.getKeyContext(), getMetadataBytes(db, META_ROTATION_PREVIOUS_KEY));
+            AES_Encryption oldEncryption = new AES_Encryption(KeyContext.fromEncodedKey(previousKey));
+            AES_Encryption newEncryption = new AES_Encryption(aes_encryption.getKeyContext());
+            activeJob = new KeyRotationJob(db, oldEncryption, newEncryption, targetVersion);
         }
+        activeJob.setListener(listener);
+        activeJob.start();
+        return true;
+    }
+
+    /**
+     * Helper method restoring the old key from the rotation checkpoint. Checkpoints written before version 3 hold
+     * the key encrypted with AES/ECB, which always results in a multiple of the block size. A sealed record
+     * has a length of 61 bytes and can therefore be told apart by its length.
+     *
+     * @param keyContext KeyContext of the new key
+     * @param wrappedKey old key as stored in the checkpoint
+     * @return encoded old key
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private static byte[] unwrapPreviousKey(KeyContext keyContext, byte[] wrappedKey) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        if (wrappedKey.length % 16 == 0) {
+            return keyContext.decryptLegacy(wrappedKey);
+        }
+        return keyContext.open(wrappedKey);
+    }
+
+    /**
+     * This method pauses a running key rotation after the chunk currently being processed.
+     * The rotation can be continued later with resumeKeyRotation(AES_Encryption, IntegritySweeper.Listener).
+     */
+
+    public void pauseKeyRotation() {
+        KeyRotationJob.pauseActiveJob();
+    }
+
+    /**
+     * This method starts a background check of the integrity tags of all entries, see IntegritySweeper.
+     * A sweep which has been stopped before is continued at its watermark. A sweep that is already
+     * running is stopped and replaced.
+     *
+     * @param aes_encryption aes_encryption object holding the data key
+     * @param listener       listener receiving the results on the sweeper thread
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public void startIntegritySweep(AES_Encryption aes_encryption, IntegritySweeper.Listener listener) {
+        IntegritySweeper.stopActiveSweeper();
+        new IntegritySweeper(this.getWritableDatabase(), aes_encryption, listener,
+                IntegritySweeper.DEFAULT_BATCH_SIZE, IntegritySweeper.DEFAULT_PAUSE_MILLIS).start();
+    }
+
+    /**
+     * This method stops a running integrity sweep after the batch currently being verified.
+     * The next sweep continues where this one stopped.
+     */
+
+    public void stopIntegritySweep() {
+        IntegritySweeper.stopActiveSweeper();
     }
 }
@@ -1,11 +1,11 @@
 package hsos.prog3.projektarbeit.bitlocker.datenbank;
 
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -26,27 +26,59 @@ public interface DatabaseInterface {
 
     void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1);
 
-    boolean addData(String website, String encryptedPW);
+    boolean addData(String website, byte[] encryptedPW, AES_Encryption aes_encryption) throws UnsupportedEncodingException, NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
 
-    void updateWebsite(String oldWebsite, String newWebsite);
+    void updateWebsite(String oldWebsite, String newWebsite, AES_Encryption aes_encryption) throws UnsupportedEncodingException, NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
 
-    void updatePassword(String website, String newPassword);
+    void updatePassword(String website, byte[] newPassword, AES_Encryption aes_encryption) throws NoSuchAlgorithmException, InvalidKeyException;
 
-    public String getPassword(String website);
+    public byte[] getPassword(String website, AES_Encryption aes_encryption) throws NoSuchAlgorithmException, InvalidKeyException;
 
-    void removeOne(String website);
+    String readPassword(String website, AES_Encryption aes_encryption) throws UnsupportedEncodingException, NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
+
+    void removeOne(String website, AES_Encryption aes_encryption) throws NoSuchAlgorithmException, InvalidKeyException;
+
+    List<EntryBatch.Result> applyBatch(EntryBatch batch, AES_Encryption aes_encryption) throws UnsupportedEncodingException, NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
 
     void removeAll();
 
-    public boolean checkExistence(String website);
+    public boolean checkExistence(String website, AES_Encryption aes_encryption) throws NoSuchAlgorithmException, InvalidKeyException;
 
-    Cursor getDataCursor();
+    <T> List<T> queryEntries(RowMapper<T> rowMapper);
+
+    <T> CursorIterator<T> iterateEntries(RowMapper<T> rowMapper);
 
     void logAllEntries();
 
     void dropCurrentTable();
 
-    void updateAllPasswords(AES_Encryption aes_encryption, String neuesPasswort)
-            throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+    String selectCryptoEngine();
+
+    boolean hasMasterPassword();
+
+    AES_Encryption createDataKey(String masterPassword) throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
+
+    AES_Encryption unlockDataKey(String masterPassword) throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
+
+    AES_Encryption getSessionEncryption();
+
+    void lock();
+
+    void changeMasterPassword(AES_Encryption aes_encryption, String neuesPasswort) throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
+
+    boolean resumeKeyRotation(AES_Encryption aes_encryption, IntegritySweeper.Listener listener) throws NoSuchPaddingException, IllegalBlockSizeException,
             NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
+
+    void pauseKeyRotation();
+
+    void startIntegritySweep(AES_Encryption aes_encryption, IntegritySweeper.Listener listener);
+
+    void stopIntegritySweep();
 }
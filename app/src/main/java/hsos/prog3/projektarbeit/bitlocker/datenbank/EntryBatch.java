@@ -0,0 +1,137 @@
+package hsos.prog3.projektarbeit.bitlocker.datenbank;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The EntryBatch class collects inserts, updates and removals of entries which are applied together with
+ * DatabaseHelper.applyBatch(EntryBatch, AES_Encryption) in one single transaction, e.g. for imports or mass deletes.
+ * Thousands of changes then cost one commit of the journal instead of one per entry. The operations are applied in
+ * the order they have been added, and the result of every operation is reported separately: an entry which does not
+ * exist or a name which is already taken does not stop the other operations.
+ *
+ * @author Andreas Morasch
+ * @see DatabaseHelper#applyBatch(EntryBatch, hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption)
+ */
+
+public final class EntryBatch {
+
+    /**
+     * Result of one operation of the batch.
+     */
+
+    public enum Result {
+        APPLIED,
+        NOT_FOUND,
+        ALREADY_EXISTS
+    }
+
+    static final int INSERT = 0;
+    static final int UPDATE_WEBSITE = 1;
+    static final int UPDATE_PASSWORD = 2;
+    static final int REMOVE = 3;
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    /**
+     * This method adds a new entry to the batch, see DatabaseHelper.addData(String, byte[], AES_Encryption).
+     *
+     * @param website     website name to be stored (key attribute)
+     * @param encryptedPW encrypted password to be stored, bound to the blind index of the website name
+     *                    (see AES_Encryption.encryptPassword(String, String))
+     * @return this batch
+     */
+
+    public EntryBatch add(String website, byte[] encryptedPW) {
+        operations.add(new Operation(INSERT, website, null, encryptedPW));
+        return this;
+    }
+
+    /**
+     * This method adds the change of a website name to the batch, see DatabaseHelper.updateWebsite(String, String, AES_Encryption).
+     *
+     * @param oldWebsite old website name to be found and replaced
+     * @param newWebsite new website name which replaces the old website name
+     * @return this batch
+     */
+
+    public EntryBatch updateWebsite(String oldWebsite, String newWebsite) {
+        operations.add(new Operation(UPDATE_WEBSITE, oldWebsite, newWebsite, null));
+        return this;
+    }
+
+    /**
+     * This method adds the change of a password to the batch, see DatabaseHelper.updatePassword(String, byte[], AES_Encryption).
+     *
+     * @param website              website name as the key attribute to search for
+     * @param newEncryptedPassword new encrypted password to replace the old one, bound to the blind index of the website
+     *                             name before any change of the name in the same batch
+     * @return this batch
+     */
+
+    public EntryBatch updatePassword(String website, byte[] newEncryptedPassword) {
+        operations.add(new Operation(UPDATE_PASSWORD, website, null, newEncryptedPassword));
+        return this;
+    }
+
+    /**
+     * This method adds the removal of an entry to the batch, see DatabaseHelper.removeOne(String, AES_Encryption).
+     *
+     * @param website website name to search for and remove the specific entry
+     * @return this batch
+     */
+
+    public EntryBatch remove(String website) {
+        operations.add(new Operation(REMOVE, website, null, null));
+        return this;
+    }
+
+    /**
+     * Getter for the number of operations.
+     *
+     * @return number of operations in the batch
+     */
+
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Getter for the operations in the order they have been added.
+     *
+     * @return unmodifiable list of the operations
+     */
+
+    List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * One operation of the batch.
+     */
+
+    static final class Operation {
+
+        final int type;
+        final String website;
+        final String newWebsite;
+        final byte[] encryptedPassword;
+
+        /**
+         * Constructor for the Operation class.
+         *
+         * @param type              INSERT, UPDATE_WEBSITE, UPDATE_PASSWORD or REMOVE
+         * @param website           website name of the entry
+         * @param newWebsite        new website name, only for UPDATE_WEBSITE
+         * @param encryptedPassword encrypted password, only for INSERT and UPDATE_PASSWORD
+         */
+
+        private Operation(int type, String website, String newWebsite, byte[] encryptedPassword) {
+            this.type = type;
+            this.website = website;
+            this.newWebsite = newWebsite;
+            this.encryptedPassword = encryptedPassword;
+        }
+    }
+}
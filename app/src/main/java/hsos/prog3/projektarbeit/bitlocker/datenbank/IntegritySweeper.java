@@ -0,0 +1,341 @@
+package hsos.prog3.projektarbeit.bitlocker.datenbank;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
+import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
+
+/**
+ * The IntegritySweeper class checks the integrity tags of all entries in the background, so damaged or modified
+ * entries are found before the user opens them. To keep the device responsive, the table is read in small batches
+ * of batchSize entries on a low priority thread, with a pause of pauseMillis after every batch.
+ * The rowid of the last verified entry is stored as watermark in the metadata table after every batch, so a sweep
+ * which has been stopped, e.g. because the app was closed, is continued where it stopped on the next run.
+ * Entries without integrity tag (written before version 5) are verified by decrypting website name and password
+ * instead, and get their tag afterwards. Once a completed sweep has found no entry without tag, the metadata flag
+ * META_INTEGRITY_TAGS_COMPLETE is set; from then on every writer stores a tag and an entry without tag counts as modified,
+ * otherwise removing the tag would be enough to hide a modification.
+ * Results are reported to a Listener on the sweeper thread. There is at most one active sweeper per process.
+ *
+ * @author Andreas Morasch
+ * @see DatabaseHelper#startIntegritySweep(AES_Encryption, Listener)
+ */
+
+public class IntegritySweeper {
+
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    public static final long DEFAULT_PAUSE_MILLIS = 250;
+
+    private static volatile IntegritySweeper activeSweeper;
+
+    private final SQLiteDatabase db;
+    private final AES_Encryption aes_encryption;
+    private final Listener listener;
+    private final int batchSize;
+    private final long pauseMillis;
+    private volatile boolean stopped;
+    private boolean tagsComplete;
+    private int verifiedEntries;
+    private int corruptedEntries;
+    private Thread worker;
+
+    /**
+     * Listener interface for the results of a sweep. All methods are called on the sweeper thread.
+     */
+
+    public interface Listener {
+
+        /**
+         * Called for every entry whose integrity check failed.
+         *
+         * @param rowId rowid of the damaged or modified entry
+         */
+
+        void onEntryCorrupted(long rowId);
+
+        /**
+         * Called after every batch, once its watermark has been stored.
+         *
+         * @param verifiedEntries number of entries verified by this sweep so far
+         * @param watermark       rowid of the last verified entry
+         */
+
+        void onBatchVerified(int verifiedEntries, long watermark);
+
+        /**
+         * Called once when the sweep ends.
+         *
+         * @param verifiedEntries  number of entries verified by this sweep
+         * @param corruptedEntries number of entries whose integrity check failed
+         * @param completed        true if the end of the table has been reached, false if the sweep has been stopped
+         */
+
+        void onSweepFinished(int verifiedEntries, int corruptedEntries, boolean completed);
+    }
+
+    /**
+     * Constructor for the IntegritySweeper class. The new sweeper becomes the active sweeper of the process.
+     *
+     * @param db             writable database holding the password table
+     * @param aes_encryption aes_encryption object holding the data key
+     * @param listener       listener receiving the results
+     * @param batchSize      number of entries verified per batch
+     * @param pauseMillis    pause after every batch in milliseconds
+     */
+
+    IntegritySweeper(SQLiteDatabase db, AES_Encryption aes_encryption, Listener listener, int batchSize, long pauseMillis) {
+        this.db = db;
+        this.aes_encryption = aes_encryption;
+        this.listener = listener;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        activeSweeper = this;
+    }
+
+    /**
+     * Getter for the currently active sweeper.
+     *
+     * @return active sweeper or null if no sweep is running
+     */
+
+    public static IntegritySweeper getActiveSweeper() {
+        return activeSweeper;
+    }
+
+    /**
+     * This method stops the active sweeper, if there is one, after the batch currently being verified.
+     */
+
+    static void stopActiveSweeper() {
+        IntegritySweeper sweeper = activeSweeper;
+        if (sweeper != null) {
+            sweeper.stop();
+        }
+    }
+
+    /**
+     * This method starts the sweep on a background thread with low priority.
+     * Calling this method while the thread is still running has no effect.
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public synchronized void start() {
+        if (worker != null && worker.isAlive()) {
+            return;
+        }
+        stopped = false;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runSweep();
+                } catch (NoSuchAlgorithmException | InvalidKeyException | RuntimeException e) {
+                    Log.e("IntegritySweeper: ", "Integrity sweep failed", e);
+                }
+            }
+        }, "IntegritySweeper");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    /**
+     * This method stops the sweep after the batch currently being verified. Its watermark is still stored.
+     */
+
+    public void stop() {
+        stopped = true;
+        Thread thread = worker;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * This method verifies batch after batch on the calling thread, starting after the stored watermark, until the
+     * end of the table is reached or the sweep is stopped. At the end of the table the watermark is reset, so the
+     * next sweep starts from the beginning again. If no entry without integrity tag is left at the end of the table,
+     * META_INTEGRITY_TAGS_COMPLETE is set.
+     *
+     * @return true if the end of the table has been reached, false if the sweep has been stopped
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public boolean runSweep() throws NoSuchAlgorithmException, InvalidKeyException {
+        long watermark = DatabaseHelper.getMetadataLong(db, DatabaseHelper.META_INTEGRITY_WATERMARK, 0);
+        tagsComplete = DatabaseHelper.getMetadataLong(db, DatabaseHelper.META_INTEGRITY_TAGS_COMPLETE, 0) == 1;
+        boolean completed = false;
+        while (!stopped && activeSweeper == this) {
+            long nextWatermark = verifyBatch(watermark);
+            if (nextWatermark == watermark) {
+                DatabaseHelper.putMetadata(db, DatabaseHelper.META_INTEGRITY_WATERMARK, 0);
+                if (!tagsComplete && countUntaggedEntries() == 0) {
+                    DatabaseHelper.putMetadata(db, DatabaseHelper.META_INTEGRITY_TAGS_COMPLETE, 1);
+                    tagsComplete = true;
+                }
+                completed = true;
+                break;
+            }
+            watermark = nextWatermark;
+            listener.onBatchVerified(verifiedEntries, watermark);
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        if (activeSweeper == this) {
+            activeSweeper = null;
+        }
+        Log.d("IntegritySweeper: ", verifiedEntries + " entries verified, " + corruptedEntries + " corrupted");
+        listener.onSweepFinished(verifiedEntries, corruptedEntries, completed);
+        return completed;
+    }
+
+    /**
+     * This method verifies the next batch of up to batchSize entries after the given watermark. Tags of entries
+     * which have been verified by decryption and the new watermark are written in one transaction.
+     * A tag is only written if the entry still holds the values it has been computed from, so an entry which has been
+     * re-encrypted or edited in the meantime never receives a stale tag. Once META_INTEGRITY_TAGS_COMPLETE is set,
+     * an entry without tag is reported as corrupted instead.
+     * Entries with a plain text website name or below the current key version are skipped, they are rewritten
+     * by unlockDataKey(String) or the running key rotation anyway.
+     *
+     * @param watermark rowid of the last verified entry
+     * @return rowid of the last entry of this batch, or the given watermark if there are no entries left
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private long verifyBatch(long watermark) throws NoSuchAlgorithmException, InvalidKeyException {
+        long writeKeyVersion = DatabaseHelper.getWriteKeyVersion(db);
+        List<Long> taggedRowIds = new ArrayList<>();
+        List<String> taggedIndices = new ArrayList<>();
+        List<byte[]> taggedWebsites = new ArrayList<>();
+        List<byte[]> taggedPasswords = new ArrayList<>();
+        List<byte[]> newTags = new ArrayList<>();
+        long lastRowId = watermark;
+
+        try (Cursor data = CursorTracker.query(db, "SELECT rowid, " + DatabaseHelper.WEBSITE_COL + ", " + DatabaseHelper.WEBSITE_INDEX_COL + ", "
+                + DatabaseHelper.PASSWORD_COL + ", " + DatabaseHelper.KEY_VERSION_COL + ", " + DatabaseHelper.INTEGRITY_TAG_COL
+                + " FROM " + DatabaseHelper.TABLE_NAME + " WHERE rowid > CAST(? AS INTEGER) ORDER BY rowid LIMIT CAST(? AS INTEGER)",
+                new String[]{String.valueOf(watermark), String.valueOf(batchSize)})) {
+            while (data.moveToNext()) {
+                lastRowId = data.getLong(0);
+                String websiteIndex = data.getString(2);
+                if (websiteIndex == null || data.getLong(4) < writeKeyVersion) {
+                    continue;
+                }
+
+                byte[] encryptedWebsite = data.getBlob(1);
+                byte[] encryptedPassword = data.getBlob(3);
+                byte[] expectedTag = aes_encryption.integrityTag(websiteIndex, encryptedWebsite, encryptedPassword);
+                boolean intact;
+                if (data.isNull(5) && tagsComplete) {
+                    // Alle Schreibzugriffe speichern ein Tag, ein fehlendes Tag wurde also entfernt
+                    intact = false;
+                } else if (data.isNull(5)) {
+                    intact = verifyByDecryption(websiteIndex, encryptedWebsite, encryptedPassword);
+                    if (intact) {
+                        taggedRowIds.add(lastRowId);
+                        taggedIndices.add(websiteIndex);
+                        taggedWebsites.add(encryptedWebsite);
+                        taggedPasswords.add(encryptedPassword);
+                        newTags.add(expectedTag);
+                    }
+                } else {
+                    // MessageDigest.isEqual() vergleicht in konstanter Zeit
+                    intact = MessageDigest.isEqual(expectedTag, data.getBlob(5));
+                }
+
+                verifiedEntries++;
+                if (!intact) {
+                    corruptedEntries++;
+                    listener.onEntryCorrupted(lastRowId);
+                }
+            }
+        }
+
+        if (lastRowId != watermark) {
+            SQLiteStatement statement = db.compileStatement("UPDATE " + DatabaseHelper.TABLE_NAME + " SET "
+                    + DatabaseHelper.INTEGRITY_TAG_COL + " = ? WHERE rowid = ? AND " + DatabaseHelper.INTEGRITY_TAG_COL + " IS NULL AND "
+                    + DatabaseHelper.WEBSITE_INDEX_COL + " = ? AND " + DatabaseHelper.WEBSITE_COL + " = ? AND "
+                    + DatabaseHelper.PASSWORD_COL + " = ?");
+            db.beginTransactionNonExclusive();
+            try {
+                for (int i = 0; i < taggedRowIds.size(); i++) {
+                    statement.bindBlob(1, newTags.get(i));
+                    statement.bindLong(2, taggedRowIds.get(i));
+                    statement.bindString(3, taggedIndices.get(i));
+                    statement.bindBlob(4, taggedWebsites.get(i));
+                    statement.bindBlob(5, taggedPasswords.get(i));
+                    statement.executeUpdateDelete();
+                }
+                DatabaseHelper.putMetadata(db, DatabaseHelper.META_INTEGRITY_WATERMARK, lastRowId);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                statement.close();
+            }
+        }
+        return lastRowId;
+    }
+
+    /**
+     * Helper method verifying an entry without integrity tag: website name and password must both be decryptable
+     * with the data key and the blind index must belong to the decrypted name. A bound password only opens with the
+     * blind index of its own entry.
+     *
+     * @param websiteIndex      stored blind index
+     * @param encryptedWebsite  stored encrypted website name
+     * @param encryptedPassword stored encrypted password
+     * @return true if the entry is intact
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private boolean verifyByDecryption(String websiteIndex, byte[] encryptedWebsite, byte[] encryptedPassword) throws NoSuchAlgorithmException,
+            InvalidKeyException {
+        try {
+            String website = aes_encryption.decryptPassword(encryptedWebsite);
+            aes_encryption.decryptPassword(encryptedPassword, websiteIndex);
+            return websiteIndex.equals(aes_encryption.blindIndex(website));
+        } catch (UnsupportedEncodingException | NoSuchPaddingException | IllegalBlockSizeException | BadPaddingException
+                | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Helper method counting the entries which have no integrity tag yet, including entries with a plain text
+     * website name or below the current key version, which have been skipped by the sweep.
+     *
+     * @return number of entries without integrity tag
+     */
+
+    private long countUntaggedEntries() {
+        try (Cursor cursor = CursorTracker.query(db, "SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_NAME + " WHERE "
+                + DatabaseHelper.INTEGRITY_TAG_COL + " IS NULL", null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package hsos.prog3.projektarbeit.bitlocker.datenbank;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
+import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
+
+/**
+ * The KeyRotationJob class re-encrypts all entries from an old key to a new key in chunks of CHUNK_SIZE entries.
+ * It is used to move the entries of an old vault to a random data key.
+ * Every chunk is processed by a RotationPipeline, which marks the written entries with the target key version.
+ * Together with the checkpoint in the metadata table this makes the rotation resumable: the job can be paused
+ * after any chunk and is continued on the next login without re-encrypting finished entries.
+ * Entries which cannot be decrypted with the old key are reported to the listener and keep their old key version.
+ * As long as such entries exist, the rotation is not finished: the checkpoint including the old key is kept
+ * and the entries are tried again when the job is started the next time.
+ * There is at most one active job per process.
+ *
+ * @author Andreas Morasch
+ * @see DatabaseHelper#unlockDataKey(String)
+ * @see DatabaseHelper#resumeKeyRotation(AES_Encryption, IntegritySweeper.Listener)
+ */
+
+public class KeyRotationJob {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private static volatile KeyRotationJob activeJob;
+
+    private final SQLiteDatabase db;
+    private final AES_Encryption oldEncryption;
+    private final AES_Encryption newEncryption;
+    private final long targetVersion;
+    private volatile boolean paused;
+    private volatile RotationPipeline currentPipeline;
+    private volatile IntegritySweeper.Listener listener;
+    private Thread worker;
+    private long resumeRowId = Long.MIN_VALUE;
+    private int failedEntries;
+
+    /**
+     * Constructor for the KeyRotationJob class. The new job becomes the active job of the process.
+     *
+     * @param db            writable database holding the password table
+     * @param oldEncryption AES_Encryption object holding the key the remaining entries are encrypted with
+     * @param newEncryption AES_Encryption object holding the key the entries will be encrypted with
+     * @param targetVersion key version of the new key
+     */
+
+    KeyRotationJob(SQLiteDatabase db, AES_Encryption oldEncryption, AES_Encryption newEncryption, long targetVersion) {
+        this.db = db;
+        this.oldEncryption = oldEncryption;
+        this.newEncryption = newEncryption;
+        this.targetVersion = targetVersion;
+        activeJob = this;
+    }
+
+    /**
+     * Getter for the currently active job.
+     *
+     * @return active job or null if no rotation is in progress
+     */
+
+    public static KeyRotationJob getActiveJob() {
+        return activeJob;
+    }
+
+    /**
+     * This method pauses the active job, if there is one.
+     */
+
+    static void pauseActiveJob() {
+        KeyRotationJob job = activeJob;
+        if (job != null) {
+            job.pause();
+        }
+    }
+
+    /**
+     * This method pauses the active job, if there is one, and forgets it.
+     * It is used when the entries of the vault are removed.
+     */
+
+    static void cancelActiveJob() {
+        KeyRotationJob job = activeJob;
+        if (job != null) {
+            job.pause();
+            activeJob = null;
+        }
+    }
+
+    /**
+     * Getter for the target key version of this job.
+     *
+     * @return key version of the new key
+     */
+
+    public long getTargetVersion() {
+        return targetVersion;
+    }
+
+    /**
+     * Setter for the listener which is informed about entries that cannot be re-encrypted.
+     *
+     * @param listener listener receiving the damaged entries, may be null
+     */
+
+    public void setListener(IntegritySweeper.Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * This method starts (or resumes) the job on a background thread. The thread processes one chunk after
+     * another until every entry has been processed or the job is paused. Calling this method while the thread is
+     * still running has no effect. Entries which could not be re-encrypted by an earlier run are tried again.
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public synchronized void start() {
+        if (worker != null && worker.isAlive()) {
+            return;
+        }
+        paused = false;
+        rewind();
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runToCompletion();
+                } catch (UnsupportedEncodingException | NoSuchPaddingException | IllegalBlockSizeException
+                        | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException | RuntimeException e) {
+                    Log.e("KeyRotationJob: ", "Rotation to key version " + targetVersion + " failed", e);
+                }
+            }
+        }, "KeyRotationJob");
+        worker.start();
+    }
+
+    /**
+     * This method pauses the job after the chunk currently being processed. The pages of this chunk which are
+     * already on their way through the pipeline are still committed, so no work is lost.
+     */
+
+    public void pause() {
+        paused = true;
+        RotationPipeline pipeline = currentPipeline;
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+    }
+
+    /**
+     * This method processes chunk after chunk on the calling thread until every entry has been processed or the job is paused.
+     *
+     * @return true if every entry has been processed, false if the job has been paused
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public boolean runToCompletion() throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        while (!paused) {
+            if (runChunk()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method finishes the job on the calling thread, even if it has been paused before.
+     * It is used when a new rotation has to be started, because only one old key can be kept in the checkpoint.
+     * If entries are left which cannot be re-encrypted, the rotation is not finished, since the old key would be lost.
+     *
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    void finishInForeground() throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        paused = false;
+        rewind();
+        if (!runToCompletion()) {
+            throw new IllegalStateException("Key rotation to version " + targetVersion + " has been paused");
+        }
+        if (activeJob == this) {
+            throw new IllegalStateException("Key rotation to version " + targetVersion + " cannot be finished, "
+                    + failedEntries + " entries could not be re-encrypted");
+        }
+    }
+
+    /**
+     * This method re-encrypts the next chunk of up to CHUNK_SIZE entries. Every chunk continues after the last entry
+     * of the previous chunk. If there are no entries left, the rotation is finished: the target version becomes
+     * the current key version and the checkpoint is removed. If entries below the target version are left because
+     * they could not be re-encrypted, the rotation stays unfinished.
+     *
+     * @return true if every entry has been processed
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public synchronized boolean runChunk() throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException,
+            NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        if (activeJob != this) {
+            return true;
+        }
+
+        RotationPipeline pipeline = new RotationPipeline(db, oldEncryption, newEncryption, targetVersion, CHUNK_SIZE,
+                resumeRowId, listener);
+        currentPipeline = pipeline;
+        if (paused) {
+            pipeline.stop();
+        }
+        try {
+            int rotatedEntries = pipeline.run();
+            Log.d("KeyRotationJob: ", rotatedEntries + " entries re-encrypted to key version " + targetVersion);
+        } finally {
+            currentPipeline = null;
+            resumeRowId = pipeline.getLastRowId();
+            failedEntries += pipeline.getFailedEntries();
+        }
+
+        if (!pipeline.isExhausted()) {
+            return false;
+        }
+        long remainingEntries = countRemainingEntries();
+        if (remainingEntries > 0) {
+            Log.w("KeyRotationJob: ", "Rotation to key version " + targetVersion + " not finished, "
+                    + remainingEntries + " entries could not be re-encrypted");
+            return true;
+        }
+        finish();
+        return true;
+    }
+
+    /**
+     * This method re-encrypts one single entry right away. It is used when an entry is accessed
+     * before the job has reached it. The password stays bound to the blind index of the entry and
+     * the integrity tag is renewed together with it, like in the RotationPipeline.
+     *
+     * @param rowId             rowid of the entry
+     * @param websiteIndex      blind index of the entry, null if its name is still stored in plain text
+     * @param encryptedWebsite  encrypted website name of the entry
+     * @param encryptedPassword password of the entry, still encrypted with the old key
+     * @return password encrypted with the new key, or the given password if it could not be re-encrypted
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    byte[] rotateEntry(long rowId, String websiteIndex, byte[] encryptedWebsite, byte[] encryptedPassword) {
+        try {
+            byte[] newEncryptedPassword = oldEncryption.reencryptPasswords(Collections.singletonList(encryptedPassword),
+                    Collections.singletonList(websiteIndex), newEncryption).get(0);
+            byte[] integrityTag = RotationPipeline.integrityTag(newEncryption, websiteIndex, encryptedWebsite, newEncryptedPassword);
+            db.execSQL("UPDATE " + DatabaseHelper.TABLE_NAME + " SET " + DatabaseHelper.PASSWORD_COL + " = ?, "
+                            + DatabaseHelper.KEY_VERSION_COL + " = ?, " + DatabaseHelper.INTEGRITY_TAG_COL + " = ? WHERE rowid = ? AND "
+                            + DatabaseHelper.KEY_VERSION_COL + " < ?",
+                    new Object[]{newEncryptedPassword, targetVersion, integrityTag, rowId, targetVersion});
+            return newEncryptedPassword;
+        } catch (UnsupportedEncodingException | NoSuchPaddingException | IllegalBlockSizeException
+                | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException e) {
+            Log.e("KeyRotationJob: ", "Entry could not be re-encrypted", e);
+            IntegritySweeper.Listener currentListener = listener;
+            if (currentListener != null) {
+                currentListener.onEntryCorrupted(rowId);
+            }
+            return encryptedPassword;
+        }
+    }
+
+    /**
+     * Helper method starting the next run at the beginning of the table again.
+     */
+
+    private synchronized void rewind() {
+        resumeRowId = Long.MIN_VALUE;
+        failedEntries = 0;
+    }
+
+    /**
+     * Helper method counting the entries which are still encrypted with the old key.
+     *
+     * @return number of entries below the target version
+     */
+
+    private long countRemainingEntries() {
+        try (Cursor cursor = CursorTracker.query(db, "SELECT COUNT(*) FROM " + DatabaseHelper.TABLE_NAME + " WHERE "
+                + DatabaseHelper.KEY_VERSION_COL + " < CAST(? AS INTEGER)", new String[]{String.valueOf(targetVersion)})) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /**
+     * This method completes the rotation in one transaction: the target version becomes the current key version
+     * and the checkpoint including the stored old key is removed.
+     */
+
+    private void finish() {
+        db.beginTransaction();
+        try {
+            DatabaseHelper.putMetadata(db, DatabaseHelper.META_KEY_VERSION, targetVersion);
+            DatabaseHelper.removeMetadata(db, DatabaseHelper.META_ROTATION_TARGET_VERSION);
+            DatabaseHelper.removeMetadata(db, DatabaseHelper.META_ROTATION_PREVIOUS_KEY);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        activeJob = null;
+        Log.d("KeyRotationJob: ", "Rotation to key version " + targetVersion + " completed");
+    }
+}
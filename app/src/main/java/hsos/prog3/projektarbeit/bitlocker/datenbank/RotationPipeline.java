@@ -0,0 +1,498 @@
+package hsos.prog3.projektarbeit.bitlocker.datenbank;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.RequiresApi;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
+import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
+
+/**
+ * The RotationPipeline class re-encrypts the passwords of the table from an old key to a new key.
+ * It is built as a pipeline of three stages which run at the same time:
+ * a reader thread streaming the table page by page, the calling thread decrypting and encrypting every page
+ * with the batch operations of AES_Encryption and a writer thread committing the pages in batched transactions.
+ * The stages are connected through bounded queues, so only a fixed number of pages is held in memory
+ * regardless of the size of the vault. Only entries below the target key version are processed and every written
+ * entry is marked with the target key version in the same transaction, which makes the progress of the
+ * rotation a checkpoint that survives a crash.
+ * Every password is bound to the blind index of its entry and written together with the new integrity tag of the
+ * entry, so a re-encrypted entry is protected right away. The tag is only computed after the website name has been
+ * checked against the blind index, otherwise a modified entry would get a valid tag.
+ * An entry which cannot be decrypted with the old key or whose website name does not match its blind index is
+ * reported to the listener and left with its old key version, the other entries of its page are still re-encrypted.
+ *
+ * @author Andreas Morasch
+ * @see KeyRotationJob
+ */
+
+class RotationPipeline {
+
+    private static final int PAGE_SIZE = 256;
+    private static final int QUEUE_CAPACITY = 2;
+    private static final int PAGES_PER_TRANSACTION = 4;
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+    private static final Page END_OF_DATA = new Page(new long[0], new ArrayList<String>(), new ArrayList<byte[]>(), new ArrayList<byte[]>(), null);
+
+    private final SQLiteDatabase db;
+    private final AES_Encryption oldEncryption;
+    private final AES_Encryption newEncryption;
+    private final long targetVersion;
+    private final int maxEntries;
+    private final IntegritySweeper.Listener listener;
+    private final BlockingQueue<Page> readQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Page> writeQueue = new ArrayBlockingQueue<>(PAGES_PER_TRANSACTION);
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private volatile boolean aborted;
+    private volatile boolean stopRequested;
+    private int readEntries;
+    private int rotatedEntries;
+    private int failedEntries;
+    private long lastRowId;
+
+    /**
+     * Constructor for the RotationPipeline class.
+     *
+     * @param db            writable database holding the password table
+     * @param oldEncryption AES_Encryption object holding the key the passwords are currently encrypted with
+     * @param newEncryption AES_Encryption object holding the key the passwords will be encrypted with
+     * @param targetVersion key version of the new key
+     * @param maxEntries    maximum number of entries to be processed by one run
+     * @param startRowId    only entries with a greater rowid are processed
+     * @param listener      listener receiving the entries which cannot be re-encrypted, may be null
+     */
+
+    RotationPipeline(SQLiteDatabase db, AES_Encryption oldEncryption, AES_Encryption newEncryption,
+                     long targetVersion, int maxEntries, long startRowId, IntegritySweeper.Listener listener) {
+        this.db = db;
+        this.oldEncryption = oldEncryption;
+        this.newEncryption = newEncryption;
+        this.targetVersion = targetVersion;
+        this.maxEntries = maxEntries;
+        this.listener = listener;
+        this.lastRowId = startRowId;
+    }
+
+    /**
+     * This method runs the pipeline until every entry below the target version has been re-encrypted,
+     * maxEntries entries have been read or stop() has been called.
+     * The reader and writer stages are started on their own threads, the crypto stage runs on the calling thread.
+     * If any stage fails, the other stages are stopped and the failure is thrown on the calling thread.
+     * Damaged entries do not stop the pipeline, see getFailedEntries().
+     *
+     * @return number of re-encrypted entries
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    int run() throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException {
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readPages();
+            }
+        }, "RotationPipeline-Reader");
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writePages();
+            }
+        }, "RotationPipeline-Writer");
+
+        reader.start();
+        writer.start();
+        boolean completed = false;
+        try {
+            Page page;
+            while ((page = take(readQueue)) != END_OF_DATA) {
+                put(writeQueue, reencryptPage(page));
+            }
+            put(writeQueue, END_OF_DATA);
+            completed = true;
+        } catch (IllegalStateException e) {
+            // Wurde die Pipeline durch einen Fehler im Lese- oder Schreib-Thread abgebrochen, wird dieser Fehler weiter unten geworfen
+            if (failure.get() == null) {
+                throw e;
+            }
+        } finally {
+            if (!completed) {
+                aborted = true;
+            }
+            join(reader);
+            join(writer);
+        }
+
+        RuntimeException backgroundFailure = failure.get();
+        if (backgroundFailure != null) {
+            throw backgroundFailure;
+        }
+        return rotatedEntries;
+    }
+
+    /**
+     * This method stops the pipeline gracefully: no further pages are read, but the pages
+     * which are already on their way are still encrypted and committed.
+     */
+
+    void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Getter for the number of entries of the last run which could not be re-encrypted.
+     *
+     * @return number of failed entries
+     */
+
+    int getFailedEntries() {
+        return failedEntries;
+    }
+
+    /**
+     * Getter for the rowid of the last entry read by the last run. The next run can continue after this entry,
+     * so entries which could not be re-encrypted are not read again and again.
+     *
+     * @return rowid of the last entry read, or the start rowid if no entry has been read
+     */
+
+    long getLastRowId() {
+        return lastRowId;
+    }
+
+    /**
+     * This method tells whether the last run has read fewer entries than allowed without being stopped,
+     * which means that there are no entries left below the target version.
+     *
+     * @return true if the rotation is complete
+     */
+
+    boolean isExhausted() {
+        return !stopRequested && readEntries < maxEntries;
+    }
+
+    /**
+     * Reader stage: streams the entries below the target version in pages of up to PAGE_SIZE rows ordered by rowid.
+     * Every page is read through its own short-lived cursor, so no cursor stays open while the other stages are working.
+     * Blind index and website name are read as well, the crypto stage needs them for the integrity tag.
+     */
+
+    private void readPages() {
+        try {
+            String query = "SELECT rowid, " + DatabaseHelper.WEBSITE_INDEX_COL + ", " + DatabaseHelper.WEBSITE_COL + ", "
+                    + DatabaseHelper.PASSWORD_COL + " FROM " + DatabaseHelper.TABLE_NAME
+                    + " WHERE " + DatabaseHelper.KEY_VERSION_COL + " < CAST(? AS INTEGER) AND rowid > CAST(? AS INTEGER)"
+                    + " ORDER BY rowid LIMIT CAST(? AS INTEGER)";
+            String target = String.valueOf(targetVersion);
+            while (!aborted && !stopRequested && readEntries < maxEntries) {
+                int limit = Math.min(PAGE_SIZE, maxEntries - readEntries);
+                long[] rowIds = new long[limit];
+                List<String> websiteIndices = new ArrayList<>(limit);
+                List<byte[]> websites = new ArrayList<>(limit);
+                List<byte[]> passwords = new ArrayList<>(limit);
+                try (Cursor cursor = CursorTracker.query(db, query, new String[]{target, String.valueOf(lastRowId), String.valueOf(limit)})) {
+                    while (cursor.moveToNext()) {
+                        rowIds[passwords.size()] = cursor.getLong(0);
+                        websiteIndices.add(cursor.getString(1));
+                        websites.add(cursor.getBlob(2));
+                        passwords.add(cursor.getBlob(3));
+                    }
+                }
+                if (passwords.isEmpty()) {
+                    break;
+                }
+                lastRowId = rowIds[passwords.size() - 1];
+                readEntries += passwords.size();
+                put(readQueue, new Page(rowIds, websiteIndices, websites, passwords, null));
+            }
+        } catch (RuntimeException e) {
+            fail(e);
+        } finally {
+            offerEnd(readQueue);
+        }
+    }
+
+    /**
+     * Crypto stage: re-encrypts one page with the batch operation of AES_Encryption and computes the integrity tags
+     * of its entries. If an entry of the page cannot be decrypted, the entries of the page are re-encrypted one by one
+     * instead, so only the damaged entries are left out.
+     * A missing algorithm or an invalid key affects every entry and still aborts the pipeline.
+     *
+     * @param page page read from the table
+     * @return page holding the re-encrypted passwords and tags of all entries which could be re-encrypted
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private Page reencryptPage(Page page) throws UnsupportedEncodingException, NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException {
+        List<byte[]> reencryptedPasswords = null;
+        try {
+            reencryptedPasswords = oldEncryption.reencryptPasswords(page.passwords, page.websiteIndices, newEncryption);
+        } catch (BadPaddingException | IllegalBlockSizeException | RuntimeException e) {
+            // Mindestens ein Eintrag ist beschädigt, die Einträge werden einzeln verschlüsselt
+        }
+
+        int size = page.passwords.size();
+        long[] rowIds = new long[size];
+        List<String> websiteIndices = new ArrayList<>(size);
+        List<byte[]> websites = new ArrayList<>(size);
+        List<byte[]> encryptedPasswords = new ArrayList<>(size);
+        List<byte[]> integrityTags = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String websiteIndex = page.websiteIndices.get(i);
+            byte[] website = page.websites.get(i);
+            try {
+                byte[] encryptedPassword = reencryptedPasswords != null ? reencryptedPasswords.get(i)
+                        : oldEncryption.reencryptPasswords(Collections.singletonList(page.passwords.get(i)),
+                        Collections.singletonList(websiteIndex), newEncryption).get(0);
+                integrityTags.add(integrityTag(newEncryption, websiteIndex, website, encryptedPassword));
+                rowIds[encryptedPasswords.size()] = page.rowIds[i];
+                websiteIndices.add(websiteIndex);
+                websites.add(website);
+                encryptedPasswords.add(encryptedPassword);
+            } catch (BadPaddingException | IllegalBlockSizeException | RuntimeException e) {
+                failedEntries++;
+                Log.e("RotationPipeline: ", "Entry " + page.rowIds[i] + " could not be re-encrypted to key version " + targetVersion, e);
+                if (listener != null) {
+                    listener.onEntryCorrupted(page.rowIds[i]);
+                }
+            }
+        }
+        return new Page(Arrays.copyOf(rowIds, encryptedPasswords.size()), websiteIndices, websites, encryptedPasswords, integrityTags);
+    }
+
+    /**
+     * This method computes the integrity tag of a re-encrypted entry. The website name is decrypted first and
+     * checked against the blind index, so only an entry whose name and blind index belong together gets a tag.
+     * The password itself has already been checked when it was opened with the blind index.
+     * Entries whose name is still stored in plain text have no blind index yet and get no tag.
+     *
+     * @param newEncryption     AES_Encryption object holding the data key
+     * @param websiteIndex      blind index of the entry, may be null
+     * @param encryptedWebsite  encrypted website name
+     * @param encryptedPassword re-encrypted password
+     * @return integrity tag, or null if the entry has no blind index
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    static byte[] integrityTag(AES_Encryption newEncryption, String websiteIndex, byte[] encryptedWebsite, byte[] encryptedPassword)
+            throws UnsupportedEncodingException, NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException,
+            BadPaddingException, InvalidKeyException {
+        if (websiteIndex == null) {
+            return null;
+        }
+        if (!websiteIndex.equals(newEncryption.blindIndex(newEncryption.decryptPassword(encryptedWebsite)))) {
+            throw new AEADBadTagException("Website name does not match its blind index");
+        }
+        return newEncryption.integrityTag(websiteIndex, encryptedWebsite, encryptedPassword);
+    }
+
+    /**
+     * Writer stage: writes the re-encrypted pages back with one precompiled UPDATE statement, which also sets the
+     * target key version and the new integrity tag. Entries which have been changed in the meantime, including renamed
+     * entries, already carry the target version and are skipped, so a tag never belongs to another name.
+     * Up to PAGES_PER_TRANSACTION pages which are already waiting in the queue are committed together in one
+     * transaction. The transaction is only opened once the pages are there, so the reader stage is never
+     * blocked by a transaction that is waiting for data.
+     */
+
+    private void writePages() {
+        SQLiteStatement statement = db.compileStatement("UPDATE " + DatabaseHelper.TABLE_NAME + " SET "
+                + DatabaseHelper.PASSWORD_COL + " = ?, " + DatabaseHelper.KEY_VERSION_COL + " = ?, " + DatabaseHelper.INTEGRITY_TAG_COL
+                + " = ? WHERE rowid = ? AND "
+                + DatabaseHelper.KEY_VERSION_COL + " < ?");
+        try {
+            List<Page> batch = new ArrayList<>(PAGES_PER_TRANSACTION);
+            boolean endOfData = false;
+            while (!endOfData) {
+                batch.clear();
+                batch.add(take(writeQueue));
+                writeQueue.drainTo(batch, PAGES_PER_TRANSACTION - 1);
+                endOfData = batch.remove(END_OF_DATA);
+
+                db.beginTransactionNonExclusive();
+                try {
+                    int written = 0;
+                    for (Page page : batch) {
+                        for (int i = 0; i < page.passwords.size(); i++) {
+                            statement.bindBlob(1, page.passwords.get(i));
+                            statement.bindLong(2, targetVersion);
+                            byte[] integrityTag = page.integrityTags.get(i);
+                            if (integrityTag != null) {
+                                statement.bindBlob(3, integrityTag);
+                            } else {
+                                statement.bindNull(3);
+                            }
+                            statement.bindLong(4, page.rowIds[i]);
+                            statement.bindLong(5, targetVersion);
+                            written += statement.executeUpdateDelete();
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                    rotatedEntries += written;
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } catch (RuntimeException e) {
+            fail(e);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Records the failure of a background stage and stops the pipeline. Failures caused by an
+     * already aborted pipeline are not recorded, so the original cause is the one that is thrown.
+     *
+     * @param e failure of the stage
+     */
+
+    private void fail(RuntimeException e) {
+        if (!aborted) {
+            failure.compareAndSet(null, e);
+            aborted = true;
+        }
+    }
+
+    /**
+     * Puts a page into the queue. Waits while the queue is full, but gives up as soon as the pipeline is aborted.
+     *
+     * @param queue queue to put the page into
+     * @param page  page to be passed to the next stage
+     */
+
+    private void put(BlockingQueue<Page> queue, Page page) {
+        try {
+            while (!queue.offer(page, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkNotAborted();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Rotation interrupted", e);
+        }
+    }
+
+    /**
+     * Takes the next page from the queue. Waits while the queue is empty, but gives up as soon as the pipeline is aborted.
+     *
+     * @param queue queue to take the page from
+     * @return next page or END_OF_DATA
+     */
+
+    private Page take(BlockingQueue<Page> queue) {
+        try {
+            Page page;
+            while ((page = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                checkNotAborted();
+            }
+            return page;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Rotation interrupted", e);
+        }
+    }
+
+    /**
+     * Marks the end of the data for the next stage, unless the pipeline has already been aborted.
+     *
+     * @param queue queue of the next stage
+     */
+
+    private void offerEnd(BlockingQueue<Page> queue) {
+        try {
+            put(queue, END_OF_DATA);
+        } catch (IllegalStateException ignored) {
+            // Die Pipeline wurde bereits abgebrochen, der nächste Schritt wartet nicht mehr
+        }
+    }
+
+    /**
+     * Throws an IllegalStateException if the pipeline has been aborted by another stage.
+     */
+
+    private void checkNotAborted() {
+        if (aborted) {
+            throw new IllegalStateException("Rotation aborted");
+        }
+    }
+
+    /**
+     * Waits until the given stage thread has finished.
+     *
+     * @param thread stage thread
+     */
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One page of the password table: the rowids, blind indices, website names, passwords and integrity tags
+     * of the entries at the same positions.
+     */
+
+    private static final class Page {
+        private final long[] rowIds;
+        private final List<String> websiteIndices;
+        private final List<byte[]> websites;
+        private final List<byte[]> passwords;
+        private final List<byte[]> integrityTags;
+
+        /**
+         * Constructor for the Page class.
+         *
+         * @param rowIds         rowids of the entries
+         * @param websiteIndices blind indices of the entries, null for names stored in plain text
+         * @param websites       encrypted website names of the entries
+         * @param passwords      encrypted passwords of the entries
+         * @param integrityTags  new integrity tags of the re-encrypted entries, null for pages read from the table
+         */
+
+        private Page(long[] rowIds, List<String> websiteIndices, List<byte[]> websites, List<byte[]> passwords,
+                     List<byte[]> integrityTags) {
+            this.rowIds = rowIds;
+            this.websiteIndices = websiteIndices;
+            this.websites = websites;
+            this.passwords = passwords;
+            this.integrityTags = integrityTags;
+        }
+    }
+}
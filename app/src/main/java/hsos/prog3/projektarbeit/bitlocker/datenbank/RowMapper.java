@@ -0,0 +1,27 @@
+package hsos.prog3.projektarbeit.bitlocker.datenbank;
+
+import android.database.Cursor;
+
+/**
+ * The RowMapper interface turns the current row of a cursor into an object. It is passed to the query methods of the
+ * DatabaseHelper, which open the cursor, call the mapper once per row and always close the cursor afterwards, so
+ * callers never hold a cursor themselves.
+ *
+ * @param <T> type of the mapped objects
+ * @author Andreas Morasch
+ * @see DatabaseHelper#queryEntries(RowMapper)
+ * @see DatabaseHelper#iterateEntries(RowMapper)
+ */
+
+public interface RowMapper<T> {
+
+    /**
+     * This method maps the current row. The cursor must not be moved or closed by the mapper, and it must not be
+     * kept after the method returned. Blobs and Strings read from the cursor are copies and can be kept.
+     *
+     * @param cursor cursor positioned on the row
+     * @return mapped object of the row
+     */
+
+    T mapRow(Cursor cursor);
+}
@@ -5,18 +5,22 @@ import android.os.Build;
 import androidx.annotation.RequiresApi;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * The AES_Encryption class implements the AES_EncryptionInterface and its purpose is to encrypt
@@ -28,10 +32,11 @@ import javax.crypto.spec.SecretKeySpec;
 // Source: http://blog.axxg.de/java-aes-verschluesselung-mit-beispiel/
 public class AES_Encryption implements AES_EncryptionInterface {
 
-    private static String MASTER_PASSWORD;
+    private final KeyContext keyContext;
 
     /**
-     * Constructor for the AES_Encryption class.
+     * Constructor for the AES_Encryption class using the key of an old vault, which is derived from the
+     * master password with one SHA-256 hash. New vaults use a data key, see DatabaseHelper.unlockDataKey(String).
      *
      * @param masterPassword important encryption key, which is used for encrypting all given passwords
      * @throws UnsupportedEncodingException The Character Encoding is not supported.
@@ -39,46 +44,34 @@ public class AES_Encryption implements AES_EncryptionInterface {
      */
 
     public AES_Encryption(String masterPassword) throws UnsupportedEncodingException, NoSuchAlgorithmException {
-        MASTER_PASSWORD = masterPassword;
+        this.keyContext = KeyContext.fromLegacyMasterPassword(masterPassword);
     }
 
     /**
-     * This Method changes the MASTER_PASSWORD key attribute used to encrypt all given passwords.
-     * Important: This method should never be called alone, it is part of the DatabaseHelper class method "updateAllPasswords".
+     * Constructor for the AES_Encryption class using an already existing KeyContext.
      *
-     * @param newMasterPassword new master password to replace the old one
-     * @see hsos.prog3.projektarbeit.bitlocker.datenbank.DatabaseHelper
+     * @param keyContext KeyContext holding the key, which is used for encrypting all given passwords
      */
 
-    public void changeKeyText(String newMasterPassword) {
-        MASTER_PASSWORD = newMasterPassword;
+    public AES_Encryption(KeyContext keyContext) {
+        this.keyContext = keyContext;
     }
 
     /**
-     * This is a helper method which is called by the methods encryptPassword and decryptPassword and
-     * returns a SecretKeySpec in order to perform an encryption or decryption.
+     * Getter for the KeyContext currently used for encryption and decryption.
      *
-     * @return SecretKeySpec used for encryption and decryption
-     * @throws UnsupportedEncodingException The Character Encoding is not supported.
-     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @return current KeyContext
      */
 
-    private SecretKeySpec getSecretKeySpec() throws UnsupportedEncodingException, NoSuchAlgorithmException {
-        // byte-Array erzeugen
-        byte[] key = (MASTER_PASSWORD).getBytes(StandardCharsets.UTF_8);
-        // aus dem Array einen Hash-Wert erzeugen mit MD5 oder SHA
-        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
-        key = messageDigest.digest(key);
-        // 32*8 Bit benutzt
-        key = Arrays.copyOf(key, 32);
-        return new SecretKeySpec(key, "AES");
+    public KeyContext getKeyContext() {
+        return keyContext;
     }
 
     /**
      * This method encrypts a given password by using the AES_Encryption Algorithm.
      *
      * @param decryptedPassword decrypted password to be encrypted
-     * @return encrypted password as a String
+     * @return encrypted password as a versioned record (see PasswordRecord)
      * @throws UnsupportedEncodingException The Character Encoding is not supported.
      * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
      * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
@@ -88,17 +81,15 @@ public class AES_Encryption implements AES_EncryptionInterface {
      */
 
     @RequiresApi(api = Build.VERSION_CODES.O)
-    public String encryptPassword(String decryptedPassword) throws NoSuchAlgorithmException, UnsupportedEncodingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException {
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.ENCRYPT_MODE, getSecretKeySpec());
-        byte[] encrypted = cipher.doFinal(decryptedPassword.getBytes());
-        return Base64.getEncoder().encodeToString(encrypted);
+    public byte[] encryptPassword(String decryptedPassword) throws NoSuchAlgorithmException, UnsupportedEncodingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException {
+        return keyContext.seal(decryptedPassword.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
      * This method decrypts an encrypted Password by using the AES_Encryption Algorithm.
+     * Versioned records are opened with AES-GCM, legacy Base64 records are still decrypted with the old transformation.
      *
-     * @param encryptedPassword encrypted password to be decrypted
+     * @param encryptedPassword encrypted password (versioned or legacy record) to be decrypted
      * @return decrypted password as a String
      * @throws UnsupportedEncodingException The Character Encoding is not supported.
      * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
@@ -109,11 +100,428 @@ public class AES_Encryption implements AES_EncryptionInterface {
      */
 
     @RequiresApi(api = Build.VERSION_CODES.O)
-    public String decryptPassword(String encryptedPassword) throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
-        byte[] encrypted = Base64.getDecoder().decode(encryptedPassword);
-        Cipher cipher2 = Cipher.getInstance("AES");
-        cipher2.init(Cipher.DECRYPT_MODE, getSecretKeySpec());
-        byte[] cipherData2 = cipher2.doFinal(encrypted);
-        return new String(cipherData2);
+    public String decryptPassword(byte[] encryptedPassword) throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+        return decrypt(keyContext, encryptedPassword, null);
+    }
+
+    /**
+     * This method encrypts the password of an entry and binds the record to the entry: the blind index of the
+     * website name is authenticated as associated data, so the record cannot be opened as the password of another
+     * entry. The passwords of the password table are always encrypted with this method.
+     *
+     * @param decryptedPassword decrypted password to be encrypted
+     * @param websiteIndex      blind index of the website name, see blindIndex(String)
+     * @return encrypted password as a bound versioned record (see PasswordRecord)
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public byte[] encryptPassword(String decryptedPassword, String websiteIndex) throws NoSuchAlgorithmException, UnsupportedEncodingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException {
+        byte[] plainData = decryptedPassword.getBytes(StandardCharsets.UTF_8);
+        byte[] record = new byte[PasswordRecord.OVERHEAD + plainData.length];
+        keyContext.seal(ByteBuffer.wrap(plainData), associatedData(websiteIndex), ByteBuffer.wrap(record));
+        return record;
+    }
+
+    /**
+     * This method decrypts the password of an entry. A bound record is only opened if it is bound to the given
+     * blind index, records written before passwords were bound (and legacy records) are decrypted as well.
+     *
+     * @param encryptedPassword encrypted password (bound, versioned or legacy record) to be decrypted
+     * @param websiteIndex      blind index of the website name of the entry
+     * @return decrypted password as a String
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public String decryptPassword(byte[] encryptedPassword, String websiteIndex) throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+        return decrypt(keyContext, encryptedPassword, associatedData(websiteIndex));
+    }
+
+    /**
+     * This method moves the password of an entry to a new blind index, e.g. when the website name is changed:
+     * the record is opened with the old blind index and sealed again bound to the new one. The password is never
+     * turned into a String. Records which are not bound yet are bound by this method.
+     *
+     * @param encryptedPassword encrypted password bound to the old blind index (or not bound yet)
+     * @param websiteIndex      old blind index of the entry
+     * @param newWebsiteIndex   new blind index of the entry
+     * @return encrypted password bound to the new blind index
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public byte[] rebindPassword(byte[] encryptedPassword, String websiteIndex, String newWebsiteIndex) throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+        return reencrypt(keyContext, keyContext, encryptedPassword, associatedData(websiteIndex), associatedData(newWebsiteIndex));
+    }
+
+    /**
+     * This method normalizes a website name for comparisons: two names are the same website if their normalized
+     * names are equal. The blind index is computed from the normalized name, so every check whether two names are
+     * the same must use this method instead of e.g. String.equalsIgnoreCase(String).
+     *
+     * @param website website name
+     * @return website name in lower case
+     */
+
+    public static String normalizeWebsiteName(String website) {
+        return website.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * This method computes the blind index of a website name, which is stored next to the encrypted name.
+     * It allows to find an entry by its name with one indexed lookup, without decrypting any names.
+     * The name is normalized with normalizeWebsiteName(String) first, so names differing only in case get the same
+     * blind index and the unique index treats them as the same website, like a COLLATE NOCASE index on the plain text
+     * name would.
+     *
+     * @param website website name
+     * @return Base64 encoded blind index (see KeyContext.blindIndex(byte[]))
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public String blindIndex(String website) throws NoSuchAlgorithmException, InvalidKeyException {
+        return Base64.getEncoder().encodeToString(keyContext.blindIndex(normalizeWebsiteName(website).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * This method computes the integrity tag of one entry. It covers the blind index, the encrypted website name and
+     * the encrypted password together, so any change to a stored entry is detected, including passwords which have
+     * been swapped between two entries.
+     *
+     * @param websiteIndex      blind index of the website name, see blindIndex(String)
+     * @param encryptedWebsite  encrypted website name
+     * @param encryptedPassword encrypted password
+     * @return 32 byte integrity tag
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public byte[] integrityTag(String websiteIndex, byte[] encryptedWebsite, byte[] encryptedPassword) throws NoSuchAlgorithmException, InvalidKeyException {
+        return keyContext.integrityTag(websiteIndex.getBytes(StandardCharsets.UTF_8), encryptedWebsite, encryptedPassword);
+    }
+
+    /**
+     * This method encrypts a password given as char array into a caller-supplied buffer. No String and no
+     * intermediate array is created: the password is encoded with UTF-8 into a reusable per-thread buffer,
+     * which is wiped right after the encryption. The char array itself is left to the caller.
+     *
+     * @param decryptedPassword decrypted password to be encrypted
+     * @param encryptedPassword output buffer, see PasswordRecord.maxRecordLength(int) for the required size
+     * @return number of bytes written to the output buffer
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public int encryptPassword(char[] decryptedPassword, ByteBuffer encryptedPassword) throws NoSuchAlgorithmException, UnsupportedEncodingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException {
+        ByteBuffer plainData = CryptoBuffers.plainBuffer(decryptedPassword.length * 3);
+        try {
+            CryptoBuffers.encode(decryptedPassword, plainData);
+            plainData.flip();
+            return keyContext.seal(plainData, encryptedPassword);
+        } finally {
+            CryptoBuffers.wipe(plainData);
+        }
+    }
+
+    /**
+     * This method decrypts the record in the remaining bytes of the given buffer into a caller-supplied char array.
+     * The decrypted bytes only live in a reusable per-thread buffer, which is wiped right after decoding.
+     *
+     * @param encryptedPassword buffer holding the encrypted password (versioned or legacy record)
+     * @param decryptedPassword output char array, written from index 0
+     * @return number of chars written to the output array
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public int decryptPassword(ByteBuffer encryptedPassword, char[] decryptedPassword) throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+        ByteBuffer plainData = CryptoBuffers.plainBuffer(encryptedPassword.remaining());
+        try {
+            if (PasswordRecord.isLegacy(encryptedPassword)) {
+                byte[] legacyRecord = new byte[encryptedPassword.remaining()];
+                encryptedPassword.get(legacyRecord);
+                byte[] legacyPlainData = decryptLegacy(keyContext, legacyRecord);
+                plainData.put(legacyPlainData);
+                Arrays.fill(legacyPlainData, (byte) 0);
+            } else {
+                keyContext.open(encryptedPassword, plainData);
+            }
+            plainData.flip();
+            return CryptoBuffers.decode(plainData, decryptedPassword);
+        } finally {
+            CryptoBuffers.wipe(plainData);
+        }
+    }
+
+    /**
+     * This method re-encrypts a whole batch of encrypted passwords from the key of this object to the key of the
+     * given AES_Encryption object. The passwords are never turned into Strings: every worker thread decrypts into
+     * its own reusable buffer, encrypts from it and wipes it afterwards.
+     *
+     * @param encryptedPasswords passwords encrypted with the key of this object (versioned or legacy records)
+     * @param newEncryption      AES_Encryption object holding the new key
+     * @return passwords encrypted with the new key, in the same order as the given passwords
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public List<byte[]> reencryptPasswords(Collection<byte[]> encryptedPasswords, AES_Encryption newEncryption) throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+        final KeyContext oldContext = this.keyContext;
+        final KeyContext newContext = newEncryption.keyContext;
+        return BatchCrypto.transformAll(encryptedPasswords, new BatchCrypto.Transformation<byte[], byte[]>() {
+            @Override
+            public byte[] apply(byte[] encryptedPassword) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+                return reencrypt(oldContext, newContext, encryptedPassword, null, null);
+            }
+        });
+    }
+
+    /**
+     * This method works like reencryptPasswords(Collection, AES_Encryption) for the passwords of the password table:
+     * every password is opened with the blind index of its entry and sealed with the new key bound to it again.
+     * Passwords of entries without blind index are sealed without associated data.
+     *
+     * @param encryptedPasswords passwords encrypted with the key of this object (bound, versioned or legacy records)
+     * @param websiteIndices     blind indices of the entries, at the same positions as the passwords, single ones may be null
+     * @param newEncryption      AES_Encryption object holding the new key
+     * @return passwords encrypted with the new key, in the same order as the given passwords
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public List<byte[]> reencryptPasswords(final List<byte[]> encryptedPasswords, final List<String> websiteIndices, AES_Encryption newEncryption) throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+        final KeyContext oldContext = this.keyContext;
+        final KeyContext newContext = newEncryption.keyContext;
+        List<Integer> positions = new ArrayList<>(encryptedPasswords.size());
+        for (int i = 0; i < encryptedPasswords.size(); i++) {
+            positions.add(i);
+        }
+        return BatchCrypto.transformAll(positions, new BatchCrypto.Transformation<Integer, byte[]>() {
+            @Override
+            public byte[] apply(Integer position) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+                byte[] associatedData = associatedData(websiteIndices.get(position));
+                return reencrypt(oldContext, newContext, encryptedPasswords.get(position), associatedData, associatedData);
+            }
+        });
+    }
+
+    /**
+     * This method encrypts a whole batch of passwords in one call. The work is spread across a ForkJoinPool
+     * where every worker thread uses its own initialized Cipher.
+     *
+     * @param decryptedPasswords decrypted passwords to be encrypted
+     * @return encrypted passwords in the same order as the given passwords
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public List<byte[]> encryptPasswords(Collection<String> decryptedPasswords) throws NoSuchAlgorithmException, UnsupportedEncodingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException {
+        final KeyContext context = this.keyContext;
+        return BatchCrypto.transformAll(decryptedPasswords, new BatchCrypto.Transformation<String, byte[]>() {
+            @Override
+            public byte[] apply(String decryptedPassword) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+                return context.seal(decryptedPassword.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    /**
+     * This method encrypts all passwords of the given stream in one call.
+     *
+     * @param decryptedPasswords stream of decrypted passwords to be encrypted
+     * @return encrypted passwords in the encounter order of the stream
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public List<byte[]> encryptPasswords(Stream<String> decryptedPasswords) throws NoSuchAlgorithmException, UnsupportedEncodingException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException {
+        return encryptPasswords(decryptedPasswords.collect(Collectors.<String>toList()));
+    }
+
+    /**
+     * This method decrypts a whole batch of encrypted passwords in one call. The work is spread across a ForkJoinPool
+     * where every worker thread uses its own initialized Cipher.
+     *
+     * @param encryptedPasswords encrypted passwords to be decrypted
+     * @return decrypted passwords in the same order as the given passwords
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public List<String> decryptPasswords(Collection<byte[]> encryptedPasswords) throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+        final KeyContext context = this.keyContext;
+        return BatchCrypto.transformAll(encryptedPasswords, new BatchCrypto.Transformation<byte[], String>() {
+            @Override
+            public String apply(byte[] encryptedPassword) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+                return decrypt(context, encryptedPassword, null);
+            }
+        });
+    }
+
+    /**
+     * This method decrypts all encrypted passwords of the given stream in one call.
+     *
+     * @param encryptedPasswords stream of encrypted passwords to be decrypted
+     * @return decrypted passwords in the encounter order of the stream
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public List<String> decryptPasswords(Stream<byte[]> encryptedPasswords) throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+        return decryptPasswords(encryptedPasswords.collect(Collectors.<byte[]>toList()));
+    }
+
+    /**
+     * Helper method returning the associated data a password is bound to: the UTF-8 bytes of the blind index.
+     *
+     * @param websiteIndex blind index of the entry, may be null
+     * @return associated data, or null if there is no blind index
+     */
+
+    private static byte[] associatedData(String websiteIndex) {
+        return websiteIndex == null ? null : websiteIndex.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method decrypting one record with the given KeyContext, depending on its format.
+     *
+     * @param context           KeyContext to decrypt with
+     * @param encryptedPassword bound, versioned or legacy record
+     * @param associatedData    associated data a bound record has to be bound to, or null
+     * @return decrypted password as a String
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static String decrypt(KeyContext context, byte[] encryptedPassword, byte[] associatedData) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        byte[] plainData;
+        if (PasswordRecord.isLegacy(encryptedPassword)) {
+            plainData = decryptLegacy(context, encryptedPassword);
+        } else if (encryptedPassword.length < PasswordRecord.OVERHEAD) {
+            throw new IllegalBlockSizeException("Unsupported password record");
+        } else {
+            plainData = new byte[encryptedPassword.length - PasswordRecord.OVERHEAD];
+            context.open(ByteBuffer.wrap(encryptedPassword), associatedData, ByteBuffer.wrap(plainData));
+        }
+        try {
+            return new String(plainData, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(plainData, (byte) 0);
+        }
+    }
+
+    /**
+     * Helper method decrypting a legacy record: a Base64 text of the AES/ECB ciphertext, see PasswordRecord.
+     *
+     * @param context      KeyContext to decrypt with
+     * @param legacyRecord legacy record
+     * @return decrypted bytes
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private static byte[] decryptLegacy(KeyContext context, byte[] legacyRecord) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return context.decryptLegacy(Base64.getDecoder().decode(legacyRecord));
+    }
+
+    /**
+     * Helper method re-encrypting one record from the old to the new KeyContext with the per-thread plaintext buffer.
+     *
+     * @param oldContext        KeyContext the record is encrypted with
+     * @param newContext        KeyContext to encrypt with
+     * @param encryptedPassword bound, versioned or legacy record
+     * @param associatedData    associated data the record is bound to, or null
+     * @param newAssociatedData associated data the new record is bound to, or null for a record without associated data
+     * @return versioned record encrypted with the new KeyContext
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private static byte[] reencrypt(KeyContext oldContext, KeyContext newContext, byte[] encryptedPassword, byte[] associatedData,
+                                    byte[] newAssociatedData) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        ByteBuffer plainData = CryptoBuffers.plainBuffer(encryptedPassword.length);
+        try {
+            if (PasswordRecord.isLegacy(encryptedPassword)) {
+                byte[] legacyPlainData = decryptLegacy(oldContext, encryptedPassword);
+                plainData.put(legacyPlainData);
+                Arrays.fill(legacyPlainData, (byte) 0);
+            } else {
+                oldContext.open(ByteBuffer.wrap(encryptedPassword), associatedData, plainData);
+            }
+            plainData.flip();
+            byte[] record = new byte[PasswordRecord.OVERHEAD + plainData.remaining()];
+            newContext.seal(plainData, newAssociatedData, ByteBuffer.wrap(record));
+            return record;
+        } finally {
+            CryptoBuffers.wipe(plainData);
+        }
     }
 }
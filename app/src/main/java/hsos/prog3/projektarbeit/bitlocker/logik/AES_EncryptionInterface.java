@@ -1,8 +1,12 @@
 package hsos.prog3.projektarbeit.bitlocker.logik;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -17,11 +21,49 @@ import javax.crypto.NoSuchPaddingException;
  */
 
 public interface AES_EncryptionInterface {
-    void changeKeyText(String newMasterPassword);
+    KeyContext getKeyContext();
 
-    String encryptPassword(String passwort) throws NoSuchAlgorithmException, UnsupportedEncodingException,
+    byte[] encryptPassword(String passwort) throws NoSuchAlgorithmException, UnsupportedEncodingException,
             InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException;
 
-    String decryptPassword(String encryptedPassword) throws UnsupportedEncodingException, NoSuchPaddingException,
+    String decryptPassword(byte[] encryptedPassword) throws UnsupportedEncodingException, NoSuchPaddingException,
+            NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException;
+
+    byte[] encryptPassword(String passwort, String websiteIndex) throws NoSuchAlgorithmException, UnsupportedEncodingException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException;
+
+    String decryptPassword(byte[] encryptedPassword, String websiteIndex) throws UnsupportedEncodingException, NoSuchPaddingException,
+            NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException;
+
+    byte[] rebindPassword(byte[] encryptedPassword, String websiteIndex, String newWebsiteIndex) throws UnsupportedEncodingException,
+            NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException;
+
+    String blindIndex(String website) throws NoSuchAlgorithmException, InvalidKeyException;
+
+    byte[] integrityTag(String websiteIndex, byte[] encryptedWebsite, byte[] encryptedPassword) throws NoSuchAlgorithmException, InvalidKeyException;
+
+    int encryptPassword(char[] decryptedPassword, ByteBuffer encryptedPassword) throws NoSuchAlgorithmException, UnsupportedEncodingException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException;
+
+    int decryptPassword(ByteBuffer encryptedPassword, char[] decryptedPassword) throws UnsupportedEncodingException, NoSuchPaddingException,
+            NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException;
+
+    List<byte[]> reencryptPasswords(Collection<byte[]> encryptedPasswords, AES_Encryption newEncryption) throws UnsupportedEncodingException,
+            NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException;
+
+    List<byte[]> reencryptPasswords(List<byte[]> encryptedPasswords, List<String> websiteIndices, AES_Encryption newEncryption)
+            throws UnsupportedEncodingException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException,
+            BadPaddingException, InvalidKeyException;
+
+    List<byte[]> encryptPasswords(Collection<String> decryptedPasswords) throws NoSuchAlgorithmException, UnsupportedEncodingException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException;
+
+    List<byte[]> encryptPasswords(Stream<String> decryptedPasswords) throws NoSuchAlgorithmException, UnsupportedEncodingException,
+            InvalidKeyException, IllegalBlockSizeException, BadPaddingException, NoSuchPaddingException;
+
+    List<String> decryptPasswords(Collection<byte[]> encryptedPasswords) throws UnsupportedEncodingException, NoSuchPaddingException,
+            NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException;
+
+    List<String> decryptPasswords(Stream<byte[]> encryptedPasswords) throws UnsupportedEncodingException, NoSuchPaddingException,
             NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException;
 }
@@ -0,0 +1,208 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * The BatchCrypto class spreads the encryption or decryption of many passwords across a ForkJoinPool.
+ * Every worker thread of the pool uses its own initialized Cipher from the KeyContext, so the setup costs
+ * are paid once per worker and batch instead of once per password.
+ *
+ * @author Andreas Morasch
+ * @see AES_Encryption
+ * @see KeyContext
+ */
+
+final class BatchCrypto {
+
+    // Unterhalb dieser Anzahl lohnt sich das Aufteilen auf mehrere Threads nicht
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+
+    private static volatile ForkJoinPool pool;
+
+    /**
+     * The transformation applied to every single element of a batch,
+     * e.g. the encryption or decryption of one password.
+     */
+
+    interface Transformation<I, O> {
+        O apply(I input) throws NoSuchPaddingException, IllegalBlockSizeException,
+                NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
+    }
+
+    /**
+     * Private constructor, the class only offers static methods.
+     */
+
+    private BatchCrypto() {
+    }
+
+    /**
+     * This method applies the transformation to every element of the given collection and returns the
+     * results in the same order. Small batches are processed on the calling thread, larger ones are split
+     * across the worker threads of the shared ForkJoinPool.
+     *
+     * @param inputs         elements to be transformed
+     * @param transformation transformation to apply to every element
+     * @return transformed elements in the order of the inputs
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @SuppressWarnings("unchecked")
+    static <I, O> List<O> transformAll(Collection<I> inputs, Transformation<I, O> transformation)
+            throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException,
+            BadPaddingException, InvalidKeyException {
+
+        Object[] source = inputs.toArray();
+        Object[] target = new Object[source.length];
+
+        if (source.length <= SEQUENTIAL_THRESHOLD) {
+            for (int i = 0; i < source.length; i++) {
+                target[i] = transformation.apply((I) source[i]);
+            }
+            return new ArrayList<>((List<O>) (List<?>) Arrays.asList(target));
+        }
+
+        try {
+            getPool().invoke(new TransformTask<>(source, target, 0, source.length, transformation));
+        } catch (CryptoFailure failure) {
+            failure.rethrow();
+        }
+        return new ArrayList<>((List<O>) (List<?>) Arrays.asList(target));
+    }
+
+    /**
+     * This method returns the shared ForkJoinPool and creates it on first use.
+     * The pool has one worker per available processor.
+     *
+     * @return shared ForkJoinPool for batch operations
+     */
+
+    static ForkJoinPool getPool() {
+        ForkJoinPool result = pool;
+        if (result == null) {
+            synchronized (BatchCrypto.class) {
+                result = pool;
+                if (result == null) {
+                    result = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                    pool = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * RecursiveAction splitting a range of the input array in halves until it is small enough
+     * to be transformed sequentially by one worker.
+     */
+
+    private static final class TransformTask<I, O> extends RecursiveAction {
+
+        private final Object[] source;
+        private final Object[] target;
+        private final int from;
+        private final int to;
+        private final Transformation<I, O> transformation;
+
+        /**
+         * Constructor for the TransformTask class.
+         *
+         * @param source         input array
+         * @param target         output array, written at the same indices as the input
+         * @param from           first index of the range (inclusive)
+         * @param to             last index of the range (exclusive)
+         * @param transformation transformation to apply to every element
+         */
+
+        private TransformTask(Object[] source, Object[] target, int from, int to, Transformation<I, O> transformation) {
+            this.source = source;
+            this.target = target;
+            this.from = from;
+            this.to = to;
+            this.transformation = transformation;
+        }
+
+        /**
+         * Splits the range or transforms it directly if it is small enough.
+         */
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                try {
+                    for (int i = from; i < to; i++) {
+                        target[i] = transformation.apply((I) source[i]);
+                    }
+                } catch (NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException
+                        | BadPaddingException | InvalidKeyException e) {
+                    throw new CryptoFailure(e);
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new TransformTask<>(source, target, from, middle, transformation),
+                    new TransformTask<>(source, target, middle, to, transformation));
+        }
+    }
+
+    /**
+     * Unchecked wrapper to carry a checked crypto exception out of a ForkJoin task.
+     */
+
+    private static final class CryptoFailure extends RuntimeException {
+
+        /**
+         * Constructor for the CryptoFailure class.
+         *
+         * @param cause checked crypto exception thrown by a worker
+         */
+
+        private CryptoFailure(Exception cause) {
+            super(cause);
+        }
+
+        /**
+         * Rethrows the wrapped checked exception with its original type.
+         *
+         * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+         * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+         * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+         * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+         * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+         */
+
+        private void rethrow() throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException,
+                BadPaddingException, InvalidKeyException {
+            Throwable cause = getCause();
+            if (cause instanceof NoSuchPaddingException) {
+                throw (NoSuchPaddingException) cause;
+            } else if (cause instanceof IllegalBlockSizeException) {
+                throw (IllegalBlockSizeException) cause;
+            } else if (cause instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) cause;
+            } else if (cause instanceof BadPaddingException) {
+                throw (BadPaddingException) cause;
+            } else if (cause instanceof InvalidKeyException) {
+                throw (InvalidKeyException) cause;
+            }
+            throw this;
+        }
+    }
+}
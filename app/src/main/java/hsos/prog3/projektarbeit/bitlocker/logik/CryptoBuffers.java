@@ -0,0 +1,121 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The CryptoBuffers class holds reusable per-thread buffers and UTF-8 coders for the char[]/ByteBuffer methods
+ * of AES_Encryption. Plaintext only ever lives in these buffers, which are wiped after every use, so no copies
+ * of decrypted passwords are left behind on the heap for the garbage collector.
+ *
+ * @author Andreas Morasch
+ * @see AES_Encryption
+ */
+
+final class CryptoBuffers {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final ThreadLocal<ByteBuffer> PLAIN_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+    };
+
+    private static final ThreadLocal<CharsetEncoder> ENCODER = new ThreadLocal<CharsetEncoder>() {
+        @Override
+        protected CharsetEncoder initialValue() {
+            // Wie String.getBytes(): ungültige Zeichen werden ersetzt statt eine Exception zu werfen
+            return StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    };
+
+    private static final ThreadLocal<CharsetDecoder> DECODER = new ThreadLocal<CharsetDecoder>() {
+        @Override
+        protected CharsetDecoder initialValue() {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    };
+
+    /**
+     * Private constructor, the class only offers static methods.
+     */
+
+    private CryptoBuffers() {
+    }
+
+    /**
+     * This method returns the cleared plaintext buffer of the calling thread with at least the given capacity.
+     * If the buffer is too small, it is wiped and replaced by a larger one.
+     *
+     * @param capacity required capacity in bytes
+     * @return cleared plaintext buffer of the calling thread
+     */
+
+    static ByteBuffer plainBuffer(int capacity) {
+        ByteBuffer buffer = PLAIN_BUFFER.get();
+        if (buffer.capacity() < capacity) {
+            wipe(buffer);
+            buffer = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+            PLAIN_BUFFER.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * This method encodes the given chars with UTF-8 into the given buffer, without creating a String.
+     *
+     * @param chars  chars to be encoded
+     * @param target buffer with at least 3 bytes per char remaining
+     */
+
+    static void encode(char[] chars, ByteBuffer target) {
+        CharsetEncoder encoder = ENCODER.get();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(chars), target, true);
+        encoder.flush(target);
+    }
+
+    /**
+     * This method decodes the remaining UTF-8 bytes of the given buffer into the given char array, without creating a String.
+     *
+     * @param source buffer holding UTF-8 bytes
+     * @param target char array to write to, starting at index 0
+     * @return number of chars written
+     * @throws BufferOverflowException if the char array is too small
+     */
+
+    static int decode(ByteBuffer source, char[] target) {
+        CharsetDecoder decoder = DECODER.get();
+        CharBuffer chars = CharBuffer.wrap(target);
+        decoder.reset();
+        if (decoder.decode(source, chars, true).isOverflow() || decoder.flush(chars).isOverflow()) {
+            Arrays.fill(target, '\0');
+            throw new BufferOverflowException();
+        }
+        return chars.position();
+    }
+
+    /**
+     * This method overwrites the whole content of the given buffer with zeros.
+     *
+     * @param buffer heap buffer to be wiped
+     */
+
+    static void wipe(ByteBuffer buffer) {
+        Arrays.fill(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.capacity(), (byte) 0);
+        buffer.clear();
+    }
+}
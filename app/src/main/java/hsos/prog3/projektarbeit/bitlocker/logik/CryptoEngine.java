@@ -0,0 +1,255 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * The CryptoEngine class is the base class of the interchangeable implementations used to seal and open password
+ * records. All engines write records in the format described by PasswordRecord, the version byte tells which
+ * construction has been used. Engines with the same version produce compatible records, they only differ in the
+ * JCA provider doing the work, so a record can always be opened regardless of the engine currently selected.
+ * Every engine keeps one uninitialized Cipher per thread, which is initialized with key and IV on every call.
+ *
+ * @author Andreas Morasch
+ * @see CryptoEngines
+ */
+
+public abstract class CryptoEngine {
+
+    private final String name;
+    private final byte recordVersion;
+    private final Provider provider;
+
+    /**
+     * Constructor for the CryptoEngine class.
+     *
+     * @param name          unique name of the engine, stored in the vault metadata
+     * @param recordVersion version byte of the records written by this engine
+     * @param provider      JCA provider doing the work
+     */
+
+    CryptoEngine(String name, byte recordVersion, Provider provider) {
+        this.name = name;
+        this.recordVersion = recordVersion;
+        this.provider = provider;
+    }
+
+    /**
+     * Getter for the unique name of the engine.
+     *
+     * @return name of the engine
+     */
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter for the version byte of the records written by this engine.
+     *
+     * @return record version
+     */
+
+    public byte getRecordVersion() {
+        return recordVersion;
+    }
+
+    /**
+     * This method checks whether the engine can be used on this device, i.e. whether its provider offers all
+     * required algorithms.
+     *
+     * @return true if the engine is available, false if not
+     */
+
+    public abstract boolean isAvailable();
+
+    /**
+     * This method encrypts the remaining bytes of the given buffer and writes a record without associated data
+     * into the output buffer, see seal(KeyContext, ByteBuffer, byte[], ByteBuffer).
+     *
+     * @param key               KeyContext holding the key
+     * @param plainData         buffer holding the data to be encrypted
+     * @param encryptedPassword output buffer with at least PasswordRecord.OVERHEAD + plainData.remaining() bytes remaining
+     * @return number of bytes written to the output buffer
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    final int seal(KeyContext key, ByteBuffer plainData, ByteBuffer encryptedPassword) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return seal(key, plainData, null, encryptedPassword);
+    }
+
+    /**
+     * This method encrypts the remaining bytes of the given buffer and writes the record into the output buffer.
+     * If associated data is given, it is authenticated together with the record, which is marked as bound
+     * (see PasswordRecord.BOUND_FLAG) and can only be opened with the same associated data.
+     *
+     * @param key               KeyContext holding the key
+     * @param plainData         buffer holding the data to be encrypted
+     * @param associatedData    data the record is bound to, e.g. the blind index of the entry, or null
+     * @param encryptedPassword output buffer with at least PasswordRecord.OVERHEAD + plainData.remaining() bytes remaining
+     * @return number of bytes written to the output buffer
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    abstract int seal(KeyContext key, ByteBuffer plainData, byte[] associatedData, ByteBuffer encryptedPassword) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
+
+    /**
+     * This method opens a record without associated data, see open(KeyContext, ByteBuffer, byte[], ByteBuffer).
+     *
+     * @param key               KeyContext holding the key
+     * @param encryptedPassword buffer holding the record
+     * @param plainData         output buffer with at least encryptedPassword.remaining() - PasswordRecord.OVERHEAD bytes remaining
+     * @return number of bytes written to the output buffer
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    final int open(KeyContext key, ByteBuffer encryptedPassword, ByteBuffer plainData) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return open(key, encryptedPassword, null, plainData);
+    }
+
+    /**
+     * This method checks the tag of the record in the remaining bytes of the given buffer and decrypts it into the output buffer.
+     * A bound record is checked together with the given associated data, a record without associated data ignores it.
+     * A wrong key, a modified record or a bound record opened with other associated data is reported as
+     * AEADBadTagException (a BadPaddingException).
+     *
+     * @param key               KeyContext holding the key
+     * @param encryptedPassword buffer holding the record
+     * @param associatedData    data a bound record has to be bound to, or null
+     * @param plainData         output buffer with at least encryptedPassword.remaining() - PasswordRecord.OVERHEAD bytes remaining
+     * @return number of bytes written to the output buffer
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    abstract int open(KeyContext key, ByteBuffer encryptedPassword, byte[] associatedData, ByteBuffer plainData) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException;
+
+    /**
+     * This method checks whether a record with the given version byte can be opened with the given associated data.
+     * A bound record must not be opened without associated data, otherwise it would not be bound to anything.
+     *
+     * @param version        version byte of the record
+     * @param associatedData data the record has to be bound to, or null
+     * @throws AEADBadTagException if the record is bound but no associated data is given
+     */
+
+    static void checkAssociatedData(byte version, byte[] associatedData) throws AEADBadTagException {
+        if ((version & PasswordRecord.BOUND_FLAG) != 0 && associatedData == null) {
+            throw new AEADBadTagException("Password record is bound to an entry");
+        }
+    }
+
+    /**
+     * This method creates a new Cipher of this engine's provider.
+     *
+     * @param transformation transformation of the Cipher
+     * @return uninitialized Cipher
+     * @throws NoSuchPaddingException   This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     */
+
+    Cipher newCipher(String transformation) throws NoSuchPaddingException, NoSuchAlgorithmException {
+        return Cipher.getInstance(transformation, provider);
+    }
+
+    /**
+     * This method creates a new Mac of this engine's provider, or of the default provider if it does not offer the algorithm.
+     *
+     * @param algorithm MAC algorithm
+     * @return uninitialized Mac
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     */
+
+    Mac newMac(String algorithm) throws NoSuchAlgorithmException {
+        try {
+            return Mac.getInstance(algorithm, provider);
+        } catch (NoSuchAlgorithmException e) {
+            return Mac.getInstance(algorithm);
+        }
+    }
+
+    /**
+     * This method returns the value of the given ThreadLocal for the calling thread. Exceptions thrown while creating
+     * the value are tunneled through an IllegalStateException, since ThreadLocal.initialValue() cannot throw checked
+     * exceptions, and unwrapped here.
+     *
+     * @param threadLocal ThreadLocal holding e.g. the Cipher of the calling thread
+     * @param <T>         type of the value
+     * @return value of the calling thread
+     * @throws NoSuchPaddingException   This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    static <T> T getPerThread(ThreadLocal<T> threadLocal) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException {
+        try {
+            return threadLocal.get();
+        } catch (IllegalStateException e) {
+            threadLocal.remove();
+            if (e.getCause() instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) e.getCause();
+            } else if (e.getCause() instanceof NoSuchPaddingException) {
+                throw (NoSuchPaddingException) e.getCause();
+            } else if (e.getCause() instanceof InvalidKeyException) {
+                throw (InvalidKeyException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * This method checks whether the given transformation can be created with this engine's provider.
+     *
+     * @param transformation transformation to check
+     * @return true if the provider offers the transformation
+     */
+
+    boolean supports(String transformation) {
+        try {
+            newCipher(transformation);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the name of the engine.
+     *
+     * @return name of the engine
+     */
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,203 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The CryptoEngines class is the registry of all crypto engines available on this device. For every installed JCA
+ * provider offering AES-GCM or AES-CTR one engine is registered. On current Android releases that is only the native
+ * AndroidOpenSSL (Conscrypt) provider, since BouncyCastle offers neither AES/GCM nor AES/CTR from Android P on, so
+ * there is no second provider to fall back to and the choice is between the GCM and the CTR-HMAC construction.
+ * Which one is the fastest depends on the device, so benchmark() measures all of them and the result is stored in
+ * the vault metadata by the DatabaseHelper.
+ * Records can always be opened, no matter which engine is selected, since every record names its version.
+ *
+ * @author Andreas Morasch
+ * @see CryptoEngine
+ */
+
+public final class CryptoEngines {
+
+    private static final int BENCHMARK_ROUNDS = 512;
+    private static final int BENCHMARK_WARMUP_ROUNDS = 128;
+    private static final int BENCHMARK_PLAIN_LENGTH = 32;
+
+    private static final List<CryptoEngine> ENGINES = Collections.unmodifiableList(createEngines());
+
+    private static volatile CryptoEngine selected = ENGINES.get(0);
+
+    /**
+     * Private constructor, the class only offers static methods.
+     */
+
+    private CryptoEngines() {
+    }
+
+    /**
+     * Getter for all engines available on this device. The first one is the default engine used until an engine is selected.
+     *
+     * @return unmodifiable list of the available engines
+     */
+
+    public static List<CryptoEngine> getEngines() {
+        return ENGINES;
+    }
+
+    /**
+     * Getter for the engine used to seal new records.
+     *
+     * @return selected engine
+     */
+
+    public static CryptoEngine getSelected() {
+        return selected;
+    }
+
+    /**
+     * Setter for the engine used to seal new records.
+     *
+     * @param engine engine to be selected
+     */
+
+    public static void setSelected(CryptoEngine engine) {
+        selected = engine;
+    }
+
+    /**
+     * This method returns the available engine with the given name.
+     *
+     * @param name name of the engine, see CryptoEngine.getName()
+     * @return engine or null if no engine with this name is available on this device
+     */
+
+    public static CryptoEngine forName(String name) {
+        for (CryptoEngine engine : ENGINES) {
+            if (engine.getName().equals(name)) {
+                return engine;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method returns an engine able to open records of the given version. The selected engine is
+     * preferred, so records written by it are also read by it. Bound records are opened by the engine of their
+     * construction, see PasswordRecord.getConstruction(byte).
+     *
+     * @param version version byte of the record
+     * @return engine or null if the version is not supported
+     */
+
+    static CryptoEngine forVersion(byte version) {
+        byte construction = PasswordRecord.getConstruction(version);
+        CryptoEngine engine = selected;
+        if (engine.getRecordVersion() == construction) {
+            return engine;
+        }
+        for (CryptoEngine candidate : ENGINES) {
+            if (candidate.getRecordVersion() == construction) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method measures how long every available engine takes to seal and open a short password with a random
+     * key and returns the fastest one. Every engine gets some warm-up rounds first, so class loading and JIT do
+     * not count. Engines failing the round trip are skipped. The selected engine is not changed.
+     *
+     * @return fastest engine
+     */
+
+    public static CryptoEngine benchmark() {
+        KeyContext key = KeyContext.generateDataKey();
+        byte[] plainData = new byte[BENCHMARK_PLAIN_LENGTH];
+        new SecureRandom().nextBytes(plainData);
+        ByteBuffer record = ByteBuffer.allocate(PasswordRecord.OVERHEAD + BENCHMARK_PLAIN_LENGTH);
+        ByteBuffer opened = ByteBuffer.allocate(BENCHMARK_PLAIN_LENGTH);
+
+        CryptoEngine fastest = null;
+        long fastestNanos = Long.MAX_VALUE;
+        for (CryptoEngine engine : ENGINES) {
+            try {
+                run(engine, key, plainData, record, opened, BENCHMARK_WARMUP_ROUNDS);
+                long start = System.nanoTime();
+                run(engine, key, plainData, record, opened, BENCHMARK_ROUNDS);
+                long elapsedNanos = System.nanoTime() - start;
+                if (elapsedNanos < fastestNanos) {
+                    fastest = engine;
+                    fastestNanos = elapsedNanos;
+                }
+            } catch (GeneralSecurityException | RuntimeException e) {
+                // Engine ist auf diesem Gerät nicht nutzbar und wird übersprungen
+                Log.w("CryptoEngines: ", "Engine " + engine + " skipped", e);
+            }
+        }
+        return fastest != null ? fastest : ENGINES.get(0);
+    }
+
+    /**
+     * Helper method sealing and opening the given data with one engine for the given number of rounds.
+     *
+     * @param engine    engine to be measured
+     * @param key       KeyContext holding a random key
+     * @param plainData data to be sealed
+     * @param record    reusable buffer for the record
+     * @param opened    reusable buffer for the opened data
+     * @param rounds    number of round trips
+     * @throws GeneralSecurityException if the engine fails or the round trip does not return the original data
+     */
+
+    private static void run(CryptoEngine engine, KeyContext key, byte[] plainData, ByteBuffer record, ByteBuffer opened,
+                            int rounds) throws GeneralSecurityException {
+        for (int i = 0; i < rounds; i++) {
+            record.clear();
+            opened.clear();
+            engine.seal(key, ByteBuffer.wrap(plainData), record);
+            record.flip();
+            engine.open(key, record, opened);
+            opened.flip();
+            if (!opened.equals(ByteBuffer.wrap(plainData))) {
+                throw new GeneralSecurityException("Round trip failed: " + engine.getName());
+            }
+        }
+    }
+
+    /**
+     * Helper method creating one GCM and one CTR-HMAC engine for every installed provider offering the algorithm.
+     * The engines of the default provider come first.
+     *
+     * @return list of the available engines, never empty
+     */
+
+    private static List<CryptoEngine> createEngines() {
+        List<CryptoEngine> gcmEngines = new ArrayList<>();
+        List<CryptoEngine> ctrEngines = new ArrayList<>();
+        for (Provider provider : Security.getProviders()) {
+            CryptoEngine gcm = new GcmEngine(provider);
+            if (gcm.isAvailable()) {
+                gcmEngines.add(gcm);
+            }
+            CryptoEngine ctr = new CtrHmacEngine(provider);
+            if (ctr.isAvailable()) {
+                ctrEngines.add(ctr);
+            }
+        }
+        if (gcmEngines.isEmpty()) {
+            // Ohne AES-GCM könnten bestehende Records nicht mehr gelesen werden
+            throw new IllegalStateException("No provider offers " + GcmEngine.TRANSFORMATION);
+        }
+        List<CryptoEngine> engines = new ArrayList<>(gcmEngines);
+        engines.addAll(ctrEngines);
+        return engines;
+    }
+}
@@ -0,0 +1,209 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * The CtrHmacEngine class seals password records with AES-CTR and HMAC-SHA256 (encrypt-then-MAC) of one JCA provider.
+ * On devices without AES instructions a table-based AES-CTR together with SHA-256 can be faster than GMAC.
+ * The record has the same size as a GCM record:
+ * [0x02] [nonce (12)] [ciphertext (n)] [HMAC-SHA256 over version, nonce and ciphertext, truncated (16)]
+ * Encryption and MAC use two different keys, derived from the key of the KeyContext.
+ * Bound records have the version 0x12, their MAC also covers the associated data followed by its length (8 bytes).
+ *
+ * @author Andreas Morasch
+ * @see CryptoEngine
+ */
+
+final class CtrHmacEngine extends CryptoEngine {
+
+    static final String TRANSFORMATION = "AES/CTR/NoPadding";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String ENCRYPTION_KEY_LABEL = "AES-CTR-HMAC encryption";
+    private static final String MAC_KEY_LABEL = "AES-CTR-HMAC authentication";
+    private static final int COUNTER_BLOCK_LENGTH = 16;
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private final ThreadLocal<Cipher> cipher = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return newCipher(TRANSFORMATION);
+            } catch (NoSuchPaddingException | NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return newMac(MAC_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * Constructor for the CtrHmacEngine class.
+     *
+     * @param provider JCA provider doing the work
+     */
+
+    CtrHmacEngine(Provider provider) {
+        super("AES-CTR-HMAC/" + provider.getName(), PasswordRecord.VERSION_AES_CTR_HMAC, provider);
+    }
+
+    /**
+     * This method checks whether the provider offers AES-CTR.
+     *
+     * @return true if the engine is available, false if not
+     */
+
+    @Override
+    public boolean isAvailable() {
+        return supports(TRANSFORMATION);
+    }
+
+    /**
+     * Encrypts the remaining bytes of the given buffer with a fresh random nonce and appends the MAC, see CryptoEngine.
+     */
+
+    @Override
+    int seal(KeyContext key, ByteBuffer plainData, byte[] associatedData, ByteBuffer encryptedPassword) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        int length = PasswordRecord.OVERHEAD + plainData.remaining();
+        if (encryptedPassword.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        int start = encryptedPassword.position();
+        byte[] nonce = new byte[PasswordRecord.IV_LENGTH];
+        SECURE_RANDOM.nextBytes(nonce);
+        encryptedPassword.put(associatedData == null ? PasswordRecord.VERSION_AES_CTR_HMAC : PasswordRecord.VERSION_AES_CTR_HMAC_BOUND).put(nonce);
+
+        Cipher ctr = init(key, Cipher.ENCRYPT_MODE, nonce);
+        try {
+            ctr.doFinal(plainData, encryptedPassword);
+        } catch (ShortBufferException e) {
+            // Die Größe des Ausgabepuffers wurde oben bereits geprüft
+            throw new IllegalStateException(e);
+        }
+
+        ByteBuffer authenticated = encryptedPassword.duplicate();
+        authenticated.limit(encryptedPassword.position());
+        authenticated.position(start);
+        encryptedPassword.put(computeTag(key, authenticated, associatedData), 0, PasswordRecord.TAG_LENGTH);
+        return length;
+    }
+
+    /**
+     * Checks the MAC of the record in constant time first and only then decrypts it, see CryptoEngine.
+     */
+
+    @Override
+    int open(KeyContext key, ByteBuffer encryptedPassword, byte[] associatedData, ByteBuffer plainData) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        int start = encryptedPassword.position();
+        int end = encryptedPassword.limit();
+        int length = encryptedPassword.remaining() - PasswordRecord.OVERHEAD;
+        byte version = length < 0 ? 0 : encryptedPassword.get(start);
+        if (length < 0 || PasswordRecord.getConstruction(version) != PasswordRecord.VERSION_AES_CTR_HMAC) {
+            throw new IllegalBlockSizeException("Unsupported password record");
+        }
+        if (plainData.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        checkAssociatedData(version, associatedData);
+
+        ByteBuffer authenticated = encryptedPassword.duplicate();
+        authenticated.limit(end - PasswordRecord.TAG_LENGTH);
+        // Records ohne BOUND_FLAG wurden ohne zugeordnete Daten authentifiziert
+        byte[] expectedTag = Arrays.copyOf(computeTag(key, authenticated,
+                version == PasswordRecord.VERSION_AES_CTR_HMAC_BOUND ? associatedData : null), PasswordRecord.TAG_LENGTH);
+        byte[] tag = new byte[PasswordRecord.TAG_LENGTH];
+        encryptedPassword.position(end - PasswordRecord.TAG_LENGTH);
+        encryptedPassword.get(tag);
+        if (!MessageDigest.isEqual(expectedTag, tag)) {
+            throw new AEADBadTagException("Tag mismatch");
+        }
+
+        byte[] nonce = new byte[PasswordRecord.IV_LENGTH];
+        ByteBuffer ciphertext = encryptedPassword.duplicate();
+        ciphertext.limit(end - PasswordRecord.TAG_LENGTH);
+        ciphertext.position(start + PasswordRecord.HEADER_LENGTH);
+        ciphertext.get(nonce);
+
+        Cipher ctr = init(key, Cipher.DECRYPT_MODE, nonce);
+        try {
+            return ctr.doFinal(ciphertext, plainData);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Helper method initializing the Cipher of the calling thread with the encryption key and the counter block.
+     *
+     * @param key   KeyContext holding the key
+     * @param mode  Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param nonce 12 byte nonce, the remaining 4 bytes of the counter block start at zero
+     * @return initialized Cipher of the calling thread
+     * @throws NoSuchPaddingException   This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private Cipher init(KeyContext key, int mode, byte[] nonce) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException {
+        Cipher ctr = getPerThread(cipher);
+        try {
+            ctr.init(mode, key.getSubKey(ENCRYPTION_KEY_LABEL, "AES"), new IvParameterSpec(Arrays.copyOf(nonce, COUNTER_BLOCK_LENGTH)));
+        } catch (InvalidAlgorithmParameterException e) {
+            // Der Zählerblock ist immer 16 Bytes lang und damit gültig
+            throw new IllegalStateException(e);
+        }
+        return ctr;
+    }
+
+    /**
+     * Helper method computing the HMAC-SHA256 of the given bytes with the MAC key. The associated data of a bound
+     * record is appended together with its length, so no bytes can be moved between record and associated data.
+     *
+     * @param key            KeyContext holding the key
+     * @param authenticated  bytes to authenticate
+     * @param associatedData associated data of a bound record, or null
+     * @return full 32 byte HMAC
+     * @throws NoSuchPaddingException   This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private byte[] computeTag(KeyContext key, ByteBuffer authenticated, byte[] associatedData) throws NoSuchPaddingException,
+            NoSuchAlgorithmException, InvalidKeyException {
+        Mac hmac = getPerThread(mac);
+        hmac.init(key.getSubKey(MAC_KEY_LABEL, MAC_ALGORITHM));
+        hmac.update(authenticated);
+        if (associatedData != null) {
+            hmac.update(associatedData);
+            hmac.update(ByteBuffer.allocate(8).putLong(associatedData.length).array());
+        }
+        return hmac.doFinal();
+    }
+}
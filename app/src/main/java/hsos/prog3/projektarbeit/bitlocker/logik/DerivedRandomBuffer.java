@@ -0,0 +1,74 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+
+/**
+ * The DerivedRandomBuffer class replaces the SecureRandom of a RandomBuffer by a deterministic byte stream, so the
+ * PasswordGenerator computes the same password for the same input every time. The stream is a sequence of
+ * HMAC-SHA256 blocks keyed with a sub key of the data key:
+ * block i = HMAC(key, [length of website (4)] [website (UTF-8)] [counter (4)] [i (4)])
+ * Without the data key the stream cannot be predicted, and passwords of different websites or counters are
+ * independent of each other.
+ *
+ * @author Andreas Morasch
+ * @see PasswordGenerator#derivePassword(KeyContext, String, int, PasswordPolicy)
+ */
+
+final class DerivedRandomBuffer extends RandomBuffer {
+
+    private static final String SITE_PASSWORD_LABEL = "site password";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private final Mac mac;
+    private final byte[] input;
+    private final byte[] block;
+    private int blockIndex;
+
+    /**
+     * Constructor for the DerivedRandomBuffer class.
+     *
+     * @param keyContext KeyContext holding the data key
+     * @param website    normalized website name
+     * @param counter    counter of the website, changing it yields a new password
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    DerivedRandomBuffer(KeyContext keyContext, String website, int counter) throws NoSuchAlgorithmException, InvalidKeyException {
+        super((SecureRandom) null);
+        this.mac = Mac.getInstance(MAC_ALGORITHM);
+        this.mac.init(keyContext.getSubKey(SITE_PASSWORD_LABEL, MAC_ALGORITHM));
+        byte[] websiteBytes = website.getBytes(StandardCharsets.UTF_8);
+        this.input = ByteBuffer.allocate(4 + websiteBytes.length + 4)
+                .putInt(websiteBytes.length).put(websiteBytes).putInt(counter).array();
+        this.block = new byte[mac.getMacLength()];
+    }
+
+    /**
+     * Fills the buffer with the next HMAC blocks of the stream, see RandomBuffer.
+     */
+
+    @Override
+    void nextBlock(byte[] buffer) {
+        for (int offset = 0; offset < buffer.length; offset += block.length) {
+            mac.update(input);
+            mac.update(ByteBuffer.allocate(4).putInt(blockIndex++).array());
+            try {
+                mac.doFinal(block, 0);
+            } catch (ShortBufferException e) {
+                // block hat immer die Länge des MAC
+                throw new IllegalStateException(e);
+            }
+            System.arraycopy(block, 0, buffer, offset, Math.min(block.length, buffer.length - offset));
+        }
+        Arrays.fill(block, (byte) 0);
+    }
+}
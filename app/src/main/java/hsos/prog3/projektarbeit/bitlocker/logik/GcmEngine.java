@@ -0,0 +1,145 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.SecureRandom;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * The GcmEngine class seals password records with AES-GCM of one JCA provider:
+ * [0x01] [IV (12)] [ciphertext + GCM tag (n + 16)]
+ * Bound records have the version 0x11, their associated data is passed to GCM as AAD.
+ *
+ * @author Andreas Morasch
+ * @see CryptoEngine
+ */
+
+final class GcmEngine extends CryptoEngine {
+
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private final ThreadLocal<Cipher> cipher = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return newCipher(TRANSFORMATION);
+            } catch (NoSuchPaddingException | NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * Constructor for the GcmEngine class.
+     *
+     * @param provider JCA provider doing the work
+     */
+
+    GcmEngine(Provider provider) {
+        super("AES-GCM/" + provider.getName(), PasswordRecord.VERSION_AES_GCM, provider);
+    }
+
+    /**
+     * This method checks whether the provider offers AES-GCM.
+     *
+     * @return true if the engine is available, false if not
+     */
+
+    @Override
+    public boolean isAvailable() {
+        return supports(TRANSFORMATION);
+    }
+
+    /**
+     * Seals the remaining bytes of the given buffer with a fresh random IV, see CryptoEngine.
+     */
+
+    @Override
+    int seal(KeyContext key, ByteBuffer plainData, byte[] associatedData, ByteBuffer encryptedPassword) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        int length = PasswordRecord.OVERHEAD + plainData.remaining();
+        if (encryptedPassword.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        byte[] iv = new byte[PasswordRecord.IV_LENGTH];
+        SECURE_RANDOM.nextBytes(iv);
+        encryptedPassword.put(associatedData == null ? PasswordRecord.VERSION_AES_GCM : PasswordRecord.VERSION_AES_GCM_BOUND).put(iv);
+
+        Cipher gcm = init(key, Cipher.ENCRYPT_MODE, iv, associatedData);
+        try {
+            gcm.doFinal(plainData, encryptedPassword);
+        } catch (ShortBufferException e) {
+            // Die Größe des Ausgabepuffers wurde oben bereits geprüft
+            throw new IllegalStateException(e);
+        }
+        return length;
+    }
+
+    /**
+     * Checks the GCM tag of the record and decrypts it, see CryptoEngine.
+     */
+
+    @Override
+    int open(KeyContext key, ByteBuffer encryptedPassword, byte[] associatedData, ByteBuffer plainData) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        int length = encryptedPassword.remaining() - PasswordRecord.OVERHEAD;
+        byte version = length < 0 ? 0 : encryptedPassword.get(encryptedPassword.position());
+        if (length < 0 || PasswordRecord.getConstruction(version) != PasswordRecord.VERSION_AES_GCM) {
+            throw new IllegalBlockSizeException("Unsupported password record");
+        }
+        if (plainData.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        checkAssociatedData(version, associatedData);
+        byte[] iv = new byte[PasswordRecord.IV_LENGTH];
+        encryptedPassword.get();
+        encryptedPassword.get(iv);
+
+        // Records ohne BOUND_FLAG wurden ohne AAD versiegelt
+        Cipher gcm = init(key, Cipher.DECRYPT_MODE, iv, version == PasswordRecord.VERSION_AES_GCM_BOUND ? associatedData : null);
+        try {
+            return gcm.doFinal(encryptedPassword, plainData);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Helper method initializing the Cipher of the calling thread with key, IV and associated data.
+     *
+     * @param key            KeyContext holding the key
+     * @param mode           Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+     * @param iv             12 byte IV
+     * @param associatedData AAD of a bound record, or null
+     * @return initialized Cipher of the calling thread
+     * @throws NoSuchPaddingException   This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private Cipher init(KeyContext key, int mode, byte[] iv, byte[] associatedData) throws NoSuchPaddingException, NoSuchAlgorithmException,
+            InvalidKeyException {
+        Cipher gcm = getPerThread(cipher);
+        try {
+            gcm.init(mode, key.getSecretKeySpec(), new GCMParameterSpec(PasswordRecord.TAG_LENGTH * 8, iv));
+        } catch (InvalidAlgorithmParameterException e) {
+            // Tag-Länge und IV sind fest vorgegeben und damit immer gültig
+            throw new IllegalStateException(e);
+        }
+        if (associatedData != null) {
+            gcm.updateAAD(associatedData);
+        }
+        return gcm;
+    }
+}
@@ -0,0 +1,22 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+/**
+ * The GenerationPolicy interface is implemented by everything the PasswordGenerator can generate from, i.e.
+ * PasswordPolicy for random passwords and PassphrasePolicy for passphrases. It lets the PasswordPool fill its
+ * buffer without knowing which kind of password is requested.
+ *
+ * @author Andreas Morasch
+ * @see PasswordPool
+ */
+
+public interface GenerationPolicy {
+
+    /**
+     * This method generates one password following this policy.
+     *
+     * @param generator generator providing the randomness, owned by the calling thread
+     * @return generated password
+     */
+
+    String generate(PasswordGenerator generator);
+}
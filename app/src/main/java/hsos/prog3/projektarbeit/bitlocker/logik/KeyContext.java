@@ -0,0 +1,428 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The KeyContext class is an immutable holder for the SecretKeySpec belonging to one master password.
+ * The key is derived exactly once when the context is created and every thread gets its own Cipher objects,
+ * so several threads can encrypt and decrypt at the same time without sharing any mutable state.
+ * Passwords are sealed into the binary format described by PasswordRecord by the crypto engine selected in
+ * CryptoEngines, records are opened by the engine matching their version byte.
+ *
+ * @author Andreas Morasch
+ * @see AES_Encryption
+ * @see PasswordRecord
+ * @see CryptoEngines
+ */
+
+public final class KeyContext {
+
+    private static final String ALGORITHM = "AES";
+    private static final String LEGACY_TRANSFORMATION = "AES";
+    private static final String SUB_KEY_ALGORITHM = "HmacSHA256";
+    private static final String BLIND_INDEX_LABEL = "blind index";
+    private static final String INTEGRITY_TAG_LABEL = "entry integrity";
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private final byte[] salt;
+    private final int iterations;
+    private final SecretKeySpec secretKeySpec;
+    private final ThreadLocal<Cipher> legacyDecryptCipher;
+    private final Map<String, SecretKeySpec> subKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor for the KeyContext class, use fromMasterPassword(String, byte[], int) or fromEncodedKey(byte[]) instead.
+     * The master password itself is never kept, only the key derived from it.
+     *
+     * @param salt           KDF salt, null if the key has not been derived with PBKDF2
+     * @param iterations     KDF iteration count, 0 if the key has not been derived with PBKDF2
+     * @param secretKeySpec  already derived SecretKeySpec
+     */
+
+    private KeyContext(byte[] salt, int iterations, SecretKeySpec secretKeySpec) {
+        this.salt = salt;
+        this.iterations = iterations;
+        this.secretKeySpec = secretKeySpec;
+        this.legacyDecryptCipher = new CipherThreadLocal(LEGACY_TRANSFORMATION, Cipher.DECRYPT_MODE);
+    }
+
+    /**
+     * This method creates a KeyContext holding a new random 256 bit key, e.g. the data key of a vault.
+     *
+     * @return KeyContext holding a random key
+     */
+
+    public static KeyContext generateDataKey() {
+        byte[] key = new byte[32];
+        SECURE_RANDOM.nextBytes(key);
+        KeyContext context = fromEncodedKey(key);
+        Arrays.fill(key, (byte) 0);
+        return context;
+    }
+
+    /**
+     * This method returns the KeyContext for the given master password, derived with PBKDF2-HMAC-SHA256.
+     * The derivation is deliberately slow (see KeyDerivation.calibrate(long)), so it is only done once per unlock;
+     * the unlocked data key is then kept for the session by the DatabaseHelper.
+     *
+     * @param masterPassword master password to derive the key from
+     * @param salt           KDF salt stored with the vault
+     * @param iterations     KDF iteration count stored with the vault
+     * @return KeyContext holding the derived key
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     */
+
+    public static KeyContext fromMasterPassword(String masterPassword, byte[] salt, int iterations) throws NoSuchAlgorithmException {
+        byte[] key = KeyDerivation.derive(masterPassword, salt, iterations);
+        KeyContext context = new KeyContext(salt.clone(), iterations, new SecretKeySpec(key, ALGORITHM));
+        Arrays.fill(key, (byte) 0);
+        return context;
+    }
+
+    /**
+     * This method returns the KeyContext for the given master password, derived with one unsalted SHA-256 hash
+     * as before the KDF parameters were stored with the vault. It is only needed to open and migrate old vaults.
+     *
+     * @param masterPassword master password to derive the key from
+     * @return KeyContext holding the derived key
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     */
+
+    public static KeyContext fromLegacyMasterPassword(String masterPassword) throws NoSuchAlgorithmException {
+        return new KeyContext(null, 0, deriveSecretKeySpec(masterPassword));
+    }
+
+    /**
+     * This method creates a KeyContext for an already derived key, e.g. a key that has been
+     * stored in encrypted form while a key rotation is in progress.
+     *
+     * @param encodedKey raw 256 bit AES key
+     * @return KeyContext holding the given key
+     */
+
+    public static KeyContext fromEncodedKey(byte[] encodedKey) {
+        return new KeyContext(null, 0, new SecretKeySpec(encodedKey, ALGORITHM));
+    }
+
+    /**
+     * This method turns the master password into a 256 bit AES key by hashing it with SHA-256.
+     * Only used for old vaults, see fromLegacyMasterPassword(String).
+     *
+     * @param masterPassword master password to derive the key from
+     * @return SecretKeySpec used for encryption and decryption
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     */
+
+    static SecretKeySpec deriveSecretKeySpec(String masterPassword) throws NoSuchAlgorithmException {
+        // byte-Array erzeugen
+        byte[] key = masterPassword.getBytes(StandardCharsets.UTF_8);
+        // aus dem Array einen Hash-Wert erzeugen mit MD5 oder SHA
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        key = messageDigest.digest(key);
+        // 32*8 Bit benutzt
+        key = Arrays.copyOf(key, 32);
+        return new SecretKeySpec(key, ALGORITHM);
+    }
+
+    /**
+     * Getter for the KDF salt of this context.
+     *
+     * @return KDF salt or null if the key has not been derived with PBKDF2
+     */
+
+    public byte[] getSalt() {
+        return salt == null ? null : salt.clone();
+    }
+
+    /**
+     * Getter for the KDF iteration count of this context.
+     *
+     * @return KDF iteration count or 0 if the key has not been derived with PBKDF2
+     */
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Getter for the SecretKeySpec of this context.
+     *
+     * @return SecretKeySpec used for encryption and decryption
+     */
+
+    public SecretKeySpec getSecretKeySpec() {
+        return secretKeySpec;
+    }
+
+    /**
+     * This method returns the raw bytes of the key of this context.
+     *
+     * @return raw 256 bit AES key
+     */
+
+    public byte[] getEncoded() {
+        return secretKeySpec.getEncoded();
+    }
+
+    /**
+     * This method encrypts the given bytes with the selected crypto engine and returns them as a versioned record.
+     *
+     * @param plainData data to be encrypted
+     * @return record in the format described by PasswordRecord
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public byte[] seal(byte[] plainData) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        byte[] record = new byte[PasswordRecord.OVERHEAD + plainData.length];
+        seal(ByteBuffer.wrap(plainData), ByteBuffer.wrap(record));
+        return record;
+    }
+
+    /**
+     * This method checks the authentication tag of a versioned record and decrypts it.
+     * A wrong key or a modified record is detected and reported as AEADBadTagException (a BadPaddingException).
+     *
+     * @param record record in the format described by PasswordRecord
+     * @return decrypted data
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public byte[] open(byte[] record) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        if (record.length < PasswordRecord.OVERHEAD) {
+            throw new IllegalBlockSizeException("Unsupported password record");
+        }
+        byte[] plainData = new byte[record.length - PasswordRecord.OVERHEAD];
+        open(ByteBuffer.wrap(record), ByteBuffer.wrap(plainData));
+        return plainData;
+    }
+
+    /**
+     * This method works like seal(byte[]), but reads the remaining bytes of the given buffer and writes the record
+     * into the caller-supplied output buffer instead of allocating new arrays. Both buffers are advanced.
+     *
+     * @param plainData         buffer holding the data to be encrypted
+     * @param encryptedPassword output buffer with at least PasswordRecord.OVERHEAD + plainData.remaining() bytes remaining
+     * @return number of bytes written to the output buffer
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public int seal(ByteBuffer plainData, ByteBuffer encryptedPassword) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return seal(plainData, null, encryptedPassword);
+    }
+
+    /**
+     * This method works like seal(ByteBuffer, ByteBuffer), but binds the record to the given associated data,
+     * e.g. the blind index of the entry the password belongs to. The record can only be opened with the same
+     * associated data, see open(ByteBuffer, byte[], ByteBuffer).
+     *
+     * @param plainData         buffer holding the data to be encrypted
+     * @param associatedData    data the record is bound to, or null for a record without associated data
+     * @param encryptedPassword output buffer with at least PasswordRecord.OVERHEAD + plainData.remaining() bytes remaining
+     * @return number of bytes written to the output buffer
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public int seal(ByteBuffer plainData, byte[] associatedData, ByteBuffer encryptedPassword) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return CryptoEngines.getSelected().seal(this, plainData, associatedData, encryptedPassword);
+    }
+
+    /**
+     * This method works like open(byte[]), but reads the record from the remaining bytes of the given buffer and
+     * writes the decrypted data into the caller-supplied output buffer. Both buffers are advanced.
+     * The record is opened by an engine matching its version byte, independent of the selected engine.
+     *
+     * @param encryptedPassword buffer holding the record in the format described by PasswordRecord
+     * @param plainData         output buffer with at least encryptedPassword.remaining() - PasswordRecord.OVERHEAD bytes remaining
+     * @return number of bytes written to the output buffer
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public int open(ByteBuffer encryptedPassword, ByteBuffer plainData) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        return open(encryptedPassword, null, plainData);
+    }
+
+    /**
+     * This method works like open(ByteBuffer, ByteBuffer), but checks a bound record against the given associated data.
+     * Records without associated data are opened as well, the associated data is ignored for them. A bound record
+     * opened with other or without associated data is reported as AEADBadTagException (a BadPaddingException).
+     *
+     * @param encryptedPassword buffer holding the record in the format described by PasswordRecord
+     * @param associatedData    data a bound record has to be bound to, or null
+     * @param plainData         output buffer with at least encryptedPassword.remaining() - PasswordRecord.OVERHEAD bytes remaining
+     * @return number of bytes written to the output buffer
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public int open(ByteBuffer encryptedPassword, byte[] associatedData, ByteBuffer plainData) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        CryptoEngine engine = encryptedPassword.hasRemaining() ? CryptoEngines.forVersion(encryptedPassword.get(encryptedPassword.position())) : null;
+        if (engine == null) {
+            throw new IllegalBlockSizeException("Unsupported password record");
+        }
+        return engine.open(this, encryptedPassword, associatedData, plainData);
+    }
+
+    /**
+     * This method computes a keyed blind index of the given value: HMAC-SHA256 with a sub key of this context.
+     * Equal values always result in the same index, so it can be used for exact-match lookups in the database,
+     * but without the key the index reveals nothing about the value.
+     *
+     * @param value value to be indexed, e.g. the UTF-8 bytes of a website name
+     * @return 32 byte blind index
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public byte[] blindIndex(byte[] value) throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance(SUB_KEY_ALGORITHM);
+        mac.init(getSubKey(BLIND_INDEX_LABEL, SUB_KEY_ALGORITHM));
+        return mac.doFinal(value);
+    }
+
+    /**
+     * This method computes an integrity tag over several fields: HMAC-SHA256 with a sub key of this context.
+     * Every field is prefixed with its length, so the boundaries between the fields are part of the tag.
+     *
+     * @param fields fields to be authenticated together
+     * @return 32 byte integrity tag
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public byte[] integrityTag(byte[]... fields) throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance(SUB_KEY_ALGORITHM);
+        mac.init(getSubKey(INTEGRITY_TAG_LABEL, SUB_KEY_ALGORITHM));
+        for (byte[] field : fields) {
+            mac.update(ByteBuffer.allocate(4).putInt(field.length).array());
+            mac.update(field);
+        }
+        return mac.doFinal();
+    }
+
+    /**
+     * This method returns a key derived from the key of this context for one purpose, e.g. the separate encryption
+     * and MAC keys of the CtrHmacEngine. The sub key is HMAC-SHA256(key, label) and is only derived once.
+     *
+     * @param label     purpose of the sub key
+     * @param algorithm algorithm name of the returned SecretKeySpec
+     * @return 256 bit sub key
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    SecretKeySpec getSubKey(String label, String algorithm) throws NoSuchAlgorithmException, InvalidKeyException {
+        SecretKeySpec subKey = subKeys.get(label);
+        if (subKey == null) {
+            Mac mac = Mac.getInstance(SUB_KEY_ALGORITHM);
+            mac.init(secretKeySpec);
+            byte[] key = mac.doFinal(label.getBytes(StandardCharsets.UTF_8));
+            subKey = new SecretKeySpec(key, algorithm);
+            Arrays.fill(key, (byte) 0);
+            subKeys.put(label, subKey);
+        }
+        return subKey;
+    }
+
+    /**
+     * This method decrypts data which has been encrypted with the provider-default AES transformation (AES/ECB)
+     * before the versioned record format existed. It is only needed to read and upgrade legacy records.
+     *
+     * @param encryptedData legacy encrypted data (already Base64 decoded)
+     * @return decrypted data
+     * @throws NoSuchPaddingException    This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException  This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException       This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException       This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public byte[] decryptLegacy(byte[] encryptedData) throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        Cipher cipher = CryptoEngine.getPerThread(legacyDecryptCipher);
+        try {
+            // doFinal() setzt den Cipher wieder in den initialisierten Zustand zurück, er kann also wiederverwendet werden
+            return cipher.doFinal(encryptedData);
+        } catch (IllegalBlockSizeException | BadPaddingException | RuntimeException e) {
+            legacyDecryptCipher.remove();
+            throw e;
+        }
+    }
+
+    /**
+     * ThreadLocal creating one Cipher per thread. ThreadLocal.initialValue() cannot throw
+     * checked exceptions, so they are tunneled through an IllegalStateException and unwrapped in CryptoEngine.getPerThread().
+     */
+
+    private final class CipherThreadLocal extends ThreadLocal<Cipher> {
+
+        private final String transformation;
+        private final int mode;
+
+        /**
+         * Constructor for the CipherThreadLocal class.
+         *
+         * @param transformation transformation of the Cipher
+         * @param mode           Cipher.ENCRYPT_MODE or Cipher.DECRYPT_MODE
+         */
+
+        private CipherThreadLocal(String transformation, int mode) {
+            this.transformation = transformation;
+            this.mode = mode;
+        }
+
+        /**
+         * Creates and initializes the Cipher of the current thread.
+         *
+         * @return Cipher of the current thread
+         */
+
+        @Override
+        protected Cipher initialValue() {
+            try {
+                Cipher cipher = Cipher.getInstance(transformation);
+                cipher.init(mode, secretKeySpec);
+                return cipher;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
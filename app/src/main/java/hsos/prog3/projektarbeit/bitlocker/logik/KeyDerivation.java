@@ -0,0 +1,130 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * The KeyDerivation class turns a master password into a key with the salted and iterated PBKDF2-HMAC-SHA256.
+ * The iteration count is not fixed: calibrate(long) measures the KDF on the current device and picks the highest
+ * iteration count that still fits into the given login latency budget. Salt and iteration count are stored with the
+ * vault, so the key can be derived again on every login.
+ *
+ * @author Andreas Morasch
+ * @see KeyContext#fromMasterPassword(String, byte[], int)
+ */
+
+public final class KeyDerivation {
+
+    public static final long DEFAULT_BUDGET_MILLIS = 300;
+    public static final int SALT_LENGTH = 16;
+    public static final int MIN_ITERATIONS = 10000;
+    public static final int MAX_ITERATIONS = 10000000;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int KEY_LENGTH_BITS = 256;
+    private static final int PROBE_ITERATIONS = 4096;
+    // Messungen unterhalb dieser Dauer sind zu ungenau, um sie hochzurechnen
+    private static final long MIN_PROBE_NANOS = 100000000L;
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    /**
+     * Private constructor, the class only offers constants and static methods.
+     */
+
+    private KeyDerivation() {
+    }
+
+    /**
+     * This method creates a new random salt.
+     *
+     * @return random salt of SALT_LENGTH bytes
+     */
+
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        SECURE_RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * This method measures the KDF on the current device and returns the highest iteration count whose
+     * derivation takes at most the given time. The probe is doubled until a measurement is long enough to be
+     * reliable and then scaled linearly to the budget. The result is rounded down to whole thousands and
+     * clamped to MIN_ITERATIONS and MAX_ITERATIONS.
+     *
+     * @param budgetMillis maximum time one key derivation may take in milliseconds
+     * @return calibrated iteration count
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     */
+
+    public static int calibrate(long budgetMillis) throws NoSuchAlgorithmException {
+        char[] probePassword = "calibration".toCharArray();
+        byte[] salt = newSalt();
+
+        // Erster Durchlauf zum Aufwärmen (Klassen laden, JIT), wird nicht gemessen
+        derive(probePassword, salt, PROBE_ITERATIONS);
+
+        int iterations = PROBE_ITERATIONS;
+        long elapsedNanos;
+        while (true) {
+            long start = System.nanoTime();
+            derive(probePassword, salt, iterations);
+            elapsedNanos = Math.max(1, System.nanoTime() - start);
+            if (elapsedNanos >= MIN_PROBE_NANOS || iterations >= MAX_ITERATIONS / 2) {
+                break;
+            }
+            iterations *= 2;
+        }
+
+        long scaled = iterations * (budgetMillis * 1000000L) / elapsedNanos;
+        scaled = scaled / 1000 * 1000;
+        return (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, scaled));
+    }
+
+    /**
+     * This method derives a 256 bit key from the given password with PBKDF2-HMAC-SHA256.
+     *
+     * @param password   password to derive the key from
+     * @param salt       salt stored with the vault
+     * @param iterations iteration count stored with the vault
+     * @return raw 256 bit key
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     */
+
+    static byte[] derive(char[] password, byte[] salt, int iterations) throws NoSuchAlgorithmException {
+        PBEKeySpec keySpec = new PBEKeySpec(password, salt, iterations, KEY_LENGTH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(keySpec).getEncoded();
+        } catch (InvalidKeySpecException e) {
+            // Salt, Iterationen und Schlüssellänge werden von dieser Klasse vorgegeben
+            throw new IllegalStateException(e);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    /**
+     * This method derives a 256 bit key from the given password with PBKDF2-HMAC-SHA256.
+     * The temporary char array holding the password is overwritten afterwards.
+     *
+     * @param password   password to derive the key from
+     * @param salt       salt stored with the vault
+     * @param iterations iteration count stored with the vault
+     * @return raw 256 bit key
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     */
+
+    static byte[] derive(String password, byte[] salt, int iterations) throws NoSuchAlgorithmException {
+        char[] chars = password.toCharArray();
+        try {
+            return derive(chars, salt, iterations);
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+}
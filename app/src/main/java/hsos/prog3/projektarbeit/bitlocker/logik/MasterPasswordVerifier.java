@@ -0,0 +1,127 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+
+/**
+ * The MasterPasswordVerifier class describes the record used to check a master password at login.
+ * It holds everything required for the check, so it can be done with one single lookup:
+ * [version (1)] [iterations (4)] [salt (16)] [tag (32)]
+ * The tag is an HMAC-SHA256 of a fixed label, keyed with the key derived from the master password.
+ * It is compared in constant time, so the check does not reveal how many bytes of the tag matched.
+ *
+ * @author Andreas Morasch
+ * @see KeyDerivation
+ */
+
+public final class MasterPasswordVerifier {
+
+    public static final byte VERSION_PBKDF2_HMAC = 0x01;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] LABEL = "BitLocker master password verifier".getBytes(StandardCharsets.UTF_8);
+    private static final int ITERATIONS_OFFSET = 1;
+    private static final int SALT_OFFSET = ITERATIONS_OFFSET + 4;
+    private static final int TAG_OFFSET = SALT_OFFSET + KeyDerivation.SALT_LENGTH;
+    private static final int TAG_LENGTH = 32;
+    private static final int RECORD_LENGTH = TAG_OFFSET + TAG_LENGTH;
+
+    /**
+     * Private constructor, the class only offers static methods.
+     */
+
+    private MasterPasswordVerifier() {
+    }
+
+    /**
+     * This method creates the verifier record for a key derived from the master password.
+     *
+     * @param keyEncryptionKey KeyContext derived with PBKDF2, see KeyContext.fromMasterPassword(String, byte[], int)
+     * @return verifier record
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public static byte[] create(KeyContext keyEncryptionKey) throws NoSuchAlgorithmException, InvalidKeyException {
+        return ByteBuffer.allocate(RECORD_LENGTH)
+                .put(VERSION_PBKDF2_HMAC)
+                .putInt(keyEncryptionKey.getIterations())
+                .put(keyEncryptionKey.getSalt())
+                .put(computeTag(keyEncryptionKey))
+                .array();
+    }
+
+    /**
+     * Getter for the KDF salt stored in the verifier record.
+     *
+     * @param record verifier record
+     * @return KDF salt
+     */
+
+    public static byte[] getSalt(byte[] record) {
+        checkFormat(record);
+        return Arrays.copyOfRange(record, SALT_OFFSET, TAG_OFFSET);
+    }
+
+    /**
+     * Getter for the KDF iteration count stored in the verifier record.
+     *
+     * @param record verifier record
+     * @return KDF iteration count
+     */
+
+    public static int getIterations(byte[] record) {
+        checkFormat(record);
+        return ByteBuffer.wrap(record, ITERATIONS_OFFSET, 4).getInt();
+    }
+
+    /**
+     * This method checks whether the key derived from the entered master password matches the verifier record.
+     *
+     * @param record           verifier record
+     * @param keyEncryptionKey KeyContext derived from the entered master password with the parameters of the record
+     * @return true if the master password is correct, false if not
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    public static boolean matches(byte[] record, KeyContext keyEncryptionKey) throws NoSuchAlgorithmException, InvalidKeyException {
+        checkFormat(record);
+        byte[] expectedTag = Arrays.copyOfRange(record, TAG_OFFSET, RECORD_LENGTH);
+        // MessageDigest.isEqual() vergleicht in konstanter Zeit
+        return MessageDigest.isEqual(expectedTag, computeTag(keyEncryptionKey));
+    }
+
+    /**
+     * Helper method computing the tag of the verifier record.
+     *
+     * @param keyEncryptionKey KeyContext derived from the master password
+     * @return HMAC-SHA256 of the label
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    private static byte[] computeTag(KeyContext keyEncryptionKey) throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(keyEncryptionKey.getSecretKeySpec());
+        return mac.doFinal(LABEL);
+    }
+
+    /**
+     * Helper method checking length and version of a verifier record.
+     *
+     * @param record verifier record
+     */
+
+    private static void checkFormat(byte[] record) {
+        if (record.length != RECORD_LENGTH || record[0] != VERSION_PBKDF2_HMAC) {
+            throw new IllegalArgumentException("Unsupported master password verifier");
+        }
+    }
+}
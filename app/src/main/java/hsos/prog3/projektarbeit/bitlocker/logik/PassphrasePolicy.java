@@ -0,0 +1,78 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+/**
+ * The PassphrasePolicy class describes diceware-style passphrases: a number of words drawn uniformly from a
+ * WordList, joined by a separator. Every word adds log2(wordList.size()) bits of entropy.
+ *
+ * @author Andreas Morasch
+ * @see PasswordGenerator#generatePassphrase(PassphrasePolicy)
+ */
+
+public final class PassphrasePolicy implements GenerationPolicy {
+
+    // Mit den 1.935 Wörtern der Standardliste bringt jedes Wort etwa 10,9 Bit, sechs Wörter also etwa 65 Bit,
+    // so viel wie ein zufälliges Passwort der Standardlänge
+    public static final int MIN_WORDS = 6;
+    public static final String DEFAULT_SEPARATOR = "-";
+
+    private final WordList wordList;
+    private final int wordCount;
+    private final String separator;
+
+    /**
+     * Constructor for the PassphrasePolicy class.
+     *
+     * @param wordList  word list the words are drawn from
+     * @param wordCount number of words, at least 1
+     * @param separator separator between the words
+     * @throws IllegalArgumentException if the word count is not positive
+     */
+
+    public PassphrasePolicy(WordList wordList, int wordCount, String separator) {
+        if (wordCount <= 0) {
+            throw new IllegalArgumentException("Word count must be positive: " + wordCount);
+        }
+        this.wordList = wordList;
+        this.wordCount = wordCount;
+        this.separator = separator;
+    }
+
+    /**
+     * Getter for the word list.
+     *
+     * @return word list the words are drawn from
+     */
+
+    public WordList getWordList() {
+        return wordList;
+    }
+
+    /**
+     * Getter for the number of words.
+     *
+     * @return number of words
+     */
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Getter for the separator.
+     *
+     * @return separator between the words
+     */
+
+    public String getSeparator() {
+        return separator;
+    }
+
+    /**
+     * Generates a passphrase with the given generator, see GenerationPolicy.
+     */
+
+    @Override
+    public String generate(PasswordGenerator generator) {
+        return generator.generatePassphrase(this);
+    }
+}
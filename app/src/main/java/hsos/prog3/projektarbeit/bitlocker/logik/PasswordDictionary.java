@@ -0,0 +1,214 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import android.content.Context;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The PasswordDictionary class holds the dictionaries of the PasswordStrengthEstimator as one compact trie.
+ * Two bundled lists are combined: a list of common passwords ordered by frequency, where a word costs an attacker as
+ * many guesses as its position in the list, and the unordered word list of the passphrase generator, where every word
+ * costs as many guesses as both lists together. All words are stored in lower case.
+ * The trie is built once and stored in four parallel arrays (first child / next sibling representation) instead of
+ * one object per node, so a few thousand words need a few hundred kilobytes at most and a lookup never allocates.
+ * The trie is immutable after construction and can be shared by several estimators.
+ *
+ * @author Andreas Morasch
+ * @see PasswordStrengthEstimator
+ */
+
+public final class PasswordDictionary {
+
+    public static final String COMMON_PASSWORDS_ASSET = "common_passwords.txt";
+
+    static final int ROOT = 0;
+    static final int NO_NODE = -1;
+
+    private static volatile PasswordDictionary defaultDictionary;
+
+    private char[] label = new char[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private int[] rank = new int[1024];
+    private int nodeCount;
+    private int maxWordLength;
+
+    /**
+     * Constructor for the PasswordDictionary class, building the trie.
+     *
+     * @param rankedWords   words ordered by frequency, the most common first
+     * @param unrankedWords words without order, may be null
+     * @throws IllegalStateException if a word list cannot be read
+     */
+
+    public PasswordDictionary(WordList rankedWords, WordList unrankedWords) {
+        newNode('\0');
+        int rankedSize = rankedWords.size();
+        for (int i = 0; i < rankedSize; i++) {
+            insert(rankedWords.get(i), i + 1);
+        }
+        if (unrankedWords != null) {
+            int unrankedRank = rankedSize + unrankedWords.size();
+            for (int i = 0; i < unrankedWords.size(); i++) {
+                insert(unrankedWords.get(i), unrankedRank);
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * Constructor for the PasswordDictionary class, building the trie from words given directly, e.g. in tests.
+     *
+     * @param rankedWords words ordered by frequency, the most common first
+     */
+
+    PasswordDictionary(String... rankedWords) {
+        newNode('\0');
+        for (int i = 0; i < rankedWords.length; i++) {
+            insert(rankedWords[i], i + 1);
+        }
+        trimToSize();
+    }
+
+    /**
+     * This method returns the dictionary of the bundled lists, which is built on first use and then shared.
+     * Building it reads both lists, so it must not be called on the main thread, see getLoadedDefault().
+     *
+     * @param context context of the app, used to open the assets
+     * @return shared dictionary
+     * @throws IllegalStateException if a bundled list cannot be read
+     */
+
+    public static PasswordDictionary getDefault(Context context) {
+        PasswordDictionary dictionary = defaultDictionary;
+        if (dictionary == null) {
+            synchronized (PasswordDictionary.class) {
+                dictionary = defaultDictionary;
+                if (dictionary == null) {
+                    dictionary = new PasswordDictionary(new WordList(context, COMMON_PASSWORDS_ASSET),
+                            new WordList(context, WordList.DEFAULT_ASSET));
+                    defaultDictionary = dictionary;
+                }
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * This method returns the dictionary of the bundled lists only if it has already been built, e.g. by the
+     * SplashScreen. Unlike getDefault(Context) it never reads the lists, so it can be called on the main thread.
+     *
+     * @return shared dictionary or null if it has not been built yet
+     */
+
+    public static PasswordDictionary getLoadedDefault() {
+        return defaultDictionary;
+    }
+
+    /**
+     * Getter for the number of nodes of the trie.
+     *
+     * @return number of nodes
+     */
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Getter for the length of the longest word, no match can be longer.
+     *
+     * @return length of the longest word
+     */
+
+    public int getMaxWordLength() {
+        return maxWordLength;
+    }
+
+    /**
+     * This method follows the edge with the given lower case character.
+     *
+     * @param node      current node, ROOT at the beginning of a word
+     * @param character lower case character
+     * @return child node or NO_NODE if no word continues with this character
+     */
+
+    int child(int node, char character) {
+        for (int child = firstChild[node]; child != NO_NODE; child = nextSibling[child]) {
+            if (label[child] == character) {
+                return child;
+            }
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * This method returns the number of guesses for the word ending at the given node.
+     *
+     * @param node node of the trie
+     * @return rank of the word, or 0 if no word ends here
+     */
+
+    int rank(int node) {
+        return rank[node];
+    }
+
+    /**
+     * Helper method inserting one word. If a word is contained twice, the lower rank is kept.
+     *
+     * @param word     word of a list
+     * @param wordRank number of guesses for the word
+     */
+
+    private void insert(String word, int wordRank) {
+        String lowerCase = word.toLowerCase(Locale.ROOT);
+        int node = ROOT;
+        for (int i = 0; i < lowerCase.length(); i++) {
+            int next = child(node, lowerCase.charAt(i));
+            if (next == NO_NODE) {
+                next = newNode(lowerCase.charAt(i));
+                nextSibling[next] = firstChild[node];
+                firstChild[node] = next;
+            }
+            node = next;
+        }
+        if (rank[node] == 0 || wordRank < rank[node]) {
+            rank[node] = wordRank;
+        }
+        maxWordLength = Math.max(maxWordLength, lowerCase.length());
+    }
+
+    /**
+     * Helper method shrinking the arrays to the number of nodes once the trie is complete.
+     */
+
+    private void trimToSize() {
+        label = Arrays.copyOf(label, nodeCount);
+        firstChild = Arrays.copyOf(firstChild, nodeCount);
+        nextSibling = Arrays.copyOf(nextSibling, nodeCount);
+        rank = Arrays.copyOf(rank, nodeCount);
+    }
+
+    /**
+     * Helper method appending a node without children, the arrays are doubled when they are full.
+     *
+     * @param character label of the edge leading to the node
+     * @return index of the new node
+     */
+
+    private int newNode(char character) {
+        if (nodeCount == label.length) {
+            int capacity = 2 * nodeCount;
+            label = Arrays.copyOf(label, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            rank = Arrays.copyOf(rank, capacity);
+        }
+        label[nodeCount] = character;
+        firstChild[nodeCount] = NO_NODE;
+        nextSibling[nodeCount] = NO_NODE;
+        rank[nodeCount] = 0;
+        return nodeCount++;
+    }
+}
@@ -1,60 +1,210 @@
 package hsos.prog3.projektarbeit.bitlocker.logik;
 
-import java.util.Random;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The PasswordGenerator class implements the PasswordGeneratorInterface and its purpose is to generate
- * certain passwords based on given parameters.
+ * certain passwords based on given parameters. The randomness comes from a SecureRandom, read in blocks by a
+ * RandomBuffer, and the password is assembled in a reusable char[], so an instance is not thread-safe.
+ * Many passwords can be generated at once with generatePasswords(), iterator() or stream().
+ * Besides random passwords it also generates diceware-style passphrases from a WordList and derives
+ * deterministic passwords from the data key, which do not have to be stored at all.
  *
  * @author Andreas Morasch
  */
 
 public class PasswordGenerator implements PasswordGeneratorInterface {
 
-    private static final String upperLetters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-    private static final String lowerLetters = "abcdefghijklmnopqrstuvwxyz";
-    private static final String digits = "0123456789";
-    private static final String specialCharacters = "!\"'§$%&/()=?.,-_:;*#<>@+|[{]";
+    private final RandomBuffer randomBuffer = new RandomBuffer();
+    private char[] password = new char[0];
 
     /**
      * This method generates a random password based on a password length and a special char portion in percent.
+     * The policy is compiled on every call, callers generating several passwords should keep a PasswordPolicy
+     * and use generatePassword(PasswordPolicy) instead.
      *
      * @param passwordLength     password length
      * @param specialCharPortion special character portion in percent
      * @return random password that meets the above mentioned criteria
+     * @see PasswordPolicy#fromSpecialCharPortion(int, int)
      */
 
     public String generatePassword(int passwordLength, int specialCharPortion) {
+        return generatePassword(PasswordPolicy.fromSpecialCharPortion(passwordLength, specialCharPortion));
+    }
+
+    /**
+     * This method generates a random password following the plan of a compiled policy.
+     *
+     * @param policy compiled password policy
+     * @return random password that meets the policy
+     */
 
-        int specialCharNumber = (passwordLength * specialCharPortion) / 100;
-        int specialCharRatio = passwordLength / specialCharNumber;
+    public String generatePassword(PasswordPolicy policy) {
+        return generate(policy.getPlan(), randomBuffer, passwordBuffer(policy.getLength()));
+    }
 
-        StringBuilder password = new StringBuilder();
-        Random random = new Random();
-        for (int i = 1; i < passwordLength + 1; i++) {
-            int decider = random.nextInt(3);
-            if (i % specialCharRatio == 0) {
-                decider = 3;
+    /**
+     * This method fills a range of a preallocated array with random passwords of the same policy. The RNG and the
+     * char[] are shared by all passwords, so this is much cheaper than creating a generator per password.
+     *
+     * @param policy    compiled password policy
+     * @param passwords array receiving the passwords
+     * @param offset    first index to be filled
+     * @param count     number of passwords
+     */
+
+    public void generatePasswords(PasswordPolicy policy, String[] passwords, int offset, int count) {
+        if (offset < 0 || count < 0 || offset + count > passwords.length) {
+            throw new ArrayIndexOutOfBoundsException("offset " + offset + ", count " + count + ", length " + passwords.length);
+        }
+        char[][] plan = policy.getPlan();
+        char[] password = passwordBuffer(policy.getLength());
+        for (int i = offset; i < offset + count; i++) {
+            passwords[i] = generate(plan, randomBuffer, password);
+        }
+    }
+
+    /**
+     * This method returns an iterator generating the passwords lazily, one per call of next(). The iterator uses
+     * the RNG of this generator and must not be used at the same time as the generator itself.
+     *
+     * @param policy compiled password policy
+     * @param count  number of passwords
+     * @return iterator over count random passwords
+     */
+
+    public Iterator<String> iterator(final PasswordPolicy policy, final long count) {
+        return new Iterator<String>() {
+            private long remaining = count;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
             }
 
-            char charValue;
-
-            if (decider == 0) {
-                int column = random.nextInt(upperLetters.length());
-                charValue = upperLetters.charAt(column);
-            } else if (decider == 1) {
-                int column = random.nextInt(lowerLetters.length());
-                charValue = lowerLetters.charAt(column);
-            } else if (decider == 2) {
-                int column = random.nextInt(digits.length());
-                charValue = digits.charAt(column);
-            } else {
-                int column = random.nextInt(specialCharacters.length());
-                charValue = specialCharacters.charAt(column);
+            @Override
+            public String next() {
+                if (remaining <= 0) {
+                    throw new NoSuchElementException();
+                }
+                remaining--;
+                return generatePassword(policy);
+            }
+        };
+    }
+
+    /**
+     * This method returns a lazily evaluated stream of random passwords. The stream is independent of this
+     * generator: it can be split for parallel use, every part then gets its own RNG and char[].
+     *
+     * @param policy   compiled password policy
+     * @param count    number of passwords
+     * @param parallel true for a parallel stream
+     * @return stream of count random passwords
+     * @see PasswordSpliterator
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    public Stream<String> stream(PasswordPolicy policy, long count, boolean parallel) {
+        return StreamSupport.stream(new PasswordSpliterator(policy, count), parallel);
+    }
+
+    /**
+     * This method generates a passphrase: wordCount words, each drawn uniformly from the word list of the policy.
+     * Only the words drawn are read from the word list.
+     *
+     * @param policy passphrase policy
+     * @return random passphrase
+     * @throws IllegalStateException if the word list cannot be read
+     */
+
+    public String generatePassphrase(PassphrasePolicy policy) {
+        WordList wordList = policy.getWordList();
+        int size = wordList.size();
+        StringBuilder passphrase = new StringBuilder();
+        for (int i = 0; i < policy.getWordCount(); i++) {
+            if (i > 0) {
+                passphrase.append(policy.getSeparator());
             }
+            passphrase.append(wordList.get(randomBuffer.nextInt(size)));
+        }
+        return passphrase.toString();
+    }
+
+    /**
+     * This method derives the password of a website from the data key instead of generating a random one. The same
+     * data key, website, counter and policy always yield the same password, so it can be computed again whenever it
+     * is needed and nothing has to be stored. The website name is trimmed and compared case-insensitively.
+     * Since the data key is kept when the master password is changed, derived passwords stay the same as well.
+     * The policy is part of the input: a password derived with other settings is a different password.
+     *
+     * @param keyContext KeyContext holding the data key
+     * @param website    website name
+     * @param counter    counter of the website, increment it to get a new password for the same website
+     * @param policy     compiled password policy
+     * @return derived password that meets the policy
+     * @throws NoSuchAlgorithmException This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws InvalidKeyException      This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     * @see DerivedRandomBuffer
+     */
+
+    public String derivePassword(KeyContext keyContext, String website, int counter, PasswordPolicy policy) throws NoSuchAlgorithmException,
+            InvalidKeyException {
+        DerivedRandomBuffer derivedRandomBuffer = new DerivedRandomBuffer(keyContext, website.trim().toLowerCase(Locale.ROOT), counter);
+        try {
+            return generate(policy.getPlan(), derivedRandomBuffer, passwordBuffer(policy.getLength()));
+        } finally {
+            derivedRandomBuffer.wipe();
+        }
+    }
+
+    /**
+     * This method generates a random password following a compiled plan. The plan is filled in one pass, every new
+     * character is put at a random position of the already filled part and the character from there is moved to
+     * the end (inside-out Fisher-Yates shuffle), so the required characters end up at random positions.
+     *
+     * @param plan         compiled plan of a PasswordPolicy
+     * @param randomBuffer source of randomness
+     * @param password     reusable array with at least plan.length characters, wiped afterwards
+     * @return random password that meets the policy
+     */
+
+    static String generate(char[][] plan, RandomBuffer randomBuffer, char[] password) {
+        int passwordLength = plan.length;
+        for (int i = 0; i < passwordLength; i++) {
+            int j = randomBuffer.nextIndex(i + 1);
+            password[i] = password[j];
+            randomBuffer.fill(password, j, 1, plan[i]);
+        }
+        String generatedPassword = new String(password, 0, passwordLength);
+        // Das Passwort soll nur im zurückgegebenen String weiterleben
+        Arrays.fill(password, 0, passwordLength, '\0');
+        return generatedPassword;
+    }
+
+    /**
+     * Helper method returning the reusable char[] of this generator with at least the given length.
+     *
+     * @param passwordLength required length
+     * @return reusable char[]
+     */
 
-            password.append(charValue);
+    private char[] passwordBuffer(int passwordLength) {
+        if (password.length < passwordLength) {
+            password = new char[passwordLength];
         }
-        return password.toString();
+        return password;
     }
 }
@@ -1,5 +1,10 @@
 package hsos.prog3.projektarbeit.bitlocker.logik;
 
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
 /**
  * The password generator interface for the PasswordGenerator class.
  * More information about the methods can be found in the PasswordGenerator class.
@@ -10,4 +15,17 @@ package hsos.prog3.projektarbeit.bitlocker.logik;
 
 public interface PasswordGeneratorInterface {
     String generatePassword(int passwordLength, int specialCharPortion);
+
+    String generatePassword(PasswordPolicy policy);
+
+    String generatePassphrase(PassphrasePolicy policy);
+
+    String derivePassword(KeyContext keyContext, String website, int counter, PasswordPolicy policy) throws NoSuchAlgorithmException,
+            InvalidKeyException;
+
+    void generatePasswords(PasswordPolicy policy, String[] passwords, int offset, int count);
+
+    Iterator<String> iterator(PasswordPolicy policy, long count);
+
+    Stream<String> stream(PasswordPolicy policy, long count, boolean parallel);
 }
@@ -0,0 +1,257 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.util.Arrays;
+
+/**
+ * The PasswordPolicy class describes which passwords the PasswordGenerator creates: the password length, the
+ * minimum number of characters of every character class, the classes whose number is exactly their minimum,
+ * characters which must not be used (e.g. ambiguous characters like 0 and O) and the maximum length accepted by a website.
+ * A policy is immutable and compiled once in the constructor: the alphabets of the character classes are stored
+ * as lookup tables without the excluded characters, and a generation plan assigns one alphabet to every position
+ * of the password. The required characters come first, all other positions use the alphabet of all classes without
+ * an exact number. The generator fills the plan in one pass and shuffles it at the same time, so the required
+ * characters end up at random positions. A policy should therefore be kept and reused as long as its parameters do not change.
+ *
+ * @author Andreas Morasch
+ * @see PasswordGenerator
+ */
+
+public final class PasswordPolicy implements GenerationPolicy {
+
+    public static final int UPPER_LETTERS = 0;
+    public static final int LOWER_LETTERS = 1;
+    public static final int DIGITS = 2;
+    public static final int SPECIAL_CHARACTERS = 3;
+
+    public static final int MAX_LENGTH = RandomBuffer.MAX_BOUND;
+    public static final int NO_MAX_LENGTH = Integer.MAX_VALUE;
+    public static final String AMBIGUOUS_CHARACTERS = "0OoIl1|";
+
+    private static final String[] CHARACTER_CLASSES = {
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+            "abcdefghijklmnopqrstuvwxyz",
+            "0123456789",
+            "!\"'§$%&/()=?.,-_:;*#<>@+|[{]"
+    };
+
+    private final int requestedLength;
+    private final int length;
+    private final int[] minimumPerClass;
+    private final boolean[] exactPerClass;
+    private final String excludedCharacters;
+    private final int maxLength;
+    private final char[][] plan;
+
+    /**
+     * Constructor for the PasswordPolicy class, compiling a policy where every class may exceed its minimum.
+     *
+     * @param length             requested password length, at most MAX_LENGTH
+     * @param minimumPerClass    minimum number of characters per character class, indexed by UPPER_LETTERS,
+     *                           LOWER_LETTERS, DIGITS and SPECIAL_CHARACTERS
+     * @param excludedCharacters characters which must not be used, may be empty
+     * @param maxLength          maximum password length accepted by the website, or NO_MAX_LENGTH
+     * @throws IllegalArgumentException if the length is out of range or the minimums cannot be met
+     */
+
+    public PasswordPolicy(int length, int[] minimumPerClass, String excludedCharacters, int maxLength) {
+        this(length, minimumPerClass, new boolean[CHARACTER_CLASSES.length], excludedCharacters, maxLength);
+    }
+
+    /**
+     * Constructor for the PasswordPolicy class, compiling the policy.
+     *
+     * @param length             requested password length, at most MAX_LENGTH
+     * @param minimumPerClass    minimum number of characters per character class, indexed by UPPER_LETTERS,
+     *                           LOWER_LETTERS, DIGITS and SPECIAL_CHARACTERS
+     * @param exactPerClass      true for every character class whose number of characters is exactly its minimum,
+     *                           these classes are not used for the remaining positions
+     * @param excludedCharacters characters which must not be used, may be empty
+     * @param maxLength          maximum password length accepted by the website, or NO_MAX_LENGTH
+     * @throws IllegalArgumentException if the length is out of range, the minimums cannot be met or the remaining
+     *                                  positions cannot be filled
+     */
+
+    public PasswordPolicy(int length, int[] minimumPerClass, boolean[] exactPerClass, String excludedCharacters, int maxLength) {
+        if (minimumPerClass.length != CHARACTER_CLASSES.length || exactPerClass.length != CHARACTER_CLASSES.length) {
+            throw new IllegalArgumentException("One minimum and one exact flag per character class expected");
+        }
+        this.requestedLength = length;
+        this.length = Math.min(length, maxLength);
+        this.minimumPerClass = minimumPerClass.clone();
+        this.exactPerClass = exactPerClass.clone();
+        this.excludedCharacters = excludedCharacters;
+        this.maxLength = maxLength;
+        if (this.length <= 0 || this.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Password length must be between 1 and " + MAX_LENGTH + ": " + this.length);
+        }
+
+        char[][] alphabets = new char[CHARACTER_CLASSES.length][];
+        StringBuilder allCharacters = new StringBuilder();
+        int requiredCharacters = 0;
+        for (int i = 0; i < CHARACTER_CLASSES.length; i++) {
+            alphabets[i] = withoutExcluded(CHARACTER_CLASSES[i], excludedCharacters);
+            if (!this.exactPerClass[i]) {
+                allCharacters.append(alphabets[i]);
+            }
+            if (this.minimumPerClass[i] < 0 || (this.minimumPerClass[i] > 0 && alphabets[i].length == 0)) {
+                throw new IllegalArgumentException("Minimum of character class " + i + " cannot be met");
+            }
+            requiredCharacters += this.minimumPerClass[i];
+        }
+        if (requiredCharacters > this.length) {
+            throw new IllegalArgumentException(requiredCharacters + " required characters do not fit into " + this.length);
+        }
+        char[] anyCharacter = allCharacters.toString().toCharArray();
+        if (anyCharacter.length == 0 && requiredCharacters < this.length) {
+            throw new IllegalArgumentException("No characters left for " + (this.length - requiredCharacters) + " remaining positions");
+        }
+
+        this.plan = new char[this.length][];
+        int position = 0;
+        for (int i = 0; i < CHARACTER_CLASSES.length; i++) {
+            for (int j = 0; j < this.minimumPerClass[i]; j++) {
+                this.plan[position++] = alphabets[i];
+            }
+        }
+        Arrays.fill(this.plan, position, this.length, anyCharacter);
+    }
+
+    /**
+     * This method creates the policy used by the generator screens: at least one upper letter, lower letter and
+     * digit and exactly the given portion of special characters. A portion greater than zero always yields at least
+     * one special character, the other positions only contain letters and digits.
+     *
+     * @param passwordLength     password length
+     * @param specialCharPortion special character portion in percent
+     * @return compiled policy
+     * @throws IllegalArgumentException if the password length is out of range
+     */
+
+    public static PasswordPolicy fromSpecialCharPortion(int passwordLength, int specialCharPortion) {
+        int[] minimumPerClass = new int[CHARACTER_CLASSES.length];
+        int specialCharNumber = (passwordLength * specialCharPortion) / 100;
+        if (specialCharPortion > 0) {
+            specialCharNumber = Math.max(1, specialCharNumber);
+        }
+        for (int i = 0; i < SPECIAL_CHARACTERS && i < passwordLength - specialCharNumber; i++) {
+            minimumPerClass[i] = 1;
+        }
+        minimumPerClass[SPECIAL_CHARACTERS] = Math.min(specialCharNumber, passwordLength);
+        boolean[] exactPerClass = new boolean[CHARACTER_CLASSES.length];
+        exactPerClass[SPECIAL_CHARACTERS] = true;
+        return new PasswordPolicy(passwordLength, minimumPerClass, exactPerClass, "", NO_MAX_LENGTH);
+    }
+
+    /**
+     * This method creates a policy with the same parameters but a different maximum length of the website.
+     *
+     * @param maxLength maximum password length accepted by the website, or NO_MAX_LENGTH
+     * @return compiled policy
+     * @throws IllegalArgumentException if the minimums do not fit into the new length
+     */
+
+    public PasswordPolicy withMaxLength(int maxLength) {
+        return new PasswordPolicy(requestedLength, minimumPerClass, exactPerClass, excludedCharacters, maxLength);
+    }
+
+    /**
+     * This method creates a policy with the same parameters which additionally excludes AMBIGUOUS_CHARACTERS.
+     *
+     * @return compiled policy
+     * @throws IllegalArgumentException if a minimum cannot be met without the ambiguous characters
+     */
+
+    public PasswordPolicy withoutAmbiguousCharacters() {
+        return new PasswordPolicy(requestedLength, minimumPerClass, exactPerClass, excludedCharacters + AMBIGUOUS_CHARACTERS, maxLength);
+    }
+
+    /**
+     * Getter for the length of the generated passwords, i.e. the requested length limited by the maximum length.
+     *
+     * @return password length
+     */
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Getter for the minimum number of characters of a character class.
+     *
+     * @param characterClass UPPER_LETTERS, LOWER_LETTERS, DIGITS or SPECIAL_CHARACTERS
+     * @return minimum number of characters
+     */
+
+    public int getMinimum(int characterClass) {
+        return minimumPerClass[characterClass];
+    }
+
+    /**
+     * This method checks whether the number of characters of a character class is exactly its minimum.
+     *
+     * @param characterClass UPPER_LETTERS, LOWER_LETTERS, DIGITS or SPECIAL_CHARACTERS
+     * @return true if the class is not used beyond its minimum
+     */
+
+    public boolean isExact(int characterClass) {
+        return exactPerClass[characterClass];
+    }
+
+    /**
+     * Getter for the excluded characters.
+     *
+     * @return excluded characters
+     */
+
+    public String getExcludedCharacters() {
+        return excludedCharacters;
+    }
+
+    /**
+     * Getter for the maximum password length accepted by the website.
+     *
+     * @return maximum length or NO_MAX_LENGTH
+     */
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Generates a random password with the given generator, see GenerationPolicy.
+     */
+
+    @Override
+    public String generate(PasswordGenerator generator) {
+        return generator.generatePassword(this);
+    }
+
+    /**
+     * Getter for the compiled generation plan: the alphabet to choose from for every position of the password.
+     * The arrays are shared and must not be modified.
+     *
+     * @return one alphabet per position
+     */
+
+    char[][] getPlan() {
+        return plan;
+    }
+
+    /**
+     * Helper method removing the excluded characters from a character class.
+     *
+     * @param characters         characters of the class
+     * @param excludedCharacters characters to remove
+     * @return remaining characters
+     */
+
+    private static char[] withoutExcluded(String characters, String excludedCharacters) {
+        StringBuilder remaining = new StringBuilder(characters.length());
+        for (int i = 0; i < characters.length(); i++) {
+            if (excludedCharacters.indexOf(characters.charAt(i)) < 0) {
+                remaining.append(characters.charAt(i));
+            }
+        }
+        return remaining.toString().toCharArray();
+    }
+}
@@ -0,0 +1,202 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * The PasswordPool class keeps a small ring buffer of passwords generated in advance for the current policy
+ * (a PasswordPolicy or a PassphrasePolicy), so the generator screens can show a new password instantly when the
+ * user taps the button. The buffer is refilled on a low priority background thread whenever a password has been taken.
+ * Setting a new policy or invalidating the pool throws away all waiting passwords. Passwords which were being
+ * generated for the old policy at that moment are dropped as well, since every change increments a generation
+ * counter which the refill thread checks before storing a password.
+ *
+ * @author Andreas Morasch
+ * @see PasswordGenerator
+ */
+
+public class PasswordPool {
+
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private final String[] ring;
+    private final PasswordGenerator refillGenerator = new PasswordGenerator();
+    private final PasswordGenerator fallbackGenerator = new PasswordGenerator();
+    private int head;
+    private int size;
+    private GenerationPolicy policy;
+    private long generation;
+    private long failedGeneration = -1;
+    private boolean shutdown;
+    private Thread worker;
+
+    /**
+     * Constructor for the PasswordPool class with DEFAULT_CAPACITY.
+     */
+
+    public PasswordPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for the PasswordPool class.
+     *
+     * @param capacity number of passwords generated in advance
+     */
+
+    public PasswordPool(int capacity) {
+        this.ring = new String[capacity];
+    }
+
+    /**
+     * This method sets the policy of the passwords in the pool. If it differs from the current one, all waiting
+     * passwords are thrown away and the pool is refilled for the new policy in the background.
+     *
+     * @param policy compiled password policy or passphrase policy
+     */
+
+    public synchronized void setPolicy(GenerationPolicy policy) {
+        if (policy == this.policy) {
+            return;
+        }
+        clear();
+        this.policy = policy;
+        startWorker();
+        notifyAll();
+    }
+
+    /**
+     * This method throws away all waiting passwords and stops refilling until a new policy is set.
+     * It is called as soon as a setting of the generator changes.
+     */
+
+    public synchronized void invalidate() {
+        clear();
+        this.policy = null;
+    }
+
+    /**
+     * This method returns the next password of the pool. If the pool is empty, e.g. right after the policy has been
+     * changed, the password is generated on the calling thread instead.
+     *
+     * @return random password that meets the current policy
+     * @throws IllegalStateException if no policy has been set
+     */
+
+    public String take() {
+        GenerationPolicy currentPolicy;
+        synchronized (this) {
+            if (policy == null) {
+                throw new IllegalStateException("No password policy set");
+            }
+            if (size > 0) {
+                String password = ring[head];
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+                notifyAll();
+                return password;
+            }
+            currentPolicy = policy;
+        }
+        synchronized (fallbackGenerator) {
+            return currentPolicy.generate(fallbackGenerator);
+        }
+    }
+
+    /**
+     * Getter for the number of passwords waiting in the pool.
+     *
+     * @return number of waiting passwords
+     */
+
+    public synchronized int getAvailable() {
+        return size;
+    }
+
+    /**
+     * This method stops the refill thread and throws away all waiting passwords. The pool cannot be used afterwards.
+     */
+
+    public synchronized void shutdown() {
+        clear();
+        shutdown = true;
+        notifyAll();
+    }
+
+    /**
+     * Helper method starting the refill thread on first use.
+     */
+
+    private void startWorker() {
+        if (worker != null || shutdown) {
+            return;
+        }
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                refill();
+            }
+        }, "PasswordPool");
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Main loop of the refill thread: waits until the pool has a free slot, generates one password outside of the
+     * lock and stores it, unless the policy has been changed in the meantime.
+     */
+
+    private void refill() {
+        while (true) {
+            GenerationPolicy currentPolicy;
+            long currentGeneration;
+            synchronized (this) {
+                while (!shutdown && (policy == null || size == ring.length || failedGeneration == generation)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (shutdown) {
+                    return;
+                }
+                currentPolicy = policy;
+                currentGeneration = generation;
+            }
+
+            String password;
+            try {
+                password = currentPolicy.generate(refillGenerator);
+            } catch (RuntimeException e) {
+                // z.B. eine nicht lesbare Wortliste, take() wirft den Fehler dann auf dem aufrufenden Thread
+                Log.e("PasswordPool: ", "Password could not be generated", e);
+                synchronized (this) {
+                    failedGeneration = currentGeneration;
+                }
+                continue;
+            }
+
+            synchronized (this) {
+                if (currentGeneration == generation && size < ring.length) {
+                    ring[(head + size) % ring.length] = password;
+                    size++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method removing all waiting passwords and starting a new generation. Must be called with the lock held.
+     */
+
+    private void clear() {
+        Arrays.fill(ring, null);
+        head = 0;
+        size = 0;
+        generation++;
+    }
+}
@@ -0,0 +1,115 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The PasswordRecord class describes the binary format in which encrypted passwords are stored.
+ * A record consists of a version byte, the 12 byte IV and the AES-GCM ciphertext including the 16 byte
+ * authentication tag:
+ * [version (1)] [IV (12)] [ciphertext + tag (n + 16)]
+ * Version 0x02 records are sealed with AES-CTR and a truncated HMAC-SHA256 instead (see CtrHmacEngine), but
+ * have the same layout and size. Which engine writes new records is decided by CryptoEngines.
+ * Password records are bound to their entry: the blind index of the website name is authenticated as associated
+ * data, so a record copied into another entry cannot be opened there. Bound records carry BOUND_FLAG in their
+ * version byte (0x11 and 0x12), records without associated data (website names, wrapped keys and passwords written
+ * before) keep 0x01 and 0x02.
+ * Records written before this format existed are Base64 encoded AES/ECB ciphertexts. They always start
+ * with a Base64 character and can therefore never be mistaken for a versioned record.
+ *
+ * @author Andreas Morasch
+ * @see KeyContext
+ * @see CryptoEngine
+ */
+
+public final class PasswordRecord {
+
+    public static final byte VERSION_AES_GCM = 0x01;
+    public static final byte VERSION_AES_CTR_HMAC = 0x02;
+    public static final byte BOUND_FLAG = 0x10;
+    public static final byte VERSION_AES_GCM_BOUND = VERSION_AES_GCM | BOUND_FLAG;
+    public static final byte VERSION_AES_CTR_HMAC_BOUND = VERSION_AES_CTR_HMAC | BOUND_FLAG;
+    public static final int HEADER_LENGTH = 1;
+    public static final int IV_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+    public static final int OVERHEAD = HEADER_LENGTH + IV_LENGTH + TAG_LENGTH;
+
+    /**
+     * Private constructor, the class only offers constants and static methods.
+     */
+
+    private PasswordRecord() {
+    }
+
+    /**
+     * This method checks whether the given record is still stored in the old Base64 format
+     * and should be replaced by a versioned record.
+     *
+     * @param record stored record
+     * @return true if the record is a legacy Base64 record, false if it is a versioned binary record
+     */
+
+    public static boolean isLegacy(byte[] record) {
+        return record.length == 0 || !isVersion(record[0]);
+    }
+
+    /**
+     * This method checks whether the record in the remaining bytes of the given buffer is a legacy Base64 record.
+     * The position of the buffer is not changed.
+     *
+     * @param record buffer holding the stored record
+     * @return true if the record is a legacy Base64 record, false if it is a versioned binary record
+     */
+
+    public static boolean isLegacy(ByteBuffer record) {
+        return !record.hasRemaining() || !isVersion(record.get(record.position()));
+    }
+
+    /**
+     * This method checks whether the given record is bound to an entry, i.e. has been sealed with the blind index
+     * of its website name as associated data. Legacy records and records without associated data are not bound and
+     * should be replaced by a bound record.
+     *
+     * @param record stored record
+     * @return true if the record is a bound versioned record
+     */
+
+    public static boolean isBound(byte[] record) {
+        return !isLegacy(record) && (record[0] & BOUND_FLAG) != 0;
+    }
+
+    /**
+     * This method checks whether the given byte is the version byte of a versioned binary record.
+     *
+     * @param version first byte of a stored record
+     * @return true if the byte is a known record version
+     */
+
+    public static boolean isVersion(byte version) {
+        byte construction = getConstruction(version);
+        return construction == VERSION_AES_GCM || construction == VERSION_AES_CTR_HMAC;
+    }
+
+    /**
+     * This method returns the construction a record has been sealed with, independent of whether it is bound.
+     *
+     * @param version first byte of a stored record
+     * @return VERSION_AES_GCM or VERSION_AES_CTR_HMAC for known record versions
+     */
+
+    public static byte getConstruction(byte version) {
+        return (byte) (version & ~BOUND_FLAG);
+    }
+
+    /**
+     * This method returns the size of the largest record a password of the given length can result in.
+     * It can be used to size a reusable output buffer for AES_Encryption.encryptPassword(char[], ByteBuffer).
+     *
+     * @param passwordLength number of chars of the password
+     * @return maximum record length in bytes
+     */
+
+    public static int maxRecordLength(int passwordLength) {
+        // UTF-8 benötigt höchstens 3 Bytes pro char (Surrogatpaare: 4 Bytes für 2 chars)
+        return OVERHEAD + passwordLength * 3;
+    }
+}
@@ -0,0 +1,100 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * The PasswordSpliterator class is the source of the password streams of the PasswordGenerator. Passwords are only
+ * generated when the stream asks for them. For parallel streams the remaining passwords are split in halves, and
+ * every half gets its own RandomBuffer and char[], so the parts never share state and need no synchronisation.
+ *
+ * @author Andreas Morasch
+ * @see PasswordGenerator#stream(PasswordPolicy, long, boolean)
+ */
+
+@RequiresApi(api = Build.VERSION_CODES.N)
+final class PasswordSpliterator implements Spliterator<String> {
+
+    private static final long MIN_SPLIT_SIZE = 64;
+
+    private final PasswordPolicy policy;
+    private final RandomBuffer randomBuffer = new RandomBuffer();
+    private final char[] password;
+    private long remaining;
+
+    /**
+     * Constructor for the PasswordSpliterator class.
+     *
+     * @param policy compiled password policy
+     * @param count  number of passwords
+     */
+
+    PasswordSpliterator(PasswordPolicy policy, long count) {
+        this.policy = policy;
+        this.password = new char[policy.getLength()];
+        this.remaining = count;
+    }
+
+    /**
+     * Generates the next password and passes it to the action, see Spliterator.
+     */
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+        if (remaining <= 0) {
+            return false;
+        }
+        remaining--;
+        action.accept(PasswordGenerator.generate(policy.getPlan(), randomBuffer, password));
+        return true;
+    }
+
+    /**
+     * Generates all remaining passwords, see Spliterator.
+     */
+
+    @Override
+    public void forEachRemaining(Consumer<? super String> action) {
+        char[][] plan = policy.getPlan();
+        for (; remaining > 0; remaining--) {
+            action.accept(PasswordGenerator.generate(plan, randomBuffer, password));
+        }
+    }
+
+    /**
+     * Hands half of the remaining passwords to a new spliterator with its own RNG, see Spliterator.
+     * Small rests are not split, since a new SecureRandom costs more than generating a few passwords.
+     */
+
+    @Override
+    public Spliterator<String> trySplit() {
+        if (remaining < 2 * MIN_SPLIT_SIZE) {
+            return null;
+        }
+        long half = remaining / 2;
+        remaining -= half;
+        return new PasswordSpliterator(policy, half);
+    }
+
+    /**
+     * Returns the number of remaining passwords, see Spliterator.
+     */
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    /**
+     * Passwords are never null, their number is known in advance and stays exact after splitting, see Spliterator.
+     */
+
+    @Override
+    public int characteristics() {
+        return NONNULL | IMMUTABLE | SIZED | SUBSIZED;
+    }
+}
@@ -0,0 +1,565 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The PasswordStrengthEstimator class estimates how many guesses an attacker needs for a typed password and returns
+ * the result as entropy in bits (log2 of the guesses). Instead of rating the length only, the password is searched
+ * for patterns which are guessed first:
+ * words of the PasswordDictionary (also with upper case letters and leet substitutions like 4 for a or 0 for o),
+ * repeats of one character (aaaa), sequences (abcd, 4321) and keyboard patterns on QWERTZ and QWERTY (asdf, 1qay).
+ * Every match gets a number of guesses, every character not covered by a match counts as brute force over the
+ * character classes used in the password. The estimate is the cheapest combination of matches covering the password.
+ * The estimator keeps the matches of every start position and the position up to which the search from there has
+ * read the password. When the text changes, only start positions whose search has read a changed character are
+ * searched again, so typing at the end of the password only searches the last few positions. Combining the matches
+ * is one pass over the stored matches and is always redone.
+ * An instance belongs to one text field and is not thread-safe.
+ *
+ * @author Andreas Morasch
+ * @see PasswordDictionary
+ */
+
+public final class PasswordStrengthEstimator {
+
+    public static final int VERY_WEAK = 0;
+    public static final int WEAK = 1;
+    public static final int EXPANDABLE = 2;
+    public static final int STRONG = 3;
+    public static final int VERY_STRONG = 4;
+
+    private static final double[] SCORE_THRESHOLDS = {28, 40, 56, 72};
+    private static final int MIN_PATTERN_LENGTH = 3;
+    private static final double LN_2 = Math.log(2);
+
+    // Leet-Ersetzungen, Index ist das getippte Zeichen
+    private static final String[] LEET_SUBSTITUTIONS = new String[128];
+
+    // Tastaturzeilen ohne Umschalttaste, jede Zeile ist gegenueber der oberen etwas nach rechts versetzt
+    private static final String[][] KEYBOARD_LAYOUTS = {
+            {"1234567890ß", "qwertzuiopü", "asdfghjklöä", "yxcvbnm,.-"},
+            {"1234567890-", "qwertyuiop[", "asdfghjkl;'", "zxcvbnm,./"}
+    };
+    private static final int KEYBOARD_CHARACTERS = 256;
+    private static final byte[][] KEY_ROW = new byte[KEYBOARD_LAYOUTS.length][KEYBOARD_CHARACTERS];
+    private static final byte[][] KEY_COLUMN = new byte[KEYBOARD_LAYOUTS.length][KEYBOARD_CHARACTERS];
+    private static final int[] KEY_COUNT = new int[KEYBOARD_LAYOUTS.length];
+    private static final double[] AVERAGE_DEGREE = new double[KEYBOARD_LAYOUTS.length];
+
+    static {
+        String[] leet = {"4a", "@a", "3e", "1il", "!i", "0o", "$s", "5s", "7t", "+t", "|l"};
+        for (String substitution : leet) {
+            LEET_SUBSTITUTIONS[substitution.charAt(0)] = substitution.substring(1);
+        }
+
+        for (int layout = 0; layout < KEYBOARD_LAYOUTS.length; layout++) {
+            Arrays.fill(KEY_ROW[layout], (byte) -1);
+            for (int row = 0; row < KEYBOARD_LAYOUTS[layout].length; row++) {
+                String keys = KEYBOARD_LAYOUTS[layout][row];
+                for (int column = 0; column < keys.length(); column++) {
+                    KEY_ROW[layout][keys.charAt(column)] = (byte) row;
+                    KEY_COLUMN[layout][keys.charAt(column)] = (byte) column;
+                }
+                KEY_COUNT[layout] += keys.length();
+            }
+            int neighbours = 0;
+            for (String keys : KEYBOARD_LAYOUTS[layout]) {
+                for (int i = 0; i < keys.length(); i++) {
+                    for (char other = 0; other < KEYBOARD_CHARACTERS; other++) {
+                        if (direction(layout, keys.charAt(i), other) != 0) {
+                            neighbours++;
+                        }
+                    }
+                }
+            }
+            AVERAGE_DEGREE[layout] = (double) neighbours / KEY_COUNT[layout];
+        }
+    }
+
+    private final PasswordDictionary dictionary;
+    private final List<List<Match>> matches = new ArrayList<>();
+    private char[] text = new char[0];
+    private int[] reach = new int[0];
+    private double[] bestBits = new double[1];
+    private int length;
+    private double entropyBits;
+
+    /**
+     * Constructor for the PasswordStrengthEstimator class.
+     *
+     * @param dictionary dictionary of common passwords and words
+     */
+
+    public PasswordStrengthEstimator(PasswordDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * This method estimates the strength of the changed password. Only the start positions affected by the change
+     * are searched again, the matches of all other positions are reused.
+     *
+     * @param password current content of the password field
+     * @return estimated entropy in bits
+     */
+
+    public double update(CharSequence password) {
+        int newLength = password.length();
+        int prefix = 0;
+        int common = Math.min(length, newLength);
+        while (prefix < common && text[prefix] == password.charAt(prefix)) {
+            prefix++;
+        }
+        ensureCapacity(newLength);
+        for (int i = prefix; i < newLength; i++) {
+            text[i] = password.charAt(i);
+        }
+        if (newLength < length) {
+            Arrays.fill(text, newLength, length, '\0');
+        }
+        length = newLength;
+        while (matches.size() > length) {
+            matches.remove(matches.size() - 1);
+        }
+        while (matches.size() < length) {
+            matches.add(new ArrayList<Match>());
+        }
+
+        for (int start = 0; start < prefix; start++) {
+            if (reach[start] > prefix) {
+                search(start);
+            }
+        }
+        for (int start = prefix; start < length; start++) {
+            search(start);
+        }
+        entropyBits = combine();
+        return entropyBits;
+    }
+
+    /**
+     * Getter for the estimated entropy of the last password.
+     *
+     * @return estimated entropy in bits
+     */
+
+    public double getEntropyBits() {
+        return entropyBits;
+    }
+
+    /**
+     * Getter for the rating of the last password.
+     *
+     * @return VERY_WEAK, WEAK, EXPANDABLE, STRONG or VERY_STRONG
+     */
+
+    public int getScore() {
+        int score = VERY_WEAK;
+        while (score < SCORE_THRESHOLDS.length && entropyBits >= SCORE_THRESHOLDS[score]) {
+            score++;
+        }
+        return score;
+    }
+
+    /**
+     * This method wipes the copy of the password and all matches, e.g. when the screen is closed.
+     */
+
+    public void clear() {
+        Arrays.fill(text, '\0');
+        matches.clear();
+        length = 0;
+        entropyBits = 0;
+    }
+
+    /**
+     * Helper method searching all matches starting at the given position and storing how far the search has read
+     * the password. Reaching the end of the password counts as reading position length, since an appended character
+     * could extend a match.
+     *
+     * @param start start position
+     */
+
+    private void search(int start) {
+        List<Match> found = matches.get(start);
+        found.clear();
+        int reached = matchDictionary(start, PasswordDictionary.ROOT, start, 0, 0, found);
+        reached = Math.max(reached, matchRepeat(start, found));
+        reached = Math.max(reached, matchSequence(start, found));
+        for (int layout = 0; layout < KEYBOARD_LAYOUTS.length; layout++) {
+            reached = Math.max(reached, matchKeyboard(layout, start, found));
+        }
+        reach[start] = reached;
+    }
+
+    /**
+     * Helper method walking the trie from the given position. Every character is tried as typed (in lower case) and
+     * with its leet substitutions.
+     *
+     * @param start       start position of the word
+     * @param node        current node of the trie
+     * @param position    next position to read
+     * @param upperCase   number of upper case letters read so far
+     * @param substituted number of leet substitutions so far
+     * @param found       list the matches are added to
+     * @return exclusive end of the positions read
+     */
+
+    private int matchDictionary(int start, int node, int position, int upperCase, int substituted, List<Match> found) {
+        int rank = dictionary.rank(node);
+        if (rank > 0) {
+            int wordLength = position - start;
+            double guesses = rank * upperCaseVariations(start, wordLength, upperCase)
+                    * variations(substituted, wordLength - substituted);
+            found.add(new Match(position, log2(guesses)));
+        }
+        if (position == length) {
+            return length + 1;
+        }
+        char character = text[position];
+        char lowerCase = Character.toLowerCase(character);
+        int upper = upperCase + (character != lowerCase ? 1 : 0);
+        int reached = position + 1;
+
+        int next = dictionary.child(node, lowerCase);
+        if (next != PasswordDictionary.NO_NODE) {
+            reached = Math.max(reached, matchDictionary(start, next, position + 1, upper, substituted, found));
+        }
+        String substitutions = lowerCase < LEET_SUBSTITUTIONS.length ? LEET_SUBSTITUTIONS[lowerCase] : null;
+        if (substitutions != null) {
+            for (int i = 0; i < substitutions.length(); i++) {
+                next = dictionary.child(node, substitutions.charAt(i));
+                if (next != PasswordDictionary.NO_NODE) {
+                    reached = Math.max(reached, matchDictionary(start, next, position + 1, upper, substituted + 1, found));
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * Helper method matching a repeat of one character. Only the longest repeat is matched, i.e. a repeat has to
+     * start here.
+     *
+     * @param start start position
+     * @param found list the match is added to
+     * @return exclusive end of the positions read
+     */
+
+    private int matchRepeat(int start, List<Match> found) {
+        if (start > 0 && text[start - 1] == text[start]) {
+            return start + 1;
+        }
+        int end = start + 1;
+        while (end < length && text[end] == text[start]) {
+            end++;
+        }
+        if (end - start >= MIN_PATTERN_LENGTH) {
+            found.add(new Match(end, log2((double) cardinality(text[start]) * (end - start))));
+        }
+        return end == length ? length + 1 : end + 1;
+    }
+
+    /**
+     * Helper method matching an ascending or descending sequence of letters or digits, e.g. abcd or 4321.
+     * Only the longest sequence is matched, i.e. a sequence has to start here.
+     *
+     * @param start start position
+     * @param found list the match is added to
+     * @return exclusive end of the positions read
+     */
+
+    private int matchSequence(int start, List<Match> found) {
+        if (start + 1 >= length) {
+            return length + 1;
+        }
+        int delta = text[start + 1] - text[start];
+        if ((delta != 1 && delta != -1) || !continuesSequence(start, delta)) {
+            return start + 2;
+        }
+        if (start > 0 && continuesSequence(start - 1, delta)) {
+            return start + 2;
+        }
+        int end = start + 2;
+        while (end < length && continuesSequence(end - 1, delta)) {
+            end++;
+        }
+        if (end - start >= MIN_PATTERN_LENGTH) {
+            char first = text[start];
+            int base = "aAzZ019".indexOf(first) >= 0 ? 4 : Character.isDigit(first) ? 10 : 26;
+            found.add(new Match(end, log2((double) base * (end - start) * (delta < 0 ? 2 : 1))));
+        }
+        return end == length ? length + 1 : end + 1;
+    }
+
+    /**
+     * Helper method matching a path of neighbouring keys of one keyboard layout. Only the longest path is matched,
+     * i.e. a path has to start here. Every change of the direction makes the path harder to guess.
+     *
+     * @param layout index of the keyboard layout
+     * @param start  start position
+     * @param found  list the match is added to
+     * @return exclusive end of the positions read
+     */
+
+    private int matchKeyboard(int layout, int start, List<Match> found) {
+        if (start + 1 >= length) {
+            return length + 1;
+        }
+        int direction = direction(layout, text[start], text[start + 1]);
+        if (direction == 0 || (start > 0 && direction(layout, text[start - 1], text[start]) != 0)) {
+            return start + 2;
+        }
+        int turns = 1;
+        int end = start + 2;
+        while (end < length) {
+            int next = direction(layout, text[end - 1], text[end]);
+            if (next == 0) {
+                break;
+            } else if (next != direction) {
+                turns++;
+                direction = next;
+            }
+            end++;
+        }
+        int pathLength = end - start;
+        if (pathLength >= MIN_PATTERN_LENGTH) {
+            int upperCase = 0;
+            for (int i = start; i < end; i++) {
+                if (Character.isUpperCase(text[i])) {
+                    upperCase++;
+                }
+            }
+            double guesses = 0;
+            for (int i = 2; i <= pathLength; i++) {
+                for (int j = 1; j <= Math.min(turns, i - 1); j++) {
+                    guesses += binomial(i - 1, j - 1) * KEY_COUNT[layout] * Math.pow(AVERAGE_DEGREE[layout], j);
+                }
+            }
+            found.add(new Match(end, log2(guesses * variations(upperCase, pathLength - upperCase))));
+        }
+        return end == length ? length + 1 : end + 1;
+    }
+
+    /**
+     * Helper method finding the cheapest combination of matches and brute force characters covering the password.
+     *
+     * @return estimated entropy in bits
+     */
+
+    private double combine() {
+        int pool = 0;
+        boolean[] usedClasses = new boolean[4];
+        for (int i = 0; i < length; i++) {
+            int characterClass = characterClass(text[i]);
+            if (!usedClasses[characterClass]) {
+                usedClasses[characterClass] = true;
+                pool += cardinality(text[i]);
+            }
+        }
+        double bruteForceBits = pool > 0 ? log2(pool) : 0;
+
+        bestBits[0] = 0;
+        Arrays.fill(bestBits, 1, length + 1, Double.POSITIVE_INFINITY);
+        for (int start = 0; start < length; start++) {
+            bestBits[start + 1] = Math.min(bestBits[start + 1], bestBits[start] + bruteForceBits);
+            for (Match match : matches.get(start)) {
+                bestBits[match.end] = Math.min(bestBits[match.end], bestBits[start] + match.bits);
+            }
+        }
+        return bestBits[length];
+    }
+
+    /**
+     * Helper method checking whether the character after the given position continues a sequence.
+     *
+     * @param position position of the previous character
+     * @param delta    step of the sequence, 1 or -1
+     * @return true if both characters are of the same class and differ by delta
+     */
+
+    private boolean continuesSequence(int position, int delta) {
+        return text[position + 1] - text[position] == delta
+                && characterClass(text[position]) == characterClass(text[position + 1])
+                && Character.isLetterOrDigit(text[position]) && Character.isLetterOrDigit(text[position + 1]);
+    }
+
+    /**
+     * Helper method returning the number of guesses for the upper case letters of a word: a capitalised first
+     * letter or a word in capitals only doubles the guesses, other mixes are counted with variations(int, int).
+     *
+     * @param start      start position of the word
+     * @param wordLength length of the word
+     * @param upperCase  number of upper case letters
+     * @return factor of the guesses
+     */
+
+    private double upperCaseVariations(int start, int wordLength, int upperCase) {
+        if (upperCase == 0) {
+            return 1;
+        } else if (upperCase == wordLength || (upperCase == 1 && Character.isUpperCase(text[start]))) {
+            return 2;
+        }
+        return variations(upperCase, wordLength - upperCase);
+    }
+
+    /**
+     * Helper method returning the number of ways to change up to min(changed, unchanged) characters of a match,
+     * e.g. letters to upper case or leet substitutions.
+     *
+     * @param changed   number of changed characters
+     * @param unchanged number of unchanged characters
+     * @return factor of the guesses, at least 1
+     */
+
+    private static double variations(int changed, int unchanged) {
+        if (changed == 0) {
+            return 1;
+        } else if (unchanged == 0) {
+            return 2;
+        }
+        double variations = 0;
+        for (int k = 1; k <= Math.min(changed, unchanged); k++) {
+            variations += binomial(changed + unchanged, k);
+        }
+        return variations;
+    }
+
+    /**
+     * Helper method calculating a binomial coefficient.
+     *
+     * @param n number of elements
+     * @param k number of chosen elements
+     * @return n choose k
+     */
+
+    private static double binomial(int n, int k) {
+        double result = 1;
+        for (int i = 1; i <= k; i++) {
+            result = result * (n - k + i) / i;
+        }
+        return result;
+    }
+
+    /**
+     * Helper method returning the direction from one key to a neighbouring key.
+     *
+     * @param layout index of the keyboard layout
+     * @param from   first character
+     * @param to     second character
+     * @return 1 to 6 for the six neighbours of a key, 0 if the keys are not neighbours
+     */
+
+    private static int direction(int layout, char from, char to) {
+        char fromKey = Character.toLowerCase(from);
+        char toKey = Character.toLowerCase(to);
+        if (fromKey >= KEYBOARD_CHARACTERS || toKey >= KEYBOARD_CHARACTERS
+                || KEY_ROW[layout][fromKey] < 0 || KEY_ROW[layout][toKey] < 0) {
+            return 0;
+        }
+        int rows = KEY_ROW[layout][toKey] - KEY_ROW[layout][fromKey];
+        int columns = KEY_COLUMN[layout][toKey] - KEY_COLUMN[layout][fromKey];
+        if (rows == 0 && columns == 1) {
+            return 1;
+        } else if (rows == 0 && columns == -1) {
+            return 2;
+        } else if (rows == 1 && columns == -1) {
+            return 3;
+        } else if (rows == 1 && columns == 0) {
+            return 4;
+        } else if (rows == -1 && columns == 0) {
+            return 5;
+        } else if (rows == -1 && columns == 1) {
+            return 6;
+        }
+        return 0;
+    }
+
+    /**
+     * Helper method returning the character class of a character.
+     *
+     * @param character character of the password
+     * @return 0 for lower case letters, 1 for upper case letters, 2 for digits and 3 for all other characters
+     */
+
+    private static int characterClass(char character) {
+        if (Character.isLowerCase(character)) {
+            return 0;
+        } else if (Character.isUpperCase(character)) {
+            return 1;
+        } else if (Character.isDigit(character)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * Helper method returning the number of characters of the class of a character.
+     *
+     * @param character character of the password
+     * @return 26 for letters, 10 for digits and 33 for all other characters
+     */
+
+    private static int cardinality(char character) {
+        switch (characterClass(character)) {
+            case 0:
+            case 1:
+                return 26;
+            case 2:
+                return 10;
+            default:
+                return 33;
+        }
+    }
+
+    /**
+     * Helper method calculating the binary logarithm.
+     *
+     * @param value positive value
+     * @return log2 of the value
+     */
+
+    private static double log2(double value) {
+        return Math.log(value) / LN_2;
+    }
+
+    /**
+     * Helper method growing the arrays for a longer password, the old copy of the password is wiped.
+     *
+     * @param capacity length of the password
+     */
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > text.length) {
+            int newCapacity = Math.max(capacity, 2 * text.length);
+            char[] newText = Arrays.copyOf(text, newCapacity);
+            Arrays.fill(text, '\0');
+            text = newText;
+            reach = Arrays.copyOf(reach, newCapacity);
+            bestBits = new double[newCapacity + 1];
+        }
+    }
+
+    /**
+     * A match found in the password: it ends before position end and costs the given number of bits.
+     */
+
+    private static final class Match {
+
+        private final int end;
+        private final double bits;
+
+        /**
+         * Constructor for the Match class.
+         *
+         * @param end  exclusive end position
+         * @param bits log2 of the guesses
+         */
+
+        private Match(int end, double bits) {
+            this.end = end;
+            this.bits = bits;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * The RandomBuffer class is the source of randomness of the PasswordGenerator. Random bytes are read from a
+ * SecureRandom in blocks of BUFFER_SIZE bytes, so a whole password costs only one or two calls to the
+ * synchronized SecureRandom instead of one call per character.
+ * Bytes are mapped to indices with rejection sampling: a byte is only used if it is below the largest multiple
+ * of the bound not greater than 256, otherwise it is dropped. This way every index is equally likely, which is not
+ * the case for a plain byte % bound. Instances are not thread-safe.
+ * Subclasses may replace the source of the bytes by overriding nextBlock(byte[]), see DerivedRandomBuffer.
+ *
+ * @author Andreas Morasch
+ * @see PasswordGenerator
+ */
+
+class RandomBuffer {
+
+    static final int MAX_BOUND = 256;
+    private static final int BUFFER_SIZE = 512;
+
+    private final SecureRandom secureRandom;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = BUFFER_SIZE;
+
+    /**
+     * Constructor for the RandomBuffer class using a new SecureRandom.
+     */
+
+    RandomBuffer() {
+        this(new SecureRandom());
+    }
+
+    /**
+     * Constructor for the RandomBuffer class.
+     *
+     * @param secureRandom source of the random bytes
+     */
+
+    RandomBuffer(SecureRandom secureRandom) {
+        this.secureRandom = secureRandom;
+    }
+
+    /**
+     * This method returns a uniformly distributed random index.
+     *
+     * @param bound upper bound (exclusive), between 1 and MAX_BOUND
+     * @return random index between 0 (inclusive) and bound (exclusive)
+     */
+
+    int nextIndex(int bound) {
+        if (bound <= 0 || bound > MAX_BOUND) {
+            throw new IllegalArgumentException("bound must be between 1 and " + MAX_BOUND + ": " + bound);
+        }
+        int limit = MAX_BOUND - MAX_BOUND % bound;
+        while (true) {
+            int value = nextByte();
+            if (value < limit) {
+                return value % bound;
+            }
+        }
+    }
+
+    /**
+     * This method returns a uniformly distributed random index for bounds beyond MAX_BOUND, e.g. the position of a
+     * word in a large word list. Four random bytes are combined to a 31 bit value, rejection sampling works the same
+     * way as in nextIndex(int).
+     *
+     * @param bound upper bound (exclusive), at least 1
+     * @return random index between 0 (inclusive) and bound (exclusive)
+     */
+
+    int nextInt(int bound) {
+        if (bound <= MAX_BOUND) {
+            return nextIndex(bound);
+        }
+        long range = 1L << 31;
+        long limit = range - range % bound;
+        while (true) {
+            int value = (nextByte() << 24 | nextByte() << 16 | nextByte() << 8 | nextByte()) & Integer.MAX_VALUE;
+            if (value < limit) {
+                return value % bound;
+            }
+        }
+    }
+
+    /**
+     * This method fills a range of the given array with uniformly distributed characters of the alphabet.
+     *
+     * @param password array to be filled
+     * @param offset   first position to be filled
+     * @param length   number of characters
+     * @param alphabet characters to choose from, at most MAX_BOUND
+     */
+
+    void fill(char[] password, int offset, int length, char[] alphabet) {
+        for (int i = offset; i < offset + length; i++) {
+            password[i] = alphabet[nextIndex(alphabet.length)];
+        }
+    }
+
+    /**
+     * This method wipes the random bytes which have not been used yet, so they cannot be read from the heap later.
+     */
+
+    void wipe() {
+        Arrays.fill(buffer, (byte) 0);
+        position = BUFFER_SIZE;
+    }
+
+    /**
+     * This method fills the buffer with the next block of random bytes.
+     *
+     * @param block buffer to be filled completely
+     */
+
+    void nextBlock(byte[] block) {
+        secureRandom.nextBytes(block);
+    }
+
+    /**
+     * Helper method returning the next unused random byte, the buffer is refilled with one bulk read when it is used up.
+     *
+     * @return random value between 0 and 255
+     */
+
+    private int nextByte() {
+        if (position == BUFFER_SIZE) {
+            nextBlock(buffer);
+            position = 0;
+        }
+        return buffer[position++] & 0xFF;
+    }
+}
@@ -1,20 +1,31 @@
 package hsos.prog3.projektarbeit.bitlocker.logik;
 
+import android.os.Build;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
 import hsos.prog3.projektarbeit.bitlocker.R;
 
 /**
  * The RecyclerAdapter class associates the given data (website names) with the ViewHolder's views.
  * The RecyclerView requests those views and binds the views to their data, by calling methods in the RecyclerAdapter.
+ * The website names are handed over encrypted and are only decrypted when their row is bound for the first time,
+ * so rows which are never shown are never decrypted.
  *
  * @author Andreas Morasch
  */
@@ -26,21 +37,47 @@ import hsos.prog3.projektarbeit.bitlocker.R;
 
 public class RecyclerAdapter extends RecyclerView.Adapter<RecyclerAdapter.MyViewHolder> {
 
-    private final ArrayList<String> websiteList;
+    private final ArrayList<byte[]> encryptedWebsiteList;
+    private final String[] websiteList;
+    private final AES_Encryption aes_encryption;
     private final RecyclerViewClickListener listener;
 
     /**
      * Constructor for the RecyclerAdapter class to initialize the dataset of the adapter.
      *
-     * @param websiteList list of website names to be passed in order to create the recycler adapter
-     * @param listener    click listener for the ViewHolder's view
+     * @param encryptedWebsiteList list of encrypted website names to be passed in order to create the recycler adapter
+     * @param aes_encryption       aes_encryption object holding the data key
+     * @param listener             click listener for the ViewHolder's view
      */
 
-    public RecyclerAdapter(ArrayList<String> websiteList, RecyclerViewClickListener listener) {
-        this.websiteList = websiteList;
+    public RecyclerAdapter(ArrayList<byte[]> encryptedWebsiteList, AES_Encryption aes_encryption, RecyclerViewClickListener listener) {
+        this.encryptedWebsiteList = encryptedWebsiteList;
+        this.websiteList = new String[encryptedWebsiteList.size()];
+        this.aes_encryption = aes_encryption;
         this.listener = listener;
     }
 
+    /**
+     * This method returns the decrypted website name at the given position. Every name is decrypted
+     * only once, when it is needed for the first time.
+     *
+     * @param position position of the website name
+     * @return decrypted website name, or an empty String if it could not be decrypted
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    public String getWebsite(int position) {
+        if (websiteList[position] == null) {
+            try {
+                websiteList[position] = aes_encryption.decryptPassword(encryptedWebsiteList.get(position));
+            } catch (UnsupportedEncodingException | NoSuchPaddingException | NoSuchAlgorithmException | IllegalBlockSizeException | BadPaddingException | InvalidKeyException e) {
+                e.printStackTrace();
+                return "";
+            }
+        }
+        return websiteList[position];
+    }
+
     /**
      * Provide a reference to the type of views that you are using
      * (custom ViewHolder).
@@ -97,9 +134,10 @@ public class RecyclerAdapter extends RecyclerView.Adapter<RecyclerAdapter.MyView
      * @param position position where the content will be replaced
      */
 
+    @RequiresApi(api = Build.VERSION_CODES.O)
     @Override
     public void onBindViewHolder(@NonNull RecyclerAdapter.MyViewHolder holder, int position) {
-        String website = websiteList.get(position);
+        String website = getWebsite(position);
         holder.nameTxt.setText(website);
     }
 
@@ -111,7 +149,7 @@ public class RecyclerAdapter extends RecyclerView.Adapter<RecyclerAdapter.MyView
 
     @Override
     public int getItemCount() {
-        return websiteList.size();
+        return encryptedWebsiteList.size();
     }
 
     /**
@@ -0,0 +1,259 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import hsos.prog3.projektarbeit.bitlocker.BuildConfig;
+
+/**
+ * The WordList class gives access to the word list of the passphrase generator without loading it onto the heap.
+ * The list is bundled as text asset with one word per line. On first use it is converted once into an index file
+ * in the app's files directory, which is then memory-mapped:
+ * [magic (4)] [format version (4)] [app version code (4)] [word count n (4)] [n + 1 offsets (4 each)] [UTF-8 words]
+ * Reading a word only touches the page of its two offsets and the page of its bytes, so neither startup time nor
+ * heap use grows with the size of the list. The index file is rebuilt after an app update, since the bundled list
+ * may have changed. Lines which are empty or start with # are skipped.
+ * The mapping is read with absolute accesses only, so one instance can be used by several threads.
+ *
+ * @author Andreas Morasch
+ * @see PassphrasePolicy
+ */
+
+public final class WordList {
+
+    public static final String DEFAULT_ASSET = "wordlist_de.txt";
+
+    private static final int MAGIC = 0x424C574C;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    private final String assetName;
+    private volatile ByteBuffer index;
+    private int size;
+
+    /**
+     * Constructor for the WordList class. The list is only read when it is used for the first time.
+     *
+     * @param context   context of the app, used to open the asset and the files directory
+     * @param assetName name of the bundled word list
+     */
+
+    public WordList(Context context, String assetName) {
+        this.context = context.getApplicationContext();
+        this.assetName = assetName;
+    }
+
+    /**
+     * Getter for the number of words.
+     *
+     * @return number of words in the list
+     * @throws IllegalStateException if the word list cannot be read
+     */
+
+    public int size() {
+        getIndex();
+        return size;
+    }
+
+    /**
+     * This method reads one word of the list.
+     *
+     * @param position position of the word, between 0 and size() - 1
+     * @return word
+     * @throws IndexOutOfBoundsException if there is no word at this position
+     * @throws IllegalStateException     if the word list cannot be read
+     */
+
+    public String get(int position) {
+        ByteBuffer mapped = getIndex();
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("No word at " + position + ", size " + size);
+        }
+        int start = mapped.getInt(HEADER_LENGTH + 4 * position);
+        int end = mapped.getInt(HEADER_LENGTH + 4 * (position + 1));
+        byte[] word = new byte[end - start];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = mapped.get(start + i);
+        }
+        return new String(word, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method returning the mapped index file, building and mapping it on first use.
+     *
+     * @return mapped index file
+     * @throws IllegalStateException if the word list cannot be read
+     */
+
+    private ByteBuffer getIndex() {
+        ByteBuffer mapped = index;
+        if (mapped != null) {
+            return mapped;
+        }
+        synchronized (this) {
+            if (index == null) {
+                try {
+                    File indexFile = new File(context.getFilesDir(), assetName + ".idx");
+                    mapped = map(indexFile);
+                    if (mapped == null) {
+                        buildIndex(indexFile);
+                        mapped = map(indexFile);
+                    }
+                    if (mapped == null) {
+                        throw new IOException("Invalid word list index " + indexFile);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                size = mapped.getInt(12);
+                index = mapped;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Helper method mapping an index file read-only, if it exists and belongs to this version of the app.
+     * The mapping stays valid after the channel has been closed.
+     *
+     * @param indexFile index file
+     * @return mapped index file or null if it has to be built first
+     * @throws IOException if the file cannot be read
+     */
+
+    private static ByteBuffer map(File indexFile) throws IOException {
+        if (!indexFile.isFile() || indexFile.length() < HEADER_LENGTH) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT_VERSION || mapped.getInt(8) != BuildConfig.VERSION_CODE) {
+                return null;
+            }
+            return mapped;
+        }
+    }
+
+    /**
+     * Helper method converting the bundled word list into an index file. The asset is streamed twice: first to
+     * count the words, then to write offsets and words at their final positions. A temporary file is renamed at
+     * the end, so an interrupted build never leaves a broken index behind.
+     *
+     * @param indexFile index file to be written
+     * @throws IOException if the asset cannot be read or the file cannot be written
+     */
+
+    private void buildIndex(File indexFile) throws IOException {
+        int wordCount = 0;
+        try (BufferedReader reader = openAsset()) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (isWord(line)) {
+                    wordCount++;
+                }
+            }
+        }
+
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        long dataStart = HEADER_LENGTH + 4L * (wordCount + 1);
+        try (BufferedReader reader = openAsset();
+             RandomAccessFile file = new RandomAccessFile(tmpFile, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(0);
+            ByteBuffer offsets = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            ByteBuffer words = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            long offsetPosition = HEADER_LENGTH;
+            long wordPosition = dataStart;
+            long offset = dataStart;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!isWord(line)) {
+                    continue;
+                }
+                byte[] word = line.trim().getBytes(StandardCharsets.UTF_8);
+                if (word.length > WRITE_BUFFER_SIZE || offset + word.length > Integer.MAX_VALUE) {
+                    throw new IOException("Word list too large");
+                }
+                if (!offsets.hasRemaining()) {
+                    offsetPosition += flush(channel, offsets, offsetPosition);
+                }
+                offsets.putInt((int) offset);
+                if (words.remaining() < word.length) {
+                    wordPosition += flush(channel, words, wordPosition);
+                }
+                words.put(word);
+                offset += word.length;
+            }
+            if (!offsets.hasRemaining()) {
+                offsetPosition += flush(channel, offsets, offsetPosition);
+            }
+            offsets.putInt((int) offset);
+            flush(channel, offsets, offsetPosition);
+            flush(channel, words, wordPosition);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(BuildConfig.VERSION_CODE).putInt(wordCount);
+            flush(channel, header, 0);
+            channel.force(false);
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            throw new IOException("Could not write " + indexFile);
+        }
+    }
+
+    /**
+     * Helper method writing the filled part of a buffer at the given file position and clearing it.
+     *
+     * @param channel  channel of the index file
+     * @param buffer   buffer to be written
+     * @param position file position
+     * @return number of bytes written
+     * @throws IOException if the file cannot be written
+     */
+
+    private static int flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + length - buffer.remaining());
+        }
+        buffer.clear();
+        return length;
+    }
+
+    /**
+     * Helper method opening the bundled word list.
+     *
+     * @return reader for the asset
+     * @throws IOException if the asset cannot be opened
+     */
+
+    private BufferedReader openAsset() throws IOException {
+        return new BufferedReader(new InputStreamReader(context.getAssets().open(assetName), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Helper method checking whether a line of the word list holds a word.
+     *
+     * @param line line of the word list
+     * @return true if the line is neither empty nor a comment
+     */
+
+    private static boolean isWord(String line) {
+        String word = line.trim();
+        return !word.isEmpty() && !word.startsWith("#");
+    }
+}
@@ -1,9 +1,9 @@
 package hsos.prog3.projektarbeit.bitlocker.ui;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -12,8 +12,17 @@ import android.widget.Toast;
 import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
 import hsos.prog3.projektarbeit.bitlocker.R;
 import hsos.prog3.projektarbeit.bitlocker.datenbank.DatabaseHelper;
+import hsos.prog3.projektarbeit.bitlocker.datenbank.IntegritySweeper;
 import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
 
 /**
@@ -26,6 +35,7 @@ import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
 public class LoginScreen extends AppCompatActivity {
 
     private EditText masterpasswortConfirm;
+    private Button loginButton;
     private DatabaseHelper databaseHelper;
 
     /**
@@ -42,8 +52,8 @@ public class LoginScreen extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_login_screen);
 
-        Button loginButton = findViewById(R.id.loginButton);
-        loginButton.setOnClickListener(new View.OnClickListener() {
+        this.loginButton = findViewById(R.id.loginButton);
+        this.loginButton.setOnClickListener(new View.OnClickListener() {
             @RequiresApi(api = Build.VERSION_CODES.O)
             @Override
             public void onClick(View view) {
@@ -52,38 +62,132 @@ public class LoginScreen extends AppCompatActivity {
         });
 
         this.masterpasswortConfirm = findViewById(R.id.masterpasswortFeldLoginEditText);
-        this.databaseHelper = new DatabaseHelper(this);
+        this.databaseHelper = DatabaseHelper.getInstance(this);
     }
 
     /**
      * This method will check whether the entered password from the login screen
-     * matches the password in the database previously created in the RegistrationScreen.
-     * If it matches, then starting a new MainMenuHolder activity. If not outputs a toast
-     * message saying the password is incorrect.
+     * matches the master password previously created in the RegistrationScreen.
+     * The check only needs the verifier record of the vault and fails fast without reading any entry.
+     * Since the key derivation and the migration of old vaults take a while, the vault is unlocked on a background
+     * thread and the result is posted back to the UI thread, see onUnlockFinished(AES_Encryption).
      *
      * @see RegistrationScreen
+     * @see DatabaseHelper#unlockDataKey(String)
      */
 
     @RequiresApi(api = Build.VERSION_CODES.O)
     private void checkMasterPassword() {
-        String masterpasswordToConfirm = this.masterpasswortConfirm.getText().toString();
-        Cursor cursor = databaseHelper.getDataCursor();
-        cursor.moveToFirst();
-        String encryptedMasterPW = cursor.getString(1);
-        String decryptedMasterPW;
+        final String masterpasswordToConfirm = this.masterpasswortConfirm.getText().toString();
+        this.loginButton.setEnabled(false);
 
-        try {
-            AES_Encryption aes_encryption = new AES_Encryption(masterpasswordToConfirm);
-            decryptedMasterPW = aes_encryption.decryptPassword(encryptedMasterPW);
-        } catch (Throwable e) {
+        Thread unlockThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                AES_Encryption aes_encryption = null;
+                try {
+                    aes_encryption = databaseHelper.unlockDataKey(masterpasswordToConfirm);
+                    IntegritySweeper.Listener integrityListener = createIntegrityListener();
+                    resumeKeyRotation(aes_encryption, integrityListener);
+                    startIntegritySweep(aes_encryption, integrityListener);
+                } catch (BadPaddingException e) {
+                    // falsches Masterpasswort
+                } catch (UnsupportedEncodingException | NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException | InvalidKeyException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+
+                final AES_Encryption unlockedEncryption = aes_encryption;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onUnlockFinished(unlockedEncryption);
+                    }
+                });
+            }
+        });
+        unlockThread.start();
+    }
+
+    /**
+     * This method is called on the UI thread when the background unlock has finished. If the master password
+     * was correct, a new MainMenuHolder activity is started. If not outputs a toast message saying the
+     * password is incorrect.
+     *
+     * @param aes_encryption aes_encryption object holding the unlocked data key, null if the unlock failed
+     */
+
+    private void onUnlockFinished(AES_Encryption aes_encryption) {
+        this.loginButton.setEnabled(true);
+        if (aes_encryption == null) {
             Toast.makeText(this, getString(R.string.wrong_masterpassword), Toast.LENGTH_LONG).show();
             return;
         }
+        startActivity(new Intent(this, MainMenuHolder.class));
+    }
+
+    /**
+     * This method is called after a successful login and continues a master password change
+     * which has been interrupted before all entries were re-encrypted.
+     *
+     * @param aes_encryption    aes_encryption object holding the unlocked data key
+     * @param integrityListener listener receiving the entries which cannot be re-encrypted
+     * @see DatabaseHelper#resumeKeyRotation(AES_Encryption, IntegritySweeper.Listener)
+     */
 
-        if (decryptedMasterPW.equals(masterpasswordToConfirm)) {
-            Intent intent = new Intent(this, MainMenuHolder.class);
-            intent.putExtra("decryptedPassword", decryptedMasterPW);
-            startActivity(intent);
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private void resumeKeyRotation(AES_Encryption aes_encryption, IntegritySweeper.Listener integrityListener) {
+        try {
+            databaseHelper.resumeKeyRotation(aes_encryption, integrityListener);
+        } catch (NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException e) {
+            e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * This method is called after a successful login and starts the background check of all entries.
+     *
+     * @param aes_encryption    aes_encryption object holding the unlocked data key
+     * @param integrityListener listener receiving the results of the check
+     * @see DatabaseHelper#startIntegritySweep(AES_Encryption, IntegritySweeper.Listener)
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private void startIntegritySweep(AES_Encryption aes_encryption, IntegritySweeper.Listener integrityListener) {
+        databaseHelper.startIntegritySweep(aes_encryption, integrityListener);
+    }
+
+    /**
+     * This method creates the listener which is informed about damaged or modified entries, both by the
+     * key rotation and by the integrity check. If the check finds such entries, the user is informed with a toast.
+     *
+     * @return listener for the key rotation and the integrity check
+     */
+
+    private IntegritySweeper.Listener createIntegrityListener() {
+        return new IntegritySweeper.Listener() {
+            @Override
+            public void onEntryCorrupted(long rowId) {
+                Log.w("LoginScreen: ", "Integrity check failed for entry " + rowId);
+            }
+
+            @Override
+            public void onBatchVerified(int verifiedEntries, long watermark) {
+            }
+
+            @Override
+            public void onSweepFinished(int verifiedEntries, final int corruptedEntries, boolean completed) {
+                if (corruptedEntries == 0) {
+                    return;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Der Application-Context bleibt auch nach dem Wechsel ins Hauptmenü gültig
+                        Toast.makeText(getApplicationContext(), getString(R.string.integrity_check_failed, corruptedEntries),
+                                Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        };
+    }
+}
@@ -14,6 +14,7 @@ import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.google.android.material.navigation.NavigationBarView;
 
 import hsos.prog3.projektarbeit.bitlocker.R;
+import hsos.prog3.projektarbeit.bitlocker.datenbank.DatabaseHelper;
 import hsos.prog3.projektarbeit.bitlocker.ui.fragments.PwGeneratorFragment;
 import hsos.prog3.projektarbeit.bitlocker.ui.fragments.SafeFragment;
 import hsos.prog3.projektarbeit.bitlocker.ui.fragments.SettingsFragment;
@@ -141,6 +142,7 @@ public class MainMenuHolder extends AppCompatActivity {
              */
             @Override
             public void onFinish() {
+                DatabaseHelper.getInstance(context).lock();
                 Intent intent = new Intent(context, LoginScreen.class);
                 context.startActivity(intent);
             }
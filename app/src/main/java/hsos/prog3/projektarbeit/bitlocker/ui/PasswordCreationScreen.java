@@ -3,6 +3,8 @@ package hsos.prog3.projektarbeit.bitlocker.ui;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -13,6 +15,8 @@ import android.widget.Toast;
 import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.google.android.material.textfield.TextInputLayout;
+
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -24,7 +28,8 @@ import javax.crypto.NoSuchPaddingException;
 import hsos.prog3.projektarbeit.bitlocker.R;
 import hsos.prog3.projektarbeit.bitlocker.datenbank.DatabaseHelper;
 import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
-import hsos.prog3.projektarbeit.bitlocker.logik.PasswordGenerator;
+import hsos.prog3.projektarbeit.bitlocker.logik.PasswordPolicy;
+import hsos.prog3.projektarbeit.bitlocker.logik.PasswordPool;
 
 /**
  * The PasswordCreationScreen activity is the logical and graphical user interface
@@ -39,18 +44,21 @@ public class PasswordCreationScreen extends AppCompatActivity {
     private EditText websiteInit;
     private EditText passwordInit;
     private EditText passwordConfirm;
+    private TextInputLayout passwordInitLayout;
     private SeekBar seekBarPasswordStrength;
     private TextView textViewSeekBarPasswordStrength;
     private DatabaseHelper databaseHelper;
     private AES_Encryption aes_encryption;
-    private String decryptedMasterPW;
-    private PasswordGenerator passwordGenerator;
+    private PasswordPolicy passwordPolicy;
+    private PasswordPool passwordPool;
+    private PasswordStrengthIndicator passwordStrengthIndicator;
     private final Integer offsetSeekBar = 10;
 
     /**
      * onCreate method of the PasswordCreationScreen, also contains several onClick methods,
      * for the backToMainMenuButton, savePasswordToDBButton, generatePasswordButtonPasswordCreation
      * and an onSeekbarChangeListener for the seekBarPasswortStrength seek bar variable.
+     * A TextWatcher rates the typed password on every keystroke.
      *
      * @param savedInstanceState if the activity is being re-initialized after
      *                           previously being shut down then this Bundle contains
@@ -65,12 +73,31 @@ public class PasswordCreationScreen extends AppCompatActivity {
         this.websiteInit = findViewById(R.id.websiteFieldEditText);
         this.passwordInit = findViewById(R.id.passwordFieldEditText1);
         this.passwordConfirm = findViewById(R.id.passwordFieldEditText2);
+        this.passwordInitLayout = findViewById(R.id.passwordTextInputFieldCreationLayout1);
+        this.passwordStrengthIndicator = new PasswordStrengthIndicator(this, this.passwordInit, this.passwordInitLayout);
         this.seekBarPasswordStrength = findViewById(R.id.seekBarPasswortStrength);
         this.textViewSeekBarPasswordStrength = findViewById(R.id.textViewSeekBarPasswordStrength);
-        this.databaseHelper = new DatabaseHelper(this);
-        this.passwordGenerator = new PasswordGenerator();
+        this.databaseHelper = DatabaseHelper.getInstance(this);
+        this.passwordPool = new PasswordPool();
         Intent receiverIntent = getIntent();
 
+        passwordInit.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence charSequence, int start, int count, int after) {
+
+            }
+
+            @Override
+            public void onTextChanged(CharSequence charSequence, int start, int before, int count) {
+
+            }
+
+            @Override
+            public void afterTextChanged(Editable editable) {
+                passwordStrengthIndicator.showPasswordStrength(editable);
+            }
+        });
+
         if (receiverIntent.getStringExtra("generatedPassword") != null) {
             fillPasswordFieldsWithGeneratedPassword(receiverIntent.getStringExtra("generatedPassword"));
         }
@@ -110,6 +137,7 @@ public class PasswordCreationScreen extends AppCompatActivity {
                 textViewSeekBarPasswordStrength.setText(String.valueOf(checkPasswordStrengthRating(progress + offsetSeekBar) + " ("
                         + (progress + offsetSeekBar) + " " + getString(R.string.characters_shorted) + ", " + (progress + offsetSeekBar) + "% " +
                         getString(R.string.sp_characters_shorted) + ")"));
+                invalidatePasswordPolicy();
             }
 
             @Override
@@ -119,28 +147,68 @@ public class PasswordCreationScreen extends AppCompatActivity {
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
-
+                updatePasswordPolicy();
             }
         });
 
-        this.decryptedMasterPW = receiverIntent.getStringExtra("decryptedPassword");
-        try {
-            aes_encryption = new AES_Encryption(this.decryptedMasterPW);
-        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        this.aes_encryption = databaseHelper.getSessionEncryption();
+        if (this.aes_encryption == null) {
+            // Tresor wurde zwischenzeitlich gesperrt
+            startActivity(new Intent(this, LoginScreen.class));
+            finish();
+            return;
         }
+        updatePasswordPolicy();
     }
 
     /**
-     * This method will call the PasswordGenerator method generatePassword with the corresponding
-     * seek bar value chosen by the user when he pressed the generatePasswordButtonPasswordCreation.
+     * This method stops the background generation of the password pool and wipes the copy of the password
+     * in the strength estimator when the activity is destroyed.
+     */
+
+    @Override
+    protected void onDestroy() {
+        this.passwordPool.shutdown();
+        if (this.passwordStrengthIndicator != null) {
+            this.passwordStrengthIndicator.clear();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * This method compiles the password policy for the current seek bar value and lets the password pool
+     * generate passwords for it in the background. It is called once the user releases the seek bar.
+     */
+
+    private void updatePasswordPolicy() {
+        this.passwordPolicy = PasswordPolicy.fromSpecialCharPortion(seekBarPasswordStrength.getProgress() + offsetSeekBar,
+                seekBarPasswordStrength.getProgress() + offsetSeekBar);
+        this.passwordPool.setPolicy(this.passwordPolicy);
+    }
+
+    /**
+     * This method discards the password policy and the passwords waiting in the password pool.
+     * It is called while the user moves the seek bar.
+     */
+
+    private void invalidatePasswordPolicy() {
+        this.passwordPolicy = null;
+        this.passwordPool.invalidate();
+    }
+
+    /**
+     * This method will take a password generated with the corresponding seek bar value chosen by the user
+     * when he pressed the generatePasswordButtonPasswordCreation.
      * It also sets both text values of the passwordEditTexts (passwordInit and passwordConfirm)
      * automatically to the just generated password.
+     * The password is taken from the password pool, which has generated it in advance in the background.
      */
 
     private void generateRandomPassword() {
-        String generatedPassword = this.passwordGenerator.generatePassword(seekBarPasswordStrength.getProgress() + offsetSeekBar,
-                seekBarPasswordStrength.getProgress() + offsetSeekBar);
+        if (this.passwordPolicy == null) {
+            updatePasswordPolicy();
+        }
+        String generatedPassword = this.passwordPool.take();
         this.passwordInit.setText(generatedPassword);
         this.passwordConfirm.setText(generatedPassword);
     }
@@ -193,7 +261,6 @@ public class PasswordCreationScreen extends AppCompatActivity {
 
     private void backToMainMenu() {
         Intent intent = new Intent(this, MainMenuHolder.class);
-        intent.putExtra("decryptedPassword", decryptedMasterPW);
         startActivity(intent);
     }
 
@@ -233,15 +300,15 @@ public class PasswordCreationScreen extends AppCompatActivity {
         } else if (websiteInit.length() > 20) {
             Toast.makeText(this, getString(R.string.website_too_long), Toast.LENGTH_LONG).show();
             return;
-        } else if (databaseHelper.checkExistence(websiteInit)) {
+        } else if (databaseHelper.checkExistence(websiteInit, aes_encryption)) {
             Toast.makeText(this, getString(R.string.website_already_exists), Toast.LENGTH_LONG).show();
             return;
         } else {
             Toast.makeText(this, getString(R.string.password_created), Toast.LENGTH_LONG).show();
         }
 
-        String encryptedPW = this.aes_encryption.encryptPassword(passwordInit);
-        databaseHelper.addData(websiteInit, encryptedPW);
+        byte[] encryptedPW = this.aes_encryption.encryptPassword(passwordInit, this.aes_encryption.blindIndex(websiteInit));
+        databaseHelper.addData(websiteInit, encryptedPW, aes_encryption);
 
         this.websiteInit.getText().clear();
         this.passwordInit.getText().clear();
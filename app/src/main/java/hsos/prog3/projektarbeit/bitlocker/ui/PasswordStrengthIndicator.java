@@ -0,0 +1,145 @@
+package hsos.prog3.projektarbeit.bitlocker.ui;
+
+import android.content.Context;
+import android.text.Editable;
+import android.util.Log;
+import android.widget.EditText;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.google.android.material.textfield.TextInputLayout;
+
+import hsos.prog3.projektarbeit.bitlocker.R;
+import hsos.prog3.projektarbeit.bitlocker.logik.PasswordDictionary;
+import hsos.prog3.projektarbeit.bitlocker.logik.PasswordStrengthEstimator;
+
+/**
+ * The PasswordStrengthIndicator class rates the password typed into a password field and shows the rating with the
+ * estimated entropy as helper text of the field. It is shared by the PasswordCreationScreen and the PasswordViewScreen.
+ * The dictionary of the estimator is loaded by the SplashScreen. If it is not ready yet, e.g. because the process was
+ * restarted directly into one of the screens, the rating is skipped and the dictionary is loaded on a background
+ * thread; the password is rated as soon as it is ready, the main thread never waits for it.
+ *
+ * @author Andreas Morasch
+ * @see PasswordStrengthEstimator
+ */
+
+final class PasswordStrengthIndicator {
+
+    private final AppCompatActivity activity;
+    private final EditText passwordEditText;
+    private final TextInputLayout passwordLayout;
+    private PasswordStrengthEstimator passwordStrengthEstimator;
+    private boolean loadingDictionary;
+
+    /**
+     * Constructor for the PasswordStrengthIndicator class.
+     *
+     * @param activity         activity showing the password field
+     * @param passwordEditText password field to be rated
+     * @param passwordLayout   layout of the password field showing the rating as helper text
+     */
+
+    PasswordStrengthIndicator(AppCompatActivity activity, EditText passwordEditText, TextInputLayout passwordLayout) {
+        this.activity = activity;
+        this.passwordEditText = passwordEditText;
+        this.passwordLayout = passwordLayout;
+    }
+
+    /**
+     * This method rates the password and shows the rating with the estimated entropy as helper text
+     * of the password field. The estimator only searches the part of the password which has changed,
+     * so it is called on every keystroke.
+     *
+     * @param password current content of the password field
+     */
+
+    void showPasswordStrength(Editable password) {
+        if (password.length() == 0) {
+            if (this.passwordStrengthEstimator != null) {
+                this.passwordStrengthEstimator.clear();
+            }
+            this.passwordLayout.setHelperText(this.activity.getString(R.string.required));
+            return;
+        }
+        if (this.passwordStrengthEstimator == null) {
+            PasswordDictionary dictionary = PasswordDictionary.getLoadedDefault();
+            if (dictionary == null) {
+                // Ohne Wörterbuch keine Bewertung, sie folgt sobald es geladen ist
+                this.passwordLayout.setHelperText(null);
+                loadDictionary();
+                return;
+            }
+            this.passwordStrengthEstimator = new PasswordStrengthEstimator(dictionary);
+        }
+        int entropyBits = (int) this.passwordStrengthEstimator.update(password);
+        this.passwordLayout.setHelperText(this.activity.getString(R.string.password_strength_estimate,
+                checkEstimatedStrengthRating(this.passwordStrengthEstimator.getScore()), entropyBits));
+    }
+
+    /**
+     * This method wipes the copy of the password in the strength estimator, e.g. when the activity is destroyed.
+     */
+
+    void clear() {
+        if (this.passwordStrengthEstimator != null) {
+            this.passwordStrengthEstimator.clear();
+        }
+    }
+
+    /**
+     * This method returns the safety feedback String for a score of the PasswordStrengthEstimator.
+     *
+     * @param score score between PasswordStrengthEstimator.VERY_WEAK and PasswordStrengthEstimator.VERY_STRONG
+     * @return safety feedback result string
+     */
+
+    private String checkEstimatedStrengthRating(int score) {
+        switch (score) {
+            case PasswordStrengthEstimator.VERY_WEAK:
+                return this.activity.getString(R.string.very_weak);
+            case PasswordStrengthEstimator.WEAK:
+                return this.activity.getString(R.string.weak);
+            case PasswordStrengthEstimator.EXPANDABLE:
+                return this.activity.getString(R.string.expandable);
+            case PasswordStrengthEstimator.STRONG:
+                return this.activity.getString(R.string.strong);
+            default:
+                return this.activity.getString(R.string.very_strong);
+        }
+    }
+
+    /**
+     * Helper method loading the dictionary on a background thread and rating the current password afterwards.
+     * If the bundled lists cannot be read, the password stays without rating.
+     */
+
+    private void loadDictionary() {
+        if (this.loadingDictionary) {
+            return;
+        }
+        this.loadingDictionary = true;
+        final Context context = this.activity.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PasswordDictionary.getDefault(context);
+                } catch (IllegalStateException e) {
+                    Log.e("PasswordStrengthIndicator: ", "Dictionary could not be loaded", e);
+                    return;
+                }
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        loadingDictionary = false;
+                        // Nach onDestroy darf der Schätzer keine neue Kopie des Passworts anlegen
+                        if (!activity.isDestroyed()) {
+                            showPasswordStrength(passwordEditText.getText());
+                        }
+                    }
+                });
+            }
+        }).start();
+    }
+}
@@ -3,6 +3,8 @@ package hsos.prog3.projektarbeit.bitlocker.ui;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Button;
 import android.widget.CheckBox;
@@ -12,6 +14,8 @@ import android.widget.Toast;
 import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.google.android.material.textfield.TextInputLayout;
+
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -22,6 +26,7 @@ import javax.crypto.NoSuchPaddingException;
 
 import hsos.prog3.projektarbeit.bitlocker.R;
 import hsos.prog3.projektarbeit.bitlocker.datenbank.DatabaseHelper;
+import hsos.prog3.projektarbeit.bitlocker.datenbank.EntryBatch;
 import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
 
 /**
@@ -40,9 +45,11 @@ public class PasswordViewScreen extends AppCompatActivity {
     private String password;
     private EditText viewScreenWebsiteEditText;
     private EditText viewScreenPasswordEditText;
+    private TextInputLayout viewScreenPasswordLayout;
     private CheckBox checkBox;
     private DatabaseHelper databaseHelper;
     private AES_Encryption aes_encryption;
+    private PasswordStrengthIndicator passwordStrengthIndicator;
 
     /**
      * onCreateMethod of the PasswordViewScreen, also contains several onClick methods
@@ -60,13 +67,15 @@ public class PasswordViewScreen extends AppCompatActivity {
         setContentView(R.layout.activity_password_view_screen);
 
         this.checkBox = findViewById(R.id.checkBoxApplyChanges);
-        this.databaseHelper = new DatabaseHelper(this);
-        try {
-            this.aes_encryption = new AES_Encryption(getIntent().getStringExtra("decryptedPassword"));
-            initialize();
-        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        this.databaseHelper = DatabaseHelper.getInstance(this);
+        this.aes_encryption = databaseHelper.getSessionEncryption();
+        if (this.aes_encryption == null) {
+            // Tresor wurde zwischenzeitlich gesperrt
+            startActivity(new Intent(this, LoginScreen.class));
+            finish();
+            return;
         }
+        initialize();
 
         Button backToMenuButton = (Button) findViewById(R.id.goBackToMainMenuButton);
         backToMenuButton.setOnClickListener(new View.OnClickListener() {
@@ -97,9 +106,22 @@ public class PasswordViewScreen extends AppCompatActivity {
         });
     }
 
+    /**
+     * This method wipes the copy of the password in the strength estimator when the activity is destroyed.
+     */
+
+    @Override
+    protected void onDestroy() {
+        if (this.passwordStrengthIndicator != null) {
+            this.passwordStrengthIndicator.clear();
+        }
+        super.onDestroy();
+    }
+
     /**
      * This method will set the websiteEditText as well as the passwordEditText
-     * to the corresponding values from the database.
+     * to the corresponding values from the database. A TextWatcher rates the
+     * password on every keystroke, starting with the stored password.
      */
 
     @RequiresApi(api = Build.VERSION_CODES.O)
@@ -111,7 +133,7 @@ public class PasswordViewScreen extends AppCompatActivity {
         }
 
         try {
-            this.password = aes_encryption.decryptPassword(databaseHelper.getPassword(website));
+            this.password = databaseHelper.readPassword(website, aes_encryption);
         } catch (UnsupportedEncodingException | NoSuchPaddingException | NoSuchAlgorithmException | IllegalBlockSizeException | BadPaddingException | InvalidKeyException e) {
             e.printStackTrace();
         }
@@ -119,6 +141,25 @@ public class PasswordViewScreen extends AppCompatActivity {
         this.viewScreenWebsiteEditText = findViewById(R.id.viewScreenWebsiteEditText);
         this.viewScreenWebsiteEditText.setText(this.website);
         this.viewScreenPasswordEditText = findViewById(R.id.viewScreenPasswordEditText);
+        this.viewScreenPasswordLayout = findViewById(R.id.viewScreenPasswordLayout);
+        this.passwordStrengthIndicator = new PasswordStrengthIndicator(this, this.viewScreenPasswordEditText,
+                this.viewScreenPasswordLayout);
+        this.viewScreenPasswordEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence charSequence, int start, int count, int after) {
+
+            }
+
+            @Override
+            public void onTextChanged(CharSequence charSequence, int start, int before, int count) {
+
+            }
+
+            @Override
+            public void afterTextChanged(Editable editable) {
+                passwordStrengthIndicator.showPasswordStrength(editable);
+            }
+        });
         this.viewScreenPasswordEditText.setText(this.password);
     }
 
@@ -129,7 +170,6 @@ public class PasswordViewScreen extends AppCompatActivity {
 
     private void backToMainMenu() {
         Intent intent = new Intent(this, MainMenuHolder.class);
-        intent.putExtra("decryptedPassword", getIntent().getStringExtra("decryptedPassword"));
         startActivity(intent);
     }
 
@@ -140,6 +180,7 @@ public class PasswordViewScreen extends AppCompatActivity {
      * clicking a checkbox to continue.
      */
 
+    @RequiresApi(api = Build.VERSION_CODES.O)
     private void deleteEntryAndResumeToMenu() {
         if (!checkBox.isChecked()) {
             Toast.makeText(this, getString(R.string.not_checked_warning), Toast.LENGTH_LONG).show();
@@ -148,7 +189,11 @@ public class PasswordViewScreen extends AppCompatActivity {
             Toast.makeText(this, getString(R.string.unapplied_changes_warning), Toast.LENGTH_LONG).show();
             return;
         } else {
-            databaseHelper.removeOne(website);
+            try {
+                databaseHelper.removeOne(website, aes_encryption);
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                e.printStackTrace();
+            }
         }
         backToMainMenu();
     }
@@ -187,11 +232,11 @@ public class PasswordViewScreen extends AppCompatActivity {
             Toast.makeText(this, getString(R.string.password_too_short), Toast.LENGTH_LONG).show();
         } else if (viewScreenWebsiteEditText.getText().toString().equals(website) && viewScreenPasswordEditText.getText().toString().equals(password)) {
             Toast.makeText(this, getString(R.string.no_changes_made), Toast.LENGTH_LONG).show();
-        } else if (databaseHelper.checkExistence(viewScreenWebsiteEditText.getText().toString())) {
+        } else if (!AES_Encryption.normalizeWebsiteName(viewScreenWebsiteEditText.getText().toString()).equals(AES_Encryption.normalizeWebsiteName(website))
+                && databaseHelper.checkExistence(viewScreenWebsiteEditText.getText().toString(), aes_encryption)) {
             Toast.makeText(this, getString(R.string.website_already_exists), Toast.LENGTH_LONG).show();
         } else if (!password.equals(viewScreenPasswordEditText.getText().toString()) && !website.equals(viewScreenWebsiteEditText.getText().toString())) {
-            updateWebsite();
-            updatePassword();
+            updateWebsiteAndPassword();
             Toast.makeText(this, getString(R.string.password_and_website_changed), Toast.LENGTH_LONG).show();
         } else if (!password.equals(viewScreenPasswordEditText.getText().toString())) {
             updatePassword();
@@ -205,10 +250,18 @@ public class PasswordViewScreen extends AppCompatActivity {
     /**
      * This method is called by the modifyPasswordAndWebsite() method and will modify the
      * website based on the content of the websiteEditText.
+     *
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
      */
 
-    private void updateWebsite() {
-        databaseHelper.updateWebsite(website, viewScreenWebsiteEditText.getText().toString());
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private void updateWebsite() throws UnsupportedEncodingException, IllegalBlockSizeException, NoSuchPaddingException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        databaseHelper.updateWebsite(website, viewScreenWebsiteEditText.getText().toString(), aes_encryption);
         this.website = viewScreenWebsiteEditText.getText().toString();
     }
 
@@ -226,7 +279,31 @@ public class PasswordViewScreen extends AppCompatActivity {
 
     @RequiresApi(api = Build.VERSION_CODES.O)
     private void updatePassword() throws UnsupportedEncodingException, IllegalBlockSizeException, NoSuchPaddingException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
-        databaseHelper.updatePassword(website, aes_encryption.encryptPassword(viewScreenPasswordEditText.getText().toString()));
+        byte[] encryptedPassword = aes_encryption.encryptPassword(viewScreenPasswordEditText.getText().toString(), aes_encryption.blindIndex(website));
+        databaseHelper.updatePassword(website, encryptedPassword, aes_encryption);
+        this.password = viewScreenPasswordEditText.getText().toString();
+    }
+
+    /**
+     * This method is called by the modifyPasswordAndWebsite() method and will modify the
+     * password and the website in one single transaction, so the entry is never left half changed.
+     *
+     * @throws UnsupportedEncodingException The Character Encoding is not supported.
+     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
+     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
+     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
+     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
+     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private void updateWebsiteAndPassword() throws UnsupportedEncodingException, IllegalBlockSizeException, NoSuchPaddingException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        // Das Passwort wird an den alten Namen gebunden und beim Umbenennen neu gebunden
+        EntryBatch batch = new EntryBatch()
+                .updatePassword(website, aes_encryption.encryptPassword(viewScreenPasswordEditText.getText().toString(), aes_encryption.blindIndex(website)))
+                .updateWebsite(website, viewScreenWebsiteEditText.getText().toString());
+        databaseHelper.applyBatch(batch, aes_encryption);
+        this.website = viewScreenWebsiteEditText.getText().toString();
         this.password = viewScreenPasswordEditText.getText().toString();
     }
 }
\ No newline at end of file
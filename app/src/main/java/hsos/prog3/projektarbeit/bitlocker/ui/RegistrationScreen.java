@@ -21,7 +21,6 @@ import javax.crypto.NoSuchPaddingException;
 
 import hsos.prog3.projektarbeit.bitlocker.R;
 import hsos.prog3.projektarbeit.bitlocker.datenbank.DatabaseHelper;
-import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
 
 /**
  * The RegistrationScreen activity is the graphical and logical user interface responsible
@@ -34,6 +33,7 @@ public class RegistrationScreen extends AppCompatActivity {
 
     private EditText masterpasswortInit;
     private EditText masterpasswortConfirm;
+    private Button saveMasterPWButton;
     private DatabaseHelper databaseHelper;
 
     /**
@@ -52,42 +52,35 @@ public class RegistrationScreen extends AppCompatActivity {
 
         this.masterpasswortInit = findViewById(R.id.masterpasswortFeld1RegistrierungEditText);
         this.masterpasswortConfirm = findViewById(R.id.masterpasswortFeld2RegistrierungEditText);
-        this.databaseHelper = new DatabaseHelper(this);
+        this.databaseHelper = DatabaseHelper.getInstance(this);
 
-        Button saveMasterPWButton = findViewById(R.id.registrierenButton);
-        saveMasterPWButton.setOnClickListener(new View.OnClickListener() {
+        this.saveMasterPWButton = findViewById(R.id.registrierenButton);
+        this.saveMasterPWButton.setOnClickListener(new View.OnClickListener() {
             @RequiresApi(api = Build.VERSION_CODES.O)
             @Override
             public void onClick(View view) {
-                try {
-                    saveMasterPassword();
-                } catch (UnsupportedEncodingException | NoSuchAlgorithmException | IllegalBlockSizeException | NoSuchPaddingException | BadPaddingException | InvalidKeyException e) {
-                    e.printStackTrace();
-                }
+                saveMasterPassword();
             }
         });
     }
 
     /**
-     * This method is called by the onClickListener of the saveMasterPWButton and is saving
-     * the entered master password to the database if it meets the appropriate requirements.
-     * In this case, the fixed key (website name) is "BitLocker" since this method is only
+     * This method is called by the onClickListener of the saveMasterPWButton and is creating
+     * the data key and the verifier record of the vault if the entered master password meets the
+     * appropriate requirements. The master password itself is not stored. This method is only
      * used once namely when the user is creating his account.
      * Those requirements are:
      * required fields cannot be empty, passwordInit must equal passwordConfirm, passwordLength cannot be
      * less than 10 characters and greater then 50 characters
+     * Since the calibration and the key derivation take a while, the data key is created on a background thread
+     * and the result is posted back to the UI thread, see onDataKeyCreated(boolean).
      *
-     * @throws UnsupportedEncodingException The Character Encoding is not supported.
-     * @throws NoSuchPaddingException       This exception is thrown when a particular padding mechanism is requested but is not available in the environment.
-     * @throws IllegalBlockSizeException    This exception is thrown when the length of data provided to a block cipher is incorrect, i.e., does not match the block size of the cipher.
-     * @throws NoSuchAlgorithmException     This exception is thrown when a particular cryptographic algorithm is requested but is not available in the environment.
-     * @throws BadPaddingException          This exception is thrown when a particular padding mechanism is expected for the input data but the data is not padded properly.
-     * @throws InvalidKeyException          This is the exception for invalid Keys (invalid encoding, wrong length, uninitialized, etc).
+     * @see DatabaseHelper#createDataKey(String)
      */
 
     @RequiresApi(api = Build.VERSION_CODES.O)
-    private void saveMasterPassword() throws UnsupportedEncodingException, NoSuchAlgorithmException, IllegalBlockSizeException, NoSuchPaddingException, BadPaddingException, InvalidKeyException {
-        String masterpasswortInit = this.masterpasswortInit.getText().toString();
+    private void saveMasterPassword() {
+        final String masterpasswortInit = this.masterpasswortInit.getText().toString();
         String masterpasswortConfirm = this.masterpasswortConfirm.getText().toString();
 
         if (masterpasswortInit.isEmpty() || masterpasswortConfirm.isEmpty()) {
@@ -102,13 +95,45 @@ public class RegistrationScreen extends AppCompatActivity {
         } else if (masterpasswortInit.length() > 50) {
             Toast.makeText(this, getString(R.string.password_too_long), Toast.LENGTH_LONG).show();
             return;
-        } else {
-            Toast.makeText(this, getString(R.string.password_created), Toast.LENGTH_LONG).show();
         }
+        this.saveMasterPWButton.setEnabled(false);
+
+        Thread registrationThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean created = false;
+                try {
+                    databaseHelper.createDataKey(masterpasswortInit);
+                    created = true;
+                } catch (UnsupportedEncodingException | NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+
+                final boolean dataKeyCreated = created;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDataKeyCreated(dataKeyCreated);
+                    }
+                });
+            }
+        });
+        registrationThread.start();
+    }
 
-        AES_Encryption aes_encryption = new AES_Encryption(masterpasswortInit);
-        String encryptedPW = aes_encryption.encryptPassword(masterpasswortInit);
-        databaseHelper.addData("BitLocker", encryptedPW);
+    /**
+     * This method is called on the UI thread when the background registration has finished. If the data key
+     * has been created, the input fields are cleared and the user is sent to the LoginScreen activity.
+     *
+     * @param created true if the data key and the verifier record have been stored, false if that failed
+     */
+
+    private void onDataKeyCreated(boolean created) {
+        this.saveMasterPWButton.setEnabled(true);
+        if (!created) {
+            return;
+        }
+        Toast.makeText(this, getString(R.string.password_created), Toast.LENGTH_LONG).show();
 
         this.masterpasswortInit.getText().clear();
         this.masterpasswortConfirm.getText().clear();
@@ -2,9 +2,9 @@ package hsos.prog3.projektarbeit.bitlocker.ui;
 
 import android.annotation.SuppressLint;
 import android.content.Intent;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.os.Handler;
+import android.util.Log;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.ImageView;
@@ -14,6 +14,7 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import hsos.prog3.projektarbeit.bitlocker.R;
 import hsos.prog3.projektarbeit.bitlocker.datenbank.DatabaseHelper;
+import hsos.prog3.projektarbeit.bitlocker.logik.PasswordDictionary;
 
 /**
  * The SplashScreen activity is the logical and graphical user interface
@@ -32,8 +33,10 @@ public class SplashScreen extends AppCompatActivity {
      * onCreate method of the SplashScreen, also contains a runnable object to
      * perform the animation execution on another thread. After the animation
      * there will be a new handler in which the decision is made whether to start
-     * the LoginScreen or the RegistrationScreen activity based on the fact if the
-     * first database entry is empty (registration screen) or not (login screen).
+     * the LoginScreen or the RegistrationScreen activity based on the fact if a
+     * master password has been set up (login screen) or not (registration screen).
+     * While the animation is running, the crypto engine is selected and the dictionary of the password rating
+     * is loaded on a background thread.
      *
      * @param savedInstanceState if the activity is being re-initialized after previously
      *                           being shut down then this Bundle contains the data it most
@@ -45,8 +48,8 @@ public class SplashScreen extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.splashscreen);
 
-        DatabaseHelper databaseHelper = new DatabaseHelper(this);
-        Cursor cursor = databaseHelper.getDataCursor();
+        DatabaseHelper databaseHelper = DatabaseHelper.getInstance(this);
+        boolean registered = databaseHelper.hasMasterPassword();
 
         this.imageViewLogo = (ImageView) findViewById(R.id.lockLogo);
         this.imageViewAppName = (TextView) findViewById(R.id.appName);
@@ -61,10 +64,25 @@ public class SplashScreen extends AppCompatActivity {
         Thread animationThread = new Thread(runnable);
         animationThread.start();
 
+        // Die Auswahl der Crypto-Engine läuft während der Animation, beim ersten Start wird dafür gemessen,
+        // danach wird das Wörterbuch der Passwortbewertung geladen
+        Thread engineSelectionThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                databaseHelper.selectCryptoEngine();
+                try {
+                    PasswordDictionary.getDefault(SplashScreen.this);
+                } catch (IllegalStateException e) {
+                    Log.e("SplashScreen: ", "Dictionary could not be loaded", e);
+                }
+            }
+        });
+        engineSelectionThread.start();
+
         new Handler().postDelayed(new Runnable() {
             @Override
             public void run() {
-                if (cursor.moveToFirst()) {
+                if (registered) {
                     startActivity(new Intent(SplashScreen.this, LoginScreen.class));
                 } else {
                     startActivity(new Intent(SplashScreen.this, RegistrationScreen.class));
@@ -5,19 +5,34 @@ import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.annotation.RequiresApi;
 import androidx.fragment.app.Fragment;
 
+import com.google.android.material.switchmaterial.SwitchMaterial;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
 import hsos.prog3.projektarbeit.bitlocker.R;
+import hsos.prog3.projektarbeit.bitlocker.datenbank.DatabaseHelper;
+import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
+import hsos.prog3.projektarbeit.bitlocker.logik.GenerationPolicy;
+import hsos.prog3.projektarbeit.bitlocker.logik.PassphrasePolicy;
 import hsos.prog3.projektarbeit.bitlocker.logik.PasswordGenerator;
+import hsos.prog3.projektarbeit.bitlocker.logik.PasswordPolicy;
+import hsos.prog3.projektarbeit.bitlocker.logik.PasswordPool;
+import hsos.prog3.projektarbeit.bitlocker.logik.WordList;
 import hsos.prog3.projektarbeit.bitlocker.ui.PasswordCreationScreen;
 
 /**
@@ -25,6 +40,11 @@ import hsos.prog3.projektarbeit.bitlocker.ui.PasswordCreationScreen;
  * when clicking on the Password Generator menu tab. Here the user can adjust several parameters
  * through seek bars and generate a specific password based on those parameters as well as copy it to
  * clipboard or automatically take it along to the PasswordCreationScreen.
+ * With the passphrase switch the user can generate passphrases of random words instead, then the
+ * length seek bar sets the number of words. If a website is entered, the password is not random but derived
+ * from the data key of the vault, the website and a counter, so it can be derived again at any time without storing it;
+ * increasing the counter gives a new password for the same website. The data key is random and only stored in the
+ * vault: deleting the account (DatabaseHelper.removeAll()) destroys it, and derived passwords cannot be restored after that.
  *
  * @see PasswordCreationScreen
  * @see hsos.prog3.projektarbeit.bitlocker.ui.MainMenuHolder
@@ -37,9 +57,17 @@ public class PwGeneratorFragment extends Fragment {
     private TextView textViewPasswortLengthRating;
     private TextView textViewSpecialCharacterPortion;
     private TextView generatedPasswordTextViewResult;
+    private SwitchMaterial passphraseSwitch;
+    private EditText derivationWebsiteEditText;
+    private EditText derivationCounterEditText;
     private PasswordGenerator passwordGenerator;
+    private WordList wordList;
+    private GenerationPolicy passwordPolicy;
+    private PasswordPool passwordPool;
     private String generatedPassword;
     private final Integer OFFSET_SEEKBAR = 10;
+    private final Integer PROGRESS_PER_WORD = 8;
+    private final Integer DEFAULT_DERIVATION_COUNTER = 1;
 
     /**
      * onCreate method for the PwGeneratorFragment, also contains several onClick methods such as
@@ -59,15 +87,32 @@ public class PwGeneratorFragment extends Fragment {
                              Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_pw_generator, container, false);
 
-        this.passwordGenerator = new PasswordGenerator();
+        this.passwordPool = new PasswordPool();
         this.seekBarPasswordLength = (SeekBar) view.findViewById(R.id.seekBarPasswordLength);
         this.textViewPasswortLengthRating = (TextView) view.findViewById(R.id.textViewSeekBarPasswordLength);
         this.seekBarSpecialCharacterPortion = (SeekBar) view.findViewById(R.id.seekBarSpecialCharacterPortion);
         this.textViewSpecialCharacterPortion = (TextView) view.findViewById(R.id.textViewSeekBarSpecialCharacterPortion);
         this.generatedPasswordTextViewResult = (TextView) view.findViewById(R.id.generatedPasswordTextViewResult);
+        this.passphraseSwitch = (SwitchMaterial) view.findViewById(R.id.passphraseSwitch);
+        this.derivationWebsiteEditText = view.findViewById(R.id.derivationWebsiteEditText);
+        this.derivationCounterEditText = view.findViewById(R.id.derivationCounterEditText);
+        this.passwordGenerator = new PasswordGenerator();
+        this.wordList = new WordList(requireContext(), WordList.DEFAULT_ASSET);
+
+        this.passphraseSwitch.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                seekBarSpecialCharacterPortion.setEnabled(!passphraseSwitch.isChecked());
+                derivationWebsiteEditText.setEnabled(!passphraseSwitch.isChecked());
+                derivationCounterEditText.setEnabled(!passphraseSwitch.isChecked());
+                setPasswordLengthText(seekBarPasswordLength.getProgress());
+                updatePasswordPolicy();
+            }
+        });
 
         Button generatePasswordButton = (Button) view.findViewById(R.id.generatePasswordButton);
         generatePasswordButton.setOnClickListener(new View.OnClickListener() {
+            @RequiresApi(api = Build.VERSION_CODES.O)
             @Override
             public void onClick(View view) {
                 generatePassword();
@@ -91,11 +136,10 @@ public class PwGeneratorFragment extends Fragment {
         });
 
         this.seekBarPasswordLength.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
-            @SuppressLint("SetTextI18n")
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean b) {
-                textViewPasswortLengthRating.setText(String.valueOf(progress + OFFSET_SEEKBAR) + " " + getString(R.string.characters)
-                        + " (" + checkPasswordLengthRating(progress + OFFSET_SEEKBAR) + ")");
+                setPasswordLengthText(progress);
+                invalidatePasswordPolicy();
             }
 
             @Override
@@ -105,7 +149,7 @@ public class PwGeneratorFragment extends Fragment {
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
-
+                updatePasswordPolicy();
             }
         });
 
@@ -115,6 +159,7 @@ public class PwGeneratorFragment extends Fragment {
             public void onProgressChanged(SeekBar seekBar, int progress, boolean b) {
                 textViewSpecialCharacterPortion.setText(String.valueOf(progress + OFFSET_SEEKBAR) + "% " + getString(R.string.special_character_portion)
                         + " (" + checkSpecialCharacterPortionRating(progress + OFFSET_SEEKBAR) + ")");
+                invalidatePasswordPolicy();
             }
 
             @Override
@@ -124,12 +169,23 @@ public class PwGeneratorFragment extends Fragment {
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
-
+                updatePasswordPolicy();
             }
         });
+        updatePasswordPolicy();
         return view;
     }
 
+    /**
+     * This method stops the background generation of the password pool when the view of the fragment is destroyed.
+     */
+
+    @Override
+    public void onDestroyView() {
+        this.passwordPool.shutdown();
+        super.onDestroyView();
+    }
+
     /**
      * This method will lead the user to the PasswordCreationScreen activity together with his
      * generated password. This password will automatically fill the password text inputs in the new activity.
@@ -145,7 +201,6 @@ public class PwGeneratorFragment extends Fragment {
         }
 
         Intent intent = new Intent(getActivity(), PasswordCreationScreen.class);
-        intent.putExtra("decryptedPassword", getActivity().getIntent().getStringExtra("decryptedPassword"));
         intent.putExtra("generatedPassword", this.generatedPassword);
         startActivity(intent);
     }
@@ -170,16 +225,124 @@ public class PwGeneratorFragment extends Fragment {
     }
 
     /**
-     * This method will call the PasswordGenerator method generatePassword with the corresponding
-     * seek bar values chosen by the user when he pressed the generatePasswordButton.
+     * This method will take a password generated with the corresponding seek bar values
+     * chosen by the user when he pressed the generatePasswordButton.
+     * The password is taken from the password pool, which has generated it in advance in the background,
+     * or derived from the entered website.
      */
 
+    @RequiresApi(api = Build.VERSION_CODES.O)
     private void generatePassword() {
-        this.generatedPassword = passwordGenerator.generatePassword(seekBarPasswordLength.getProgress()
-                + OFFSET_SEEKBAR, seekBarSpecialCharacterPortion.getProgress() + OFFSET_SEEKBAR);
+        if (this.passwordPolicy == null) {
+            updatePasswordPolicy();
+        }
+        String website = this.derivationWebsiteEditText.getText().toString().trim();
+        if (!website.isEmpty() && this.passwordPolicy instanceof PasswordPolicy) {
+            String derivedPassword = derivePassword(website, (PasswordPolicy) this.passwordPolicy);
+            if (derivedPassword == null) {
+                return;
+            }
+            this.generatedPassword = derivedPassword;
+        } else {
+            this.generatedPassword = passwordPool.take();
+        }
         generatedPasswordTextViewResult.setText(this.generatedPassword);
     }
 
+    /**
+     * This method derives the password of a website from the data key of the session, the vault is not unlocked again.
+     * The same website, counter and seek bar values always yield the same password.
+     *
+     * @param website website name
+     * @param policy  compiled password policy
+     * @return derived password or null if the vault has been locked
+     * @see PasswordGenerator#derivePassword(hsos.prog3.projektarbeit.bitlocker.logik.KeyContext, String, int, PasswordPolicy)
+     */
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private String derivePassword(String website, PasswordPolicy policy) {
+        AES_Encryption sessionEncryption = DatabaseHelper.getInstance(getContext()).getSessionEncryption();
+        if (sessionEncryption == null) {
+            return null;
+        }
+        try {
+            return this.passwordGenerator.derivePassword(sessionEncryption.getKeyContext(), website, getDerivationCounter(), policy);
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * This method reads the counter of the derived password. An empty field counts as the default counter 1.
+     *
+     * @return counter entered by the user
+     */
+
+    private int getDerivationCounter() {
+        String counter = this.derivationCounterEditText.getText().toString().trim();
+        if (counter.isEmpty()) {
+            return DEFAULT_DERIVATION_COUNTER;
+        }
+        // Das Feld nimmt nur bis zu sechs Ziffern an, die Zahl passt immer in einen int
+        return Integer.parseInt(counter);
+    }
+
+    /**
+     * This method compiles the password policy for the current seek bar values and lets the password pool
+     * generate passwords for it in the background. It is called once the user releases a seek bar.
+     */
+
+    private void updatePasswordPolicy() {
+        if (this.passphraseSwitch.isChecked()) {
+            this.passwordPolicy = new PassphrasePolicy(this.wordList, getPassphraseWordCount(seekBarPasswordLength.getProgress()),
+                    PassphrasePolicy.DEFAULT_SEPARATOR);
+        } else {
+            this.passwordPolicy = PasswordPolicy.fromSpecialCharPortion(seekBarPasswordLength.getProgress()
+                    + OFFSET_SEEKBAR, seekBarSpecialCharacterPortion.getProgress() + OFFSET_SEEKBAR);
+        }
+        this.passwordPool.setPolicy(this.passwordPolicy);
+    }
+
+    /**
+     * This method shows the value of the length seek bar, i.e. the password length with its rating
+     * or, in passphrase mode, the number of words.
+     *
+     * @param progress progress of the length seek bar
+     */
+
+    @SuppressLint("SetTextI18n")
+    private void setPasswordLengthText(int progress) {
+        if (this.passphraseSwitch.isChecked()) {
+            textViewPasswortLengthRating.setText(getPassphraseWordCount(progress) + " " + getString(R.string.words));
+        } else {
+            textViewPasswortLengthRating.setText(String.valueOf(progress + OFFSET_SEEKBAR) + " " + getString(R.string.characters)
+                    + " (" + checkPasswordLengthRating(progress + OFFSET_SEEKBAR) + ")");
+        }
+    }
+
+    /**
+     * This method converts the progress of the length seek bar into the number of words of a passphrase,
+     * from PassphrasePolicy.MIN_WORDS up to five words more.
+     *
+     * @param progress progress of the length seek bar
+     * @return number of words
+     */
+
+    private int getPassphraseWordCount(int progress) {
+        return PassphrasePolicy.MIN_WORDS + progress / PROGRESS_PER_WORD;
+    }
+
+    /**
+     * This method discards the password policy and the passwords waiting in the password pool.
+     * It is called while the user moves a seek bar.
+     */
+
+    private void invalidatePasswordPolicy() {
+        this.passwordPolicy = null;
+        this.passwordPool.invalidate();
+    }
+
     /**
      * This method will check the password length and return a safety feedback as a String.
      * length < 18 = "very weak"
@@ -2,6 +2,7 @@ package hsos.prog3.projektarbeit.bitlocker.ui.fragments;
 
 import android.content.Intent;
 import android.database.Cursor;
+import android.os.Build;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,6 +10,7 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.TextView;
 
+import androidx.annotation.RequiresApi;
 import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.DefaultItemAnimator;
 import androidx.recyclerview.widget.DividerItemDecoration;
@@ -18,8 +20,12 @@ import androidx.recyclerview.widget.RecyclerView;
 import java.util.ArrayList;
 
 import hsos.prog3.projektarbeit.bitlocker.R;
+import hsos.prog3.projektarbeit.bitlocker.datenbank.CursorTracker;
 import hsos.prog3.projektarbeit.bitlocker.datenbank.DatabaseHelper;
+import hsos.prog3.projektarbeit.bitlocker.datenbank.RowMapper;
+import hsos.prog3.projektarbeit.bitlocker.logik.AES_Encryption;
 import hsos.prog3.projektarbeit.bitlocker.logik.RecyclerAdapter;
+import hsos.prog3.projektarbeit.bitlocker.ui.LoginScreen;
 import hsos.prog3.projektarbeit.bitlocker.ui.MainMenuHolder;
 import hsos.prog3.projektarbeit.bitlocker.ui.PasswordCreationScreen;
 import hsos.prog3.projektarbeit.bitlocker.ui.PasswordViewScreen;
@@ -37,7 +43,9 @@ public class SafeFragment extends Fragment {
 
     private TextView nothingToShowTxt;
     private DatabaseHelper databaseHelper;
-    private ArrayList<String> websiteList;
+    private ArrayList<byte[]> encryptedWebsiteList;
+    private AES_Encryption aes_encryption;
+    private RecyclerAdapter adapter;
     private RecyclerView recyclerView;
     private RecyclerAdapter.RecyclerViewClickListener listener;
 
@@ -53,15 +61,23 @@ public class SafeFragment extends Fragment {
      * @see PasswordCreationScreen
      */
 
+    @RequiresApi(api = Build.VERSION_CODES.O)
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_tresor, container, false);
         this.recyclerView = view.findViewById(R.id.recyclerView);
         this.recyclerView.addItemDecoration(new DividerItemDecoration(recyclerView.getContext(), DividerItemDecoration.VERTICAL));
-        this.websiteList = new ArrayList<>();
-        this.databaseHelper = new DatabaseHelper(getContext());
+        this.encryptedWebsiteList = new ArrayList<>();
+        this.databaseHelper = DatabaseHelper.getInstance(getContext());
         this.nothingToShowTxt = view.findViewById(R.id.nothingToShowTextView);
+        this.aes_encryption = databaseHelper.getSessionEncryption();
+        if (this.aes_encryption == null) {
+            // Tresor wurde zwischenzeitlich gesperrt
+            startActivity(new Intent(getActivity(), LoginScreen.class));
+            getActivity().finish();
+            return view;
+        }
 
         setWebsiteInfo();
         setAdapter();
@@ -87,7 +103,7 @@ public class SafeFragment extends Fragment {
 
     private void setAdapter() {
         setOnClickListener();
-        RecyclerAdapter adapter = new RecyclerAdapter(websiteList, listener);
+        this.adapter = new RecyclerAdapter(encryptedWebsiteList, aes_encryption, listener);
         RecyclerView.LayoutManager layoutManager = new LinearLayoutManager(getActivity().getApplicationContext());
         recyclerView.setLayoutManager(layoutManager);
         recyclerView.setItemAnimator(new DefaultItemAnimator());
@@ -105,33 +121,35 @@ public class SafeFragment extends Fragment {
 
     private void setOnClickListener() {
         listener = new RecyclerAdapter.RecyclerViewClickListener() {
+            @RequiresApi(api = Build.VERSION_CODES.O)
             @Override
             public void onClick(View v, int position) {
                 MainMenuHolder.cancelTimer();
                 Intent intent = new Intent(getActivity().getApplicationContext(), PasswordViewScreen.class);
-                intent.putExtra("website", websiteList.get(position));
-                intent.putExtra("decryptedPassword", getActivity().getIntent().getStringExtra("decryptedPassword"));
+                intent.putExtra("website", adapter.getWebsite(position));
                 startActivity(intent);
             }
         };
     }
 
     /**
-     * This method will initialize the websiteList variable with all the website data from the
-     * database. This method must be called before the setAdapter() method because the websiteList
+     * This method will initialize the encryptedWebsiteList variable with all the encrypted website names from the
+     * database. They are decrypted by the RecyclerAdapter, but only for the rows actually shown.
+     * This method must be called before the setAdapter() method because the encryptedWebsiteList
      * cannot be empty! If the the database is empty (no passwords created yet), where will be a textView
      * displayed in the middle of the fragments layout saying that you haven't created any password yet.
      */
 
     private void setWebsiteInfo() {
-        Cursor cursor = databaseHelper.getDataCursor();
-        // Der erste Eintrag wird übersprungen, da es sich um das Masterpasswort handelt, welches nicht dargestellt wird.
-        cursor.moveToPosition(0);
-        while (cursor.moveToNext()) {
-            websiteList.add(cursor.getString(0));
-        }
+        encryptedWebsiteList.addAll(databaseHelper.queryEntries(new RowMapper<byte[]>() {
+            @Override
+            public byte[] mapRow(Cursor cursor) {
+                return cursor.getBlob(0);
+            }
+        }));
+        CursorTracker.logOpenCursors();
 
-        if (websiteList.isEmpty()) {
+        if (encryptedWebsiteList.isEmpty()) {
             nothingToShowTxt.setText(requireContext().getString(R.string.nothing_to_show));
         }
     }
@@ -143,7 +161,6 @@ public class SafeFragment extends Fragment {
     private void startPasswordCreationActivity() {
         MainMenuHolder.cancelTimer();
         Intent intent = new Intent(getActivity(), PasswordCreationScreen.class);
-        intent.putExtra("decryptedPassword", getActivity().getIntent().getStringExtra("decryptedPassword"));
         startActivity(intent);
     }
 
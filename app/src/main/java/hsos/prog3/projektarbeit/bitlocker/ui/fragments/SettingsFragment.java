@@ -62,7 +62,7 @@ public class SettingsFragment extends Fragment {
                              Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_settings, container, false);
 
-        this.databaseHelper = new DatabaseHelper(getContext());
+        this.databaseHelper = DatabaseHelper.getInstance(getContext());
         this.timeOutSwitchText = view.findViewById(R.id.safeTimeoutSwitchText);
         this.safeTimeoutSwitch = (SwitchMaterial) view.findViewById(R.id.safeTimeoutSwitch);
         this.deleteAccountConfirmationCheckbox = view.findViewById(R.id.checkboxDeleteAccount);
@@ -262,9 +262,14 @@ public class SettingsFragment extends Fragment {
 
     /**
      * This method will logout the user and drop him back to the LoginScreen activity.
+     * The data key of the session is dropped, so the master password has to be entered again.
+     * A key rotation running in the background is paused and continued after the next login.
      */
 
     private void logout() {
+        this.databaseHelper.pauseKeyRotation();
+        this.databaseHelper.stopIntegritySweep();
+        this.databaseHelper.lock();
         Intent intent = new Intent(getContext(), LoginScreen.class);
         startActivity(intent);
     }
@@ -0,0 +1,222 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the crypto engines: round trips, tamper detection of the CTR+HMAC records, records bound
+ * to a blind index and the interoperability of records sealed by one engine and opened by another.
+ *
+ * @author Andreas Morasch
+ */
+
+public class CryptoEnginesTest {
+
+    private static final byte[] PASSWORD = "Geheim!123".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] WEBSITE_INDEX = "index-a".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] OTHER_WEBSITE_INDEX = "index-b".getBytes(StandardCharsets.UTF_8);
+
+    private CryptoEngine previouslySelected;
+    private KeyContext key;
+
+    @Before
+    public void setUp() {
+        previouslySelected = CryptoEngines.getSelected();
+        key = KeyContext.generateDataKey();
+    }
+
+    @After
+    public void tearDown() {
+        CryptoEngines.setSelected(previouslySelected);
+    }
+
+    @Test
+    public void gcmAndCtrEnginesAreRegistered() {
+        assertNotNull(CryptoEngines.forVersion(PasswordRecord.VERSION_AES_GCM));
+        assertNotNull(CryptoEngines.forVersion(PasswordRecord.VERSION_AES_CTR_HMAC));
+        assertEquals(PasswordRecord.VERSION_AES_GCM, CryptoEngines.getEngines().get(0).getRecordVersion());
+    }
+
+    @Test
+    public void boundVersionsUseTheEngineOfTheirConstruction() {
+        assertSame(CryptoEngines.forVersion(PasswordRecord.VERSION_AES_GCM), CryptoEngines.forVersion(PasswordRecord.VERSION_AES_GCM_BOUND));
+        assertSame(CryptoEngines.forVersion(PasswordRecord.VERSION_AES_CTR_HMAC),
+                CryptoEngines.forVersion(PasswordRecord.VERSION_AES_CTR_HMAC_BOUND));
+    }
+
+    @Test
+    public void enginesAreFoundByName() {
+        for (CryptoEngine engine : CryptoEngines.getEngines()) {
+            assertSame(engine, CryptoEngines.forName(engine.getName()));
+        }
+        assertNull(CryptoEngines.forName("ROT13"));
+    }
+
+    @Test
+    public void everyEngineOpensItsOwnRecords() throws GeneralSecurityException {
+        for (CryptoEngine engine : CryptoEngines.getEngines()) {
+            byte[] record = seal(engine);
+
+            assertEquals(engine.getRecordVersion(), record[0]);
+            assertArrayEquals(PASSWORD, open(engine, record));
+        }
+    }
+
+    @Test
+    public void enginesOfTheSameVersionAreInterchangeable() throws GeneralSecurityException {
+        for (CryptoEngine sealing : CryptoEngines.getEngines()) {
+            byte[] record = seal(sealing);
+            for (CryptoEngine opening : CryptoEngines.getEngines()) {
+                if (opening.getRecordVersion() == sealing.getRecordVersion()) {
+                    assertArrayEquals(PASSWORD, open(opening, record));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void recordsOpenRegardlessOfTheSelectedEngine() throws GeneralSecurityException {
+        for (CryptoEngine sealing : CryptoEngines.getEngines()) {
+            CryptoEngines.setSelected(sealing);
+            byte[] record = key.seal(PASSWORD);
+            for (CryptoEngine selected : CryptoEngines.getEngines()) {
+                CryptoEngines.setSelected(selected);
+                assertArrayEquals(PASSWORD, key.open(record));
+            }
+        }
+    }
+
+    @Test
+    public void boundRecordsOnlyOpenWithTheirAssociatedData() throws GeneralSecurityException {
+        for (CryptoEngine engine : CryptoEngines.getEngines()) {
+            byte[] record = seal(engine, WEBSITE_INDEX);
+
+            assertEquals(engine.getRecordVersion() | PasswordRecord.BOUND_FLAG, record[0]);
+            assertTrue(PasswordRecord.isBound(record));
+            assertArrayEquals(PASSWORD, open(engine, record, WEBSITE_INDEX));
+            assertNotOpened(engine, record, OTHER_WEBSITE_INDEX);
+            // Ohne Index darf ein gebundener Datensatz nicht als ungebundener geöffnet werden
+            assertNotOpened(engine, record, null);
+        }
+    }
+
+    @Test
+    public void unboundRecordsStillOpenWithAssociatedData() throws GeneralSecurityException {
+        for (CryptoEngine engine : CryptoEngines.getEngines()) {
+            byte[] record = seal(engine);
+
+            assertFalse(PasswordRecord.isBound(record));
+            assertArrayEquals(PASSWORD, open(engine, record, WEBSITE_INDEX));
+        }
+    }
+
+    @Test
+    public void ctrHmacDetectsEveryModifiedByte() throws GeneralSecurityException {
+        CryptoEngine engine = CryptoEngines.forVersion(PasswordRecord.VERSION_AES_CTR_HMAC);
+        byte[] record = seal(engine);
+
+        // Byte 0 ist die Version und wird schon vor dem MAC geprüft
+        for (int i = PasswordRecord.HEADER_LENGTH; i < record.length; i++) {
+            byte[] modified = record.clone();
+            modified[i] ^= 0x01;
+            try {
+                open(engine, modified);
+                fail("Modified byte " + i + " has not been detected");
+            } catch (AEADBadTagException expected) {
+                // erwartet
+            }
+        }
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void ctrHmacRejectsOtherKey() throws GeneralSecurityException {
+        CryptoEngine engine = CryptoEngines.forVersion(PasswordRecord.VERSION_AES_CTR_HMAC);
+        byte[] record = seal(engine);
+
+        engine.open(KeyContext.generateDataKey(), ByteBuffer.wrap(record), ByteBuffer.allocate(PASSWORD.length));
+    }
+
+    /**
+     * Helper method sealing the test password with the given engine.
+     *
+     * @param engine engine to seal with
+     * @return sealed record
+     * @throws GeneralSecurityException if the engine fails
+     */
+
+    private byte[] seal(CryptoEngine engine) throws GeneralSecurityException {
+        return seal(engine, null);
+    }
+
+    /**
+     * Helper method sealing the test password with the given engine and associated data.
+     *
+     * @param engine         engine to seal with
+     * @param associatedData associated data the record is bound to, may be null
+     * @return sealed record
+     * @throws GeneralSecurityException if the engine fails
+     */
+
+    private byte[] seal(CryptoEngine engine, byte[] associatedData) throws GeneralSecurityException {
+        byte[] record = new byte[PasswordRecord.OVERHEAD + PASSWORD.length];
+        engine.seal(key, ByteBuffer.wrap(PASSWORD), associatedData, ByteBuffer.wrap(record));
+        return record;
+    }
+
+    /**
+     * Helper method opening a record with the given engine.
+     *
+     * @param engine engine to open with
+     * @param record sealed record
+     * @return opened data
+     * @throws GeneralSecurityException if the record cannot be opened
+     */
+
+    private byte[] open(CryptoEngine engine, byte[] record) throws GeneralSecurityException {
+        return open(engine, record, null);
+    }
+
+    /**
+     * Helper method opening a record with the given engine and associated data.
+     *
+     * @param engine         engine to open with
+     * @param record         sealed record
+     * @param associatedData associated data the record has been bound to, may be null
+     * @return opened data
+     * @throws GeneralSecurityException if the record cannot be opened
+     */
+
+    private byte[] open(CryptoEngine engine, byte[] record, byte[] associatedData) throws GeneralSecurityException {
+        ByteBuffer plainData = ByteBuffer.allocate(record.length - PasswordRecord.OVERHEAD);
+        engine.open(key, ByteBuffer.wrap(record), associatedData, plainData);
+        return Arrays.copyOf(plainData.array(), plainData.position());
+    }
+
+    /**
+     * Helper method asserting that a record cannot be opened with the given associated data.
+     *
+     * @param engine         engine to open with
+     * @param record         sealed record
+     * @param associatedData wrong associated data, may be null
+     * @throws GeneralSecurityException if the engine fails for another reason
+     */
+
+    private void assertNotOpened(CryptoEngine engine, byte[] record, byte[] associatedData) throws GeneralSecurityException {
+        try {
+            open(engine, record, associatedData);
+            fail(engine.getName() + " opened a record with the wrong associated data");
+        } catch (AEADBadTagException expected) {
+            // erwartet
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the deterministic password derivation with DerivedRandomBuffer.
+ *
+ * @author Andreas Morasch
+ */
+
+public class DerivedRandomBufferTest {
+
+    // Mehr Indizes als in einen Puffer passen, damit auch das Nachladen geprüft wird
+    private static final int STREAM_LENGTH = 2000;
+
+    private final KeyContext key = KeyContext.generateDataKey();
+
+    @Test
+    public void sameInputsGiveSameStream() throws GeneralSecurityException {
+        assertArrayEquals(stream(key, "example.com", 0), stream(key, "example.com", 0));
+    }
+
+    @Test
+    public void streamDependsOnEveryInput() throws GeneralSecurityException {
+        int[] reference = stream(key, "example.com", 0);
+
+        assertFalse(Arrays.equals(reference, stream(key, "example.com", 1)));
+        assertFalse(Arrays.equals(reference, stream(key, "example.org", 0)));
+        assertFalse(Arrays.equals(reference, stream(KeyContext.generateDataKey(), "example.com", 0)));
+    }
+
+    @Test
+    public void derivedPasswordIsReproducible() throws GeneralSecurityException {
+        PasswordPolicy policy = PasswordPolicy.fromSpecialCharPortion(20, 10);
+        PasswordGenerator passwordGenerator = new PasswordGenerator();
+        String password = passwordGenerator.derivePassword(key, "example.com", 0, policy);
+
+        assertEquals(password, new PasswordGenerator().derivePassword(key, "example.com", 0, policy));
+        assertEquals(password, passwordGenerator.derivePassword(key, " Example.COM ", 0, policy));
+        assertNotEquals(password, passwordGenerator.derivePassword(key, "example.com", 1, policy));
+    }
+
+    @Test
+    public void derivedPasswordMatchesKnownAnswer() throws GeneralSecurityException {
+        // Feste Eingaben, das Passwort darf sich mit keiner Version der App ändern
+        byte[] encodedKey = new byte[32];
+        for (int i = 0; i < encodedKey.length; i++) {
+            encodedKey[i] = (byte) i;
+        }
+        String password = new PasswordGenerator().derivePassword(KeyContext.fromEncodedKey(encodedKey), "example.com", 1,
+                PasswordPolicy.fromSpecialCharPortion(20, 10));
+
+        assertEquals("ZuqdVxbqP0d(T]qzKCa0", password);
+    }
+
+    @Test
+    public void derivedPasswordMeetsThePolicy() throws GeneralSecurityException {
+        PasswordPolicy policy = PasswordPolicy.fromSpecialCharPortion(20, 10);
+        PasswordGenerator passwordGenerator = new PasswordGenerator();
+        for (int counter = 0; counter < 100; counter++) {
+            String password = passwordGenerator.derivePassword(key, "example.com", counter, policy);
+            int[] counts = PasswordPolicyTest.countClasses(password);
+
+            assertEquals(20, password.length());
+            assertEquals(2, counts[PasswordPolicy.SPECIAL_CHARACTERS]);
+            assertTrue(counts[PasswordPolicy.UPPER_LETTERS] >= 1);
+            assertTrue(counts[PasswordPolicy.LOWER_LETTERS] >= 1);
+            assertTrue(counts[PasswordPolicy.DIGITS] >= 1);
+        }
+    }
+
+    /**
+     * Helper method reading the first STREAM_LENGTH indices of a derived stream.
+     *
+     * @param keyContext KeyContext holding the data key
+     * @param website    normalized website name
+     * @param counter    counter of the website
+     * @return indices between 0 and MAX_BOUND
+     * @throws GeneralSecurityException if the HMAC is not available
+     */
+
+    private static int[] stream(KeyContext keyContext, String website, int counter) throws GeneralSecurityException {
+        DerivedRandomBuffer randomBuffer = new DerivedRandomBuffer(keyContext, website, counter);
+        int[] indices = new int[STREAM_LENGTH];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = randomBuffer.nextIndex(RandomBuffer.MAX_BOUND);
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,76 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the master password verifier record.
+ *
+ * @author Andreas Morasch
+ */
+
+public class MasterPasswordVerifierTest {
+
+    private static final String MASTER_PASSWORD = "Korrekt Pferd Batterie";
+    private static final int ITERATIONS = KeyDerivation.MIN_ITERATIONS;
+
+    private byte[] salt;
+    private byte[] record;
+
+    @Before
+    public void createRecord() throws GeneralSecurityException {
+        salt = KeyDerivation.newSalt();
+        record = MasterPasswordVerifier.create(KeyContext.fromMasterPassword(MASTER_PASSWORD, salt, ITERATIONS));
+    }
+
+    @Test
+    public void recordStoresKdfParameters() {
+        assertArrayEquals(salt, MasterPasswordVerifier.getSalt(record));
+        assertEquals(ITERATIONS, MasterPasswordVerifier.getIterations(record));
+    }
+
+    @Test
+    public void correctPasswordMatches() throws GeneralSecurityException {
+        KeyContext key = KeyContext.fromMasterPassword(MASTER_PASSWORD, MasterPasswordVerifier.getSalt(record),
+                MasterPasswordVerifier.getIterations(record));
+
+        assertTrue(MasterPasswordVerifier.matches(record, key));
+    }
+
+    @Test
+    public void wrongPasswordDoesNotMatch() throws GeneralSecurityException {
+        KeyContext key = KeyContext.fromMasterPassword(MASTER_PASSWORD + "!", salt, ITERATIONS);
+
+        assertFalse(MasterPasswordVerifier.matches(record, key));
+    }
+
+    @Test
+    public void otherSaltDoesNotMatch() throws GeneralSecurityException {
+        KeyContext key = KeyContext.fromMasterPassword(MASTER_PASSWORD, KeyDerivation.newSalt(), ITERATIONS);
+
+        assertFalse(MasterPasswordVerifier.matches(record, key));
+    }
+
+    @Test
+    public void modifiedTagDoesNotMatch() throws GeneralSecurityException {
+        record[record.length - 1] ^= 1;
+
+        assertFalse(MasterPasswordVerifier.matches(record, KeyContext.fromMasterPassword(MASTER_PASSWORD, salt, ITERATIONS)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersionIsRejected() throws GeneralSecurityException {
+        record[0] = 0x7F;
+
+        MasterPasswordVerifier.matches(record, KeyContext.fromMasterPassword(MASTER_PASSWORD, salt, ITERATIONS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedRecordIsRejected() {
+        MasterPasswordVerifier.getSalt(new byte[record.length - 1]);
+    }
+}
@@ -0,0 +1,139 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the compiled PasswordPolicy: minimums, exact classes, excluded characters and maximum length.
+ *
+ * @author Andreas Morasch
+ */
+
+public class PasswordPolicyTest {
+
+    private static final int ROUNDS = 200;
+    private static final String[] CHARACTER_CLASSES = {
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+            "abcdefghijklmnopqrstuvwxyz",
+            "0123456789",
+            "!\"'§$%&/()=?.,-_:;*#<>@+|[{]"
+    };
+
+    private final PasswordGenerator passwordGenerator = new PasswordGenerator();
+
+    @Test
+    public void specialCharPortionIsExact() {
+        PasswordPolicy policy = PasswordPolicy.fromSpecialCharPortion(20, 10);
+
+        assertTrue(policy.isExact(PasswordPolicy.SPECIAL_CHARACTERS));
+        for (int i = 0; i < ROUNDS; i++) {
+            int[] counts = countClasses(passwordGenerator.generatePassword(policy));
+            assertEquals(2, counts[PasswordPolicy.SPECIAL_CHARACTERS]);
+            assertTrue(counts[PasswordPolicy.UPPER_LETTERS] >= 1);
+            assertTrue(counts[PasswordPolicy.LOWER_LETTERS] >= 1);
+            assertTrue(counts[PasswordPolicy.DIGITS] >= 1);
+        }
+    }
+
+    @Test
+    public void zeroPortionHasNoSpecialCharacters() {
+        PasswordPolicy policy = PasswordPolicy.fromSpecialCharPortion(10, 0);
+
+        for (int i = 0; i < ROUNDS; i++) {
+            assertEquals(0, countClasses(passwordGenerator.generatePassword(policy))[PasswordPolicy.SPECIAL_CHARACTERS]);
+        }
+    }
+
+    @Test
+    public void smallPortionYieldsOneSpecialCharacter() {
+        // 5 % von 10 Zeichen wären abgerundet 0, ein Anteil größer als 0 ergibt aber immer ein Sonderzeichen
+        PasswordPolicy policy = PasswordPolicy.fromSpecialCharPortion(10, 5);
+
+        for (int i = 0; i < ROUNDS; i++) {
+            assertEquals(1, countClasses(passwordGenerator.generatePassword(policy))[PasswordPolicy.SPECIAL_CHARACTERS]);
+        }
+    }
+
+    @Test
+    public void minimumsAreMet() {
+        int[] minimums = {2, 3, 4, 5};
+        PasswordPolicy policy = new PasswordPolicy(16, minimums, "", PasswordPolicy.NO_MAX_LENGTH);
+
+        for (int i = 0; i < ROUNDS; i++) {
+            String password = passwordGenerator.generatePassword(policy);
+            int[] counts = countClasses(password);
+            assertEquals(16, password.length());
+            for (int characterClass = 0; characterClass < minimums.length; characterClass++) {
+                assertTrue(password, counts[characterClass] >= minimums[characterClass]);
+            }
+        }
+    }
+
+    @Test
+    public void excludedCharactersAreNeverUsed() {
+        PasswordPolicy policy = new PasswordPolicy(32, new int[]{1, 1, 1, 1}, "xyz", PasswordPolicy.NO_MAX_LENGTH)
+                .withoutAmbiguousCharacters();
+        String excludedCharacters = policy.getExcludedCharacters();
+
+        assertTrue(excludedCharacters.contains("xyz"));
+        assertTrue(excludedCharacters.contains(PasswordPolicy.AMBIGUOUS_CHARACTERS));
+        for (int i = 0; i < ROUNDS; i++) {
+            String password = passwordGenerator.generatePassword(policy);
+            for (int j = 0; j < password.length(); j++) {
+                assertTrue(password, excludedCharacters.indexOf(password.charAt(j)) < 0);
+            }
+        }
+    }
+
+    @Test
+    public void maxLengthLimitsLength() {
+        PasswordPolicy policy = PasswordPolicy.fromSpecialCharPortion(20, 10).withMaxLength(8);
+
+        assertEquals(8, policy.getLength());
+        assertEquals(8, passwordGenerator.generatePassword(policy).length());
+        assertTrue(policy.isExact(PasswordPolicy.SPECIAL_CHARACTERS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void minimumsMustFitIntoLength() {
+        new PasswordPolicy(3, new int[]{1, 1, 1, 1}, "", PasswordPolicy.NO_MAX_LENGTH);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void minimumOfExcludedClassCannotBeMet() {
+        new PasswordPolicy(8, new int[]{0, 0, 1, 0}, CHARACTER_CLASSES[PasswordPolicy.DIGITS], PasswordPolicy.NO_MAX_LENGTH);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void remainingPositionsNeedANonExactClass() {
+        new PasswordPolicy(8, new int[]{0, 0, 0, 2}, new boolean[]{true, true, true, true}, "", PasswordPolicy.NO_MAX_LENGTH);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lengthAboveMaximumIsRejected() {
+        PasswordPolicy.fromSpecialCharPortion(PasswordPolicy.MAX_LENGTH + 1, 10);
+    }
+
+    /**
+     * Helper method counting the characters of every character class in a password.
+     *
+     * @param password generated password
+     * @return number of characters per class, indexed like PasswordPolicy.UPPER_LETTERS etc.
+     */
+
+    static int[] countClasses(String password) {
+        int[] counts = new int[CHARACTER_CLASSES.length];
+        for (int i = 0; i < password.length(); i++) {
+            boolean known = false;
+            for (int characterClass = 0; characterClass < CHARACTER_CLASSES.length; characterClass++) {
+                if (CHARACTER_CLASSES[characterClass].indexOf(password.charAt(i)) >= 0) {
+                    counts[characterClass]++;
+                    known = true;
+                }
+            }
+            assertTrue("Unknown character in " + password, known);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,96 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the PasswordPool: a password of an old policy must never be handed out after the policy
+ * has been changed, not even one the refill thread was generating at that moment.
+ *
+ * @author Andreas Morasch
+ */
+
+public class PasswordPoolTest {
+
+    // Die Richtlinien unterscheiden sich in der Länge, so ist jedem Passwort seine Richtlinie anzusehen
+    private static final PasswordPolicy SHORT_POLICY = PasswordPolicy.fromSpecialCharPortion(8, 10);
+    private static final PasswordPolicy LONG_POLICY = PasswordPolicy.fromSpecialCharPortion(24, 10);
+    private static final long FILL_TIMEOUT_MILLIS = 5000;
+
+    private final PasswordPool pool = new PasswordPool();
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void poolIsRefilledInTheBackground() throws InterruptedException {
+        pool.setPolicy(SHORT_POLICY);
+        awaitFull();
+
+        assertEquals(8, pool.take().length());
+        // Der genommene Platz wird wieder aufgefüllt
+        awaitFull();
+    }
+
+    @Test
+    public void newPolicyDropsAllWaitingPasswords() throws InterruptedException {
+        pool.setPolicy(SHORT_POLICY);
+        awaitFull();
+        pool.setPolicy(LONG_POLICY);
+
+        for (int i = 0; i < 3 * PasswordPool.DEFAULT_CAPACITY; i++) {
+            assertEquals(24, pool.take().length());
+        }
+    }
+
+    @Test
+    public void changingThePolicyWhileRefillingNeverReturnsAnOldPassword() {
+        for (int i = 0; i < 500; i++) {
+            PasswordPolicy policy = i % 2 == 0 ? SHORT_POLICY : LONG_POLICY;
+            pool.setPolicy(policy);
+            // Sofort nehmen, während der Nachfüll-Thread noch für die alte Richtlinie arbeiten kann
+            for (int j = 0; j < 3; j++) {
+                assertEquals(policy.getLength(), pool.take().length());
+            }
+        }
+    }
+
+    @Test
+    public void invalidatedPoolOnlyReturnsPasswordsOfTheNextPolicy() throws InterruptedException {
+        pool.setPolicy(SHORT_POLICY);
+        awaitFull();
+        pool.invalidate();
+
+        assertEquals(0, pool.getAvailable());
+        pool.setPolicy(LONG_POLICY);
+        for (int i = 0; i < 3 * PasswordPool.DEFAULT_CAPACITY; i++) {
+            assertEquals(24, pool.take().length());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalidatedPoolCannotBeUsed() {
+        pool.setPolicy(SHORT_POLICY);
+        pool.invalidate();
+
+        pool.take();
+    }
+
+    /**
+     * Helper method waiting until the refill thread has filled the pool.
+     *
+     * @throws InterruptedException if the test is interrupted while waiting
+     */
+
+    private void awaitFull() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + FILL_TIMEOUT_MILLIS;
+        while (pool.getAvailable() < PasswordPool.DEFAULT_CAPACITY) {
+            assertTrue("Pool has not been refilled", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
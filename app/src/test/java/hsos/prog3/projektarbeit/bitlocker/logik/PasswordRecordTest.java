@@ -0,0 +1,119 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the versioned binary record format described by PasswordRecord.
+ *
+ * @author Andreas Morasch
+ */
+
+public class PasswordRecordTest {
+
+    private static final byte[] PASSWORD = "Geheim!123".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void sealedRecordHasVersionHeaderAndFixedOverhead() throws GeneralSecurityException {
+        byte[] record = KeyContext.generateDataKey().seal(PASSWORD);
+
+        assertEquals(PasswordRecord.OVERHEAD + PASSWORD.length, record.length);
+        assertTrue(PasswordRecord.isVersion(record[0]));
+        assertFalse(PasswordRecord.isLegacy(record));
+        assertTrue(record.length <= PasswordRecord.maxRecordLength(PASSWORD.length));
+    }
+
+    @Test
+    public void openReturnsSealedData() throws GeneralSecurityException {
+        KeyContext key = KeyContext.generateDataKey();
+
+        assertArrayEquals(PASSWORD, key.open(key.seal(PASSWORD)));
+    }
+
+    @Test
+    public void sealingTwiceUsesFreshIv() throws GeneralSecurityException {
+        KeyContext key = KeyContext.generateDataKey();
+
+        assertFalse(Arrays.equals(key.seal(PASSWORD), key.seal(PASSWORD)));
+    }
+
+    @Test
+    public void base64RecordIsLegacy() {
+        assertTrue(PasswordRecord.isLegacy("R2VoZWltITEyMw==".getBytes(StandardCharsets.US_ASCII)));
+        assertTrue(PasswordRecord.isLegacy(new byte[0]));
+    }
+
+    @Test
+    public void onlyKnownVersionsAreAccepted() {
+        assertTrue(PasswordRecord.isVersion(PasswordRecord.VERSION_AES_GCM));
+        assertTrue(PasswordRecord.isVersion(PasswordRecord.VERSION_AES_CTR_HMAC));
+        assertFalse(PasswordRecord.isVersion((byte) 0x00));
+        assertFalse(PasswordRecord.isVersion((byte) 0x03));
+        assertTrue(PasswordRecord.isVersion(PasswordRecord.VERSION_AES_GCM_BOUND));
+        assertTrue(PasswordRecord.isVersion(PasswordRecord.VERSION_AES_CTR_HMAC_BOUND));
+        assertFalse(PasswordRecord.isVersion(PasswordRecord.BOUND_FLAG));
+        assertFalse(PasswordRecord.isVersion((byte) 0x13));
+    }
+
+    @Test
+    public void onlyRecordsSealedWithAssociatedDataAreBound() throws GeneralSecurityException {
+        KeyContext key = KeyContext.generateDataKey();
+
+        assertFalse(PasswordRecord.isBound(key.seal(PASSWORD)));
+        assertTrue(PasswordRecord.isBound(seal(key, "index-a")));
+        assertFalse(PasswordRecord.isBound("R2VoZWltITEyMw==".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test(expected = BadPaddingException.class)
+    public void boundRecordOfOtherEntryIsRejected() throws GeneralSecurityException {
+        KeyContext key = KeyContext.generateDataKey();
+        byte[] record = seal(key, "index-a");
+
+        key.open(ByteBuffer.wrap(record), "index-b".getBytes(StandardCharsets.UTF_8), ByteBuffer.allocate(PASSWORD.length));
+    }
+
+    @Test(expected = IllegalBlockSizeException.class)
+    public void recordWithUnknownVersionIsRejected() throws GeneralSecurityException {
+        KeyContext key = KeyContext.generateDataKey();
+        byte[] record = key.seal(PASSWORD);
+        record[0] = 0x7F;
+
+        key.open(record);
+    }
+
+    @Test(expected = IllegalBlockSizeException.class)
+    public void truncatedRecordIsRejected() throws GeneralSecurityException {
+        KeyContext.generateDataKey().open(new byte[PasswordRecord.OVERHEAD - 1]);
+    }
+
+    @Test(expected = BadPaddingException.class)
+    public void recordOfOtherKeyIsRejected() throws GeneralSecurityException {
+        byte[] record = KeyContext.generateDataKey().seal(PASSWORD);
+
+        KeyContext.generateDataKey().open(record);
+    }
+
+    /**
+     * Helper method sealing the test password bound to the given blind index.
+     *
+     * @param key          key to seal with
+     * @param websiteIndex blind index used as associated data
+     * @return sealed record
+     * @throws GeneralSecurityException if the record cannot be sealed
+     */
+
+    private static byte[] seal(KeyContext key, String websiteIndex) throws GeneralSecurityException {
+        byte[] record = new byte[PasswordRecord.OVERHEAD + PASSWORD.length];
+        key.seal(ByteBuffer.wrap(PASSWORD), websiteIndex.getBytes(StandardCharsets.UTF_8), ByteBuffer.wrap(record));
+        return record;
+    }
+}
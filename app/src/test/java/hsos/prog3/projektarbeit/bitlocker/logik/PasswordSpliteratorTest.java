@@ -0,0 +1,139 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the bulk and streaming generation: PasswordSpliterator, generatePasswords() and stream().
+ *
+ * @author Andreas Morasch
+ */
+
+public class PasswordSpliteratorTest {
+
+    private static final PasswordPolicy POLICY = PasswordPolicy.fromSpecialCharPortion(16, 10);
+
+    @Test
+    public void splitKeepsTheExactSize() {
+        Spliterator<String> spliterator = new PasswordSpliterator(POLICY, 1001);
+        Spliterator<String> prefix = spliterator.trySplit();
+
+        assertNotNull(prefix);
+        assertEquals(500, prefix.estimateSize());
+        assertEquals(501, spliterator.estimateSize());
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED));
+        assertEquals(1001, count(prefix) + count(spliterator));
+        assertEquals(0, spliterator.estimateSize());
+    }
+
+    @Test
+    public void smallRestIsNotSplit() {
+        Spliterator<String> spliterator = new PasswordSpliterator(POLICY, 127);
+
+        assertNull(spliterator.trySplit());
+        assertEquals(127, spliterator.estimateSize());
+    }
+
+    @Test
+    public void repeatedSplitsCoverAllPasswords() {
+        Spliterator<String> spliterator = new PasswordSpliterator(POLICY, 10000);
+        long total = 0;
+        Spliterator<String> part;
+        while ((part = spliterator.trySplit()) != null) {
+            total += count(part);
+        }
+
+        assertEquals(10000, total + count(spliterator));
+    }
+
+    @Test
+    public void tryAdvanceStopsAfterCount() {
+        Spliterator<String> spliterator = new PasswordSpliterator(POLICY, 2);
+        final List<String> passwords = new ArrayList<>();
+        Consumer<String> collect = new Consumer<String>() {
+            @Override
+            public void accept(String password) {
+                passwords.add(password);
+            }
+        };
+
+        assertTrue(spliterator.tryAdvance(collect));
+        assertTrue(spliterator.tryAdvance(collect));
+        assertFalse(spliterator.tryAdvance(collect));
+        assertEquals(2, passwords.size());
+    }
+
+    @Test
+    public void parallelStreamGeneratesCountDistinctPasswords() {
+        List<String> passwords = new PasswordGenerator().stream(POLICY, 5000, true).collect(Collectors.<String>toList());
+
+        assertEquals(5000, passwords.size());
+        assertEquals(5000, new HashSet<>(passwords).size());
+        for (String password : passwords) {
+            assertEquals(16, password.length());
+        }
+    }
+
+    @Test
+    public void sequentialStreamAndIteratorAreLimited() {
+        PasswordGenerator passwordGenerator = new PasswordGenerator();
+
+        assertEquals(0, passwordGenerator.stream(POLICY, 0, false).count());
+        assertEquals(300, passwordGenerator.stream(POLICY, 300, false).count());
+
+        Iterator<String> iterator = passwordGenerator.iterator(POLICY, 3);
+        Set<String> passwords = new HashSet<>();
+        while (iterator.hasNext()) {
+            passwords.add(iterator.next());
+        }
+        assertEquals(3, passwords.size());
+    }
+
+    @Test
+    public void generatePasswordsFillsOnlyTheRange() {
+        String[] passwords = new String[10];
+        new PasswordGenerator().generatePasswords(POLICY, passwords, 2, 5);
+
+        for (int i = 0; i < passwords.length; i++) {
+            if (i >= 2 && i < 7) {
+                assertEquals(16, passwords[i].length());
+            } else {
+                assertNull(passwords[i]);
+            }
+        }
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void generatePasswordsRejectsRangeBeyondTheArray() {
+        new PasswordGenerator().generatePasswords(POLICY, new String[4], 2, 3);
+    }
+
+    /**
+     * Helper method consuming all remaining passwords of a spliterator.
+     *
+     * @param spliterator spliterator to be consumed
+     * @return number of passwords, all of them with the length of the policy
+     */
+
+    private static long count(Spliterator<String> spliterator) {
+        final long[] count = new long[1];
+        spliterator.forEachRemaining(new Consumer<String>() {
+            @Override
+            public void accept(String password) {
+                assertEquals(16, password.length());
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+}
@@ -0,0 +1,103 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the PasswordStrengthEstimator, above all for the incremental update after an edit.
+ *
+ * @author Andreas Morasch
+ */
+
+public class PasswordStrengthEstimatorTest {
+
+    private static final PasswordDictionary DICTIONARY = new PasswordDictionary("passwort", "hallo", "sommer", "dragon", "pass");
+    // Buchstaben der Wörter, Ziffern für Sequenzen und Tastaturmuster, Sonderzeichen für die Leet-Ersetzungen
+    private static final String ALPHABET = "passwortHALLOsmedgn0123456789qwertzasdfyxc4@3!$";
+
+    @Test
+    public void typingAndDeletingAtTheEndEqualsFreshEstimate() {
+        PasswordStrengthEstimator estimator = new PasswordStrengthEstimator(DICTIONARY);
+        String password = "P4ssw0rt1234qwertz!";
+        for (int i = 0; i <= password.length(); i++) {
+            assertSameEstimate(estimator, password.substring(0, i));
+        }
+        for (int i = password.length(); i >= 0; i--) {
+            assertSameEstimate(estimator, password.substring(0, i));
+        }
+    }
+
+    @Test
+    public void editsInTheMiddleEqualFreshEstimate() {
+        PasswordStrengthEstimator estimator = new PasswordStrengthEstimator(DICTIONARY);
+        String[] edits = {
+                "hallosommer",
+                "hallo sommer",
+                "hallXsommer",
+                "hallosommer2020",
+                "halsommer2020",
+                "dragonsommer2020",
+                "sommer2020",
+                "Sommer20200000",
+                "S0mmer2020",
+                ""
+        };
+        for (String edit : edits) {
+            assertSameEstimate(estimator, edit);
+        }
+    }
+
+    @Test
+    public void randomInsertsAndDeletesEqualFreshEstimate() {
+        PasswordStrengthEstimator estimator = new PasswordStrengthEstimator(DICTIONARY);
+        Random random = new Random(42);
+        StringBuilder password = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            if (password.length() > 0 && random.nextInt(3) == 0) {
+                int start = random.nextInt(password.length());
+                password.delete(start, start + 1 + random.nextInt(Math.min(3, password.length() - start)));
+            } else {
+                password.insert(random.nextInt(password.length() + 1), ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            assertSameEstimate(estimator, password.toString());
+        }
+    }
+
+    @Test
+    public void patternsAreWeakerThanRandomCharacters() {
+        PasswordStrengthEstimator estimator = new PasswordStrengthEstimator(DICTIONARY);
+        double random = estimator.update("xq7#Lm2v");
+
+        assertTrue(estimator.update("Passwort") < random);
+        assertTrue(estimator.update("qwertzui") < random);
+        assertTrue(estimator.update("12345678") < random);
+        assertTrue(estimator.update("aaaaaaaa") < random);
+    }
+
+    @Test
+    public void clearResetsTheEstimate() {
+        PasswordStrengthEstimator estimator = new PasswordStrengthEstimator(DICTIONARY);
+        estimator.update("hallosommer");
+        estimator.clear();
+
+        assertEquals(0, estimator.getEntropyBits(), 0);
+        assertSameEstimate(estimator, "hallo");
+    }
+
+    /**
+     * Helper method updating the estimator with the password and comparing the result with a fresh estimator.
+     *
+     * @param estimator estimator holding the previous password
+     * @param password  changed password
+     */
+
+    private static void assertSameEstimate(PasswordStrengthEstimator estimator, String password) {
+        PasswordStrengthEstimator fresh = new PasswordStrengthEstimator(DICTIONARY);
+
+        assertEquals(password, fresh.update(password), estimator.update(password), 0);
+        assertEquals(password, fresh.getScore(), estimator.getScore());
+    }
+}
@@ -0,0 +1,117 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the rejection sampling of RandomBuffer.
+ *
+ * @author Andreas Morasch
+ */
+
+public class RandomBufferTest {
+
+    @Test
+    public void nextIndexStaysWithinEveryBound() {
+        RandomBuffer randomBuffer = new RandomBuffer();
+        for (int bound = 1; bound <= RandomBuffer.MAX_BOUND; bound++) {
+            for (int i = 0; i < 200; i++) {
+                int index = randomBuffer.nextIndex(bound);
+                assertTrue("Index " + index + " out of bound " + bound, index >= 0 && index < bound);
+            }
+        }
+    }
+
+    @Test
+    public void nextIndexDropsBytesAboveTheLargestMultiple() {
+        // Für bound 100 ist 200 das größte Vielfache, 250 und 200 müssen verworfen werden
+        RandomBuffer randomBuffer = new RandomBuffer(new SequenceRandom(250, 200, 199, 37));
+
+        assertEquals(99, randomBuffer.nextIndex(100));
+        assertEquals(37, randomBuffer.nextIndex(100));
+    }
+
+    @Test
+    public void nextIndexMapsEveryByteValueUniformly() {
+        // Jeder Bytewert kommt genau einmal vor, für bound 3 wird nur 255 verworfen
+        RandomBuffer randomBuffer = new RandomBuffer(new SequenceRandom(counting()));
+        int[] counts = new int[3];
+        for (int i = 0; i < 255; i++) {
+            counts[randomBuffer.nextIndex(3)]++;
+        }
+
+        assertArrayEquals(new int[]{85, 85, 85}, counts);
+        assertEquals(0, randomBuffer.nextIndex(3));
+    }
+
+    @Test
+    public void nextIntStaysWithinLargeBounds() {
+        RandomBuffer randomBuffer = new RandomBuffer();
+        int[] bounds = {RandomBuffer.MAX_BOUND + 1, 7776, 1 << 20, Integer.MAX_VALUE};
+        for (int bound : bounds) {
+            for (int i = 0; i < 1000; i++) {
+                int index = randomBuffer.nextInt(bound);
+                assertTrue("Index " + index + " out of bound " + bound, index >= 0 && index < bound);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nextIndexRejectsZeroBound() {
+        new RandomBuffer().nextIndex(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nextIndexRejectsBoundAboveMaximum() {
+        new RandomBuffer().nextIndex(RandomBuffer.MAX_BOUND + 1);
+    }
+
+    /**
+     * Helper method returning the byte values 0 to 255 in ascending order.
+     *
+     * @return all byte values
+     */
+
+    private static int[] counting() {
+        int[] values = new int[256];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+
+    /**
+     * SecureRandom returning the given byte values over and over again instead of random bytes.
+     */
+
+    private static final class SequenceRandom extends SecureRandom {
+
+        private final int[] values;
+        private int next;
+
+        /**
+         * Constructor for the SequenceRandom class.
+         *
+         * @param values byte values between 0 and 255
+         */
+
+        private SequenceRandom(int... values) {
+            this.values = values;
+        }
+
+        /**
+         * Fills the array with the next values of the sequence.
+         */
+
+        @Override
+        public void nextBytes(byte[] bytes) {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) values[next];
+                next = (next + 1) % values.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package android.content;
+
+import android.content.res.AssetManager;
+
+import java.io.File;
+
+/**
+ * Stub of android.content.Context for the benchmark module, only the methods used by WordList and
+ * PasswordDictionary. Benchmarks which need a context implement the abstract methods.
+ *
+ * @author Andreas Morasch
+ */
+
+public abstract class Context {
+
+    /**
+     * Returns this context, there is no separate application context on the JVM.
+     */
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    /**
+     * Returns the assets of the app.
+     */
+
+    public abstract AssetManager getAssets();
+
+    /**
+     * Returns the directory for files of the app.
+     */
+
+    public abstract File getFilesDir();
+}
@@ -0,0 +1,19 @@
+package android.content.res;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stub of android.content.res.AssetManager for the benchmark module.
+ *
+ * @author Andreas Morasch
+ */
+
+public abstract class AssetManager {
+
+    /**
+     * Opens a bundled asset.
+     */
+
+    public abstract InputStream open(String fileName) throws IOException;
+}
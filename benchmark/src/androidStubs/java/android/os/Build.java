@@ -0,0 +1,20 @@
+package android.os;
+
+/**
+ * Stub of android.os.Build for the benchmark module, only the constants used in @RequiresApi.
+ *
+ * @author Andreas Morasch
+ */
+
+public class Build {
+
+    /**
+     * Stub of android.os.Build.VERSION_CODES.
+     */
+
+    public static class VERSION_CODES {
+
+        public static final int N = 24;
+        public static final int O = 26;
+    }
+}
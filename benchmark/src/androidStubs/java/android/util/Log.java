@@ -0,0 +1,63 @@
+package android.util;
+
+/**
+ * Stub of android.util.Log for the benchmark module, warnings and errors are printed to System.err.
+ *
+ * @author Andreas Morasch
+ */
+
+public final class Log {
+
+    /**
+     * Private constructor, the class only offers static methods.
+     */
+
+    private Log() {
+    }
+
+    /**
+     * Debug messages are dropped, printing them would distort the measurements.
+     */
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    /**
+     * Prints a warning to System.err.
+     */
+
+    public static int w(String tag, String msg) {
+        System.err.println(tag + msg);
+        return 0;
+    }
+
+    /**
+     * Prints a warning and its stack trace to System.err.
+     */
+
+    public static int w(String tag, String msg, Throwable tr) {
+        System.err.println(tag + msg);
+        tr.printStackTrace();
+        return 0;
+    }
+
+    /**
+     * Prints an error to System.err.
+     */
+
+    public static int e(String tag, String msg) {
+        System.err.println(tag + msg);
+        return 0;
+    }
+
+    /**
+     * Prints an error and its stack trace to System.err.
+     */
+
+    public static int e(String tag, String msg, Throwable tr) {
+        System.err.println(tag + msg);
+        tr.printStackTrace();
+        return 0;
+    }
+}
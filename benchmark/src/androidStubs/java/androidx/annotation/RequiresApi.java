@@ -0,0 +1,34 @@
+package androidx.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Stub of androidx.annotation.RequiresApi for the benchmark module. On the JVM every API level is available,
+ * so the annotation has no meaning there.
+ *
+ * @author Andreas Morasch
+ */
+
+@Retention(RetentionPolicy.CLASS)
+@Target({ElementType.TYPE, ElementType.METHOD, ElementType.CONSTRUCTOR, ElementType.FIELD})
+public @interface RequiresApi {
+
+    /**
+     * Required API level, same as api().
+     *
+     * @return API level
+     */
+
+    int value() default 1;
+
+    /**
+     * Required API level.
+     *
+     * @return API level
+     */
+
+    int api() default 1;
+}
@@ -0,0 +1,12 @@
+package hsos.prog3.projektarbeit.bitlocker;
+
+/**
+ * Stub of the BuildConfig generated by the Android build, the benchmark module has no Android build.
+ *
+ * @author Andreas Morasch
+ */
+
+public final class BuildConfig {
+
+    public static final int VERSION_CODE = 1;
+}
@@ -0,0 +1,85 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Benchmarks of the encryption and decryption of a single password with AES_Encryption, for several password
+ * lengths. Both the String API used by the DatabaseHelper and the allocation-free char[] / ByteBuffer API are
+ * measured, the selected CryptoEngine is the default one of the JVM.
+ *
+ * @author Andreas Morasch
+ * @see AES_Encryption
+ */
+
+@State(Scope.Thread)
+public class AES_EncryptionBenchmark {
+
+    @Param({"10", "20", "50"})
+    public int passwordLength;
+
+    private AES_Encryption aes_encryption;
+    private String password;
+    private char[] passwordChars;
+    private byte[] encryptedPassword;
+    private ByteBuffer encryptedBuffer;
+    private char[] decryptedChars;
+
+    /**
+     * Creates a random data key and encrypts one random password of the given length.
+     *
+     * @throws Exception if the password cannot be encrypted
+     */
+
+    @Setup
+    public void setUp() throws Exception {
+        this.aes_encryption = new AES_Encryption(KeyContext.generateDataKey());
+        this.password = new PasswordGenerator().generatePassword(PasswordPolicy.fromSpecialCharPortion(passwordLength, 20));
+        this.passwordChars = password.toCharArray();
+        this.encryptedPassword = aes_encryption.encryptPassword(password);
+        this.encryptedBuffer = ByteBuffer.allocate(PasswordRecord.maxRecordLength(passwordLength));
+        this.decryptedChars = new char[passwordLength];
+    }
+
+    /**
+     * Encrypts the password into a new byte[].
+     */
+
+    @Benchmark
+    public byte[] encryptPassword() throws Exception {
+        return aes_encryption.encryptPassword(password);
+    }
+
+    /**
+     * Decrypts the password into a new String.
+     */
+
+    @Benchmark
+    public String decryptPassword() throws Exception {
+        return aes_encryption.decryptPassword(encryptedPassword);
+    }
+
+    /**
+     * Encrypts the password into a reused ByteBuffer.
+     */
+
+    @Benchmark
+    public int encryptPasswordIntoBuffer() throws Exception {
+        encryptedBuffer.clear();
+        return aes_encryption.encryptPassword(passwordChars, encryptedBuffer);
+    }
+
+    /**
+     * Decrypts the password into a reused char[].
+     */
+
+    @Benchmark
+    public int decryptPasswordIntoBuffer() throws Exception {
+        return aes_encryption.decryptPassword(ByteBuffer.wrap(encryptedPassword), decryptedChars);
+    }
+}
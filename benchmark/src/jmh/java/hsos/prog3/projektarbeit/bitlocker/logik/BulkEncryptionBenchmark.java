@@ -0,0 +1,79 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks of the bulk methods of AES_Encryption, as used when the vault is loaded, exported or re-encrypted.
+ * One operation processes the whole vault, so the throughput is given in vaults per time unit.
+ *
+ * @author Andreas Morasch
+ * @see AES_Encryption#encryptPasswords(java.util.Collection)
+ */
+
+@State(Scope.Thread)
+public class BulkEncryptionBenchmark {
+
+    @Param({"100", "1000"})
+    public int vaultSize;
+
+    @Param({"20"})
+    public int passwordLength;
+
+    private AES_Encryption aes_encryption;
+    private AES_Encryption newEncryption;
+    private List<String> passwords;
+    private List<byte[]> encryptedPasswords;
+
+    /**
+     * Creates two random data keys and a vault of random passwords.
+     *
+     * @throws Exception if the passwords cannot be encrypted
+     */
+
+    @Setup
+    public void setUp() throws Exception {
+        this.aes_encryption = new AES_Encryption(KeyContext.generateDataKey());
+        this.newEncryption = new AES_Encryption(KeyContext.generateDataKey());
+        this.passwords = new ArrayList<>(vaultSize);
+        PasswordGenerator passwordGenerator = new PasswordGenerator();
+        PasswordPolicy passwordPolicy = PasswordPolicy.fromSpecialCharPortion(passwordLength, 20);
+        for (int i = 0; i < vaultSize; i++) {
+            passwords.add(passwordGenerator.generatePassword(passwordPolicy));
+        }
+        this.encryptedPasswords = aes_encryption.encryptPasswords(passwords);
+    }
+
+    /**
+     * Encrypts all passwords of the vault.
+     */
+
+    @Benchmark
+    public List<byte[]> encryptPasswords() throws Exception {
+        return aes_encryption.encryptPasswords(passwords);
+    }
+
+    /**
+     * Decrypts all passwords of the vault.
+     */
+
+    @Benchmark
+    public List<String> decryptPasswords() throws Exception {
+        return aes_encryption.decryptPasswords(encryptedPasswords);
+    }
+
+    /**
+     * Re-encrypts all passwords of the vault with a new key, as during a key rotation.
+     */
+
+    @Benchmark
+    public List<byte[]> reencryptPasswords() throws Exception {
+        return aes_encryption.reencryptPasswords(encryptedPasswords, newEncryption);
+    }
+}
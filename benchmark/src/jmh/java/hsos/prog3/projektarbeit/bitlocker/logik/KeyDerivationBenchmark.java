@@ -0,0 +1,66 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Benchmarks of the derivation of the SecretKeySpec from the master password: the single SHA-256 hash of old vaults
+ * (formerly getSecretKeySpec) and PBKDF2 with several iteration counts. KeyDerivation is measured directly, without
+ * building the KeyContext of KeyContext.fromMasterPassword(String, byte[], int) around the key. PBKDF2 is slow on
+ * purpose, its results are given in milliseconds.
+ *
+ * @author Andreas Morasch
+ * @see KeyContext
+ * @see KeyDerivation
+ */
+
+@State(Scope.Thread)
+public class KeyDerivationBenchmark {
+
+    @Param({"10000", "100000"})
+    public int iterations;
+
+    private String masterPassword;
+    private byte[] salt;
+
+    /**
+     * Creates a random master password and salt.
+     */
+
+    @Setup
+    public void setUp() {
+        this.masterPassword = new PasswordGenerator().generatePassword(PasswordPolicy.fromSpecialCharPortion(16, 20));
+        this.salt = KeyDerivation.newSalt();
+    }
+
+    /**
+     * Derives the key of an old vault with one SHA-256 hash.
+     */
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SecretKeySpec getSecretKeySpecLegacy() throws Exception {
+        return KeyContext.deriveSecretKeySpec(masterPassword);
+    }
+
+    /**
+     * Derives the key encryption key with PBKDF2-HMAC-SHA256.
+     */
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] getSecretKeySpecPbkdf2() throws Exception {
+        return KeyDerivation.derive(masterPassword, salt, iterations);
+    }
+}
@@ -0,0 +1,67 @@
+package hsos.prog3.projektarbeit.bitlocker.logik;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks of the PasswordGenerator for several password lengths and special character portions. The compiled
+ * policy is measured separately from generatePassword(int, int), which compiles the policy on every call.
+ *
+ * @author Andreas Morasch
+ * @see PasswordGenerator
+ */
+
+@State(Scope.Thread)
+public class PasswordGeneratorBenchmark {
+
+    @Param({"10", "20", "50"})
+    public int passwordLength;
+
+    @Param({"0", "20", "50"})
+    public int specialCharPortion;
+
+    private PasswordGenerator passwordGenerator;
+    private PasswordPolicy passwordPolicy;
+    private PasswordPolicy unambiguousPolicy;
+
+    /**
+     * Creates the generator and compiles the policies.
+     */
+
+    @Setup
+    public void setUp() {
+        this.passwordGenerator = new PasswordGenerator();
+        this.passwordPolicy = PasswordPolicy.fromSpecialCharPortion(passwordLength, specialCharPortion);
+        this.unambiguousPolicy = passwordPolicy.withoutAmbiguousCharacters();
+    }
+
+    /**
+     * Generates a password with a compiled policy.
+     */
+
+    @Benchmark
+    public String generatePassword() {
+        return passwordGenerator.generatePassword(passwordPolicy);
+    }
+
+    /**
+     * Generates a password without ambiguous characters with a compiled policy.
+     */
+
+    @Benchmark
+    public String generatePasswordUnambiguous() {
+        return passwordGenerator.generatePassword(unambiguousPolicy);
+    }
+
+    /**
+     * Compiles the policy and generates a password, as the generator screens did before the policy was kept.
+     */
+
+    @Benchmark
+    public String generatePasswordWithPolicyCompilation() {
+        return passwordGenerator.generatePassword(passwordLength, specialCharPortion);
+    }
+}